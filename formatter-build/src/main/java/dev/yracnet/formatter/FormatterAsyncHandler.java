@@ -0,0 +1,248 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package dev.yracnet.formatter;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Handler that writes the records of the workers in a background thread.
+ * The records are kept in a ring buffer and the thread passes them to the
+ * target handler in batches, so a worker does not wait for the console. When
+ * the ring is full the records under WARNING are dropped and counted, the
+ * warnings wait for a free slot.
+ *
+ * The source of a record is inferred in the caller thread before it is
+ * queued, the stack of the writer thread has not the caller. The capacity is
+ * the property dev.yracnet.formatter.FormatterAsyncHandler.capacity of the
+ * logging configuration, 0 for write in the caller thread.
+ *
+ * @author wyujra
+ */
+public class FormatterAsyncHandler extends Handler {
+
+    private static final int DEFAULT_CAPACITY = 8192;
+    private static final long FLUSH_WAIT = 100;
+
+    private final Handler target;
+    private final LogRecord[] ring;
+    private final int mask;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Condition written = lock.newCondition();
+    private final Thread writer;
+    // the sequences of the ring: next record to write, next free slot and records written
+    private long head;
+    private long tail;
+    private long done;
+    private long dropped;
+    private boolean closed;
+
+    /**
+     * Create the handler and start its thread
+     *
+     * @param target the handler that writes the records
+     * @param capacity the records kept in the ring, rounded to a power of
+     * two
+     */
+    public FormatterAsyncHandler(Handler target, int capacity) {
+        this.target = target;
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.ring = new LogRecord[size];
+        this.mask = size - 1;
+        this.writer = new Thread(this::drain, "formatter-log");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Replace the handlers of the logger by handlers that write them from
+     * the ring buffer, with the capacity of the logging configuration. The
+     * handlers of the parents are not changed
+     *
+     * @param logger the logger
+     */
+    public static void install(Logger logger) {
+        int capacity = DEFAULT_CAPACITY;
+        String value = LogManager.getLogManager().getProperty(FormatterAsyncHandler.class.getName() + ".capacity");
+        if (value != null) {
+            try {
+                capacity = Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                // the default capacity
+            }
+        }
+        if (capacity <= 0) {
+            return;
+        }
+        for (Handler handler : logger.getHandlers()) {
+            if (!(handler instanceof FormatterAsyncHandler)) {
+                logger.removeHandler(handler);
+                logger.addHandler(new FormatterAsyncHandler(handler, capacity));
+            }
+        }
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (!isLoggable(record) || !target.isLoggable(record)) {
+            return;
+        }
+        if (Thread.currentThread() == writer) {
+            // logged by the target, the ring could be full
+            target.publish(record);
+            return;
+        }
+        // inferred from the stack of the caller, later it is lost
+        record.getSourceClassName();
+        boolean direct;
+        lock.lock();
+        try {
+            while (!closed && tail - head == ring.length) {
+                if (record.getLevel().intValue() < Level.WARNING.intValue()) {
+                    dropped++;
+                    return;
+                }
+                notFull.awaitUninterruptibly();
+            }
+            direct = closed;
+            if (!direct) {
+                ring[(int) tail & mask] = record;
+                if (tail++ == head) {
+                    notEmpty.signal();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (direct) {
+            target.publish(record);
+        }
+    }
+
+    /**
+     * Wait until the records published before are written
+     */
+    @Override
+    public void flush() {
+        if (Thread.currentThread() == writer) {
+            return;
+        }
+        lock.lock();
+        try {
+            long goal = tail;
+            while (done < goal && writer.isAlive()) {
+                written.await(FLUSH_WAIT, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+        }
+        target.flush();
+    }
+
+    /**
+     * Write the records of the ring and close the target
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notEmpty.signal();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long lost;
+        lock.lock();
+        try {
+            // dropped after the last batch of the writer
+            lost = dropped;
+            dropped = 0;
+        } finally {
+            lock.unlock();
+        }
+        if (lost > 0) {
+            write(new LogRecord(Level.WARNING, lost + " log record(s) dropped, the ring buffer of the log was full"));
+        }
+        target.close();
+    }
+
+    /**
+     * Write the records in batches until the handler is closed and the ring
+     * is empty
+     */
+    private void drain() {
+        LogRecord[] batch = new LogRecord[ring.length];
+        while (true) {
+            int count;
+            long lost;
+            lock.lock();
+            try {
+                while (head == tail && !closed) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                if (head == tail) {
+                    return;
+                }
+                count = (int) (tail - head);
+                for (int i = 0; i < count; i++) {
+                    int index = (int) (head + i) & mask;
+                    batch[i] = ring[index];
+                    ring[index] = null;
+                }
+                head = tail;
+                lost = dropped;
+                dropped = 0;
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            if (lost > 0) {
+                write(new LogRecord(Level.WARNING, lost + " log record(s) dropped, the ring buffer of the log was full"));
+            }
+            for (int i = 0; i < count; i++) {
+                write(batch[i]);
+                batch[i] = null;
+            }
+            target.flush();
+            lock.lock();
+            try {
+                done += count;
+                written.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void write(LogRecord record) {
+        try {
+            target.publish(record);
+        } catch (RuntimeException e) {
+            reportError(null, e, ErrorManager.WRITE_FAILURE);
+        }
+    }
+
+}
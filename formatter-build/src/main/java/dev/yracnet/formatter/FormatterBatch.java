@@ -0,0 +1,118 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package dev.yracnet.formatter;
+
+import java.util.List;
+import net.revelc.code.formatter.FormatterBatchImpl;
+
+/**
+ * Format many projects in one execution. Each unit is a {@link FormatterBuild}
+ * with its own basedir, directories, includes, excludes and target
+ * directory; the units with the same formatter settings share the
+ * initialized formatters and the files of all units are formatted by one
+ * worker pool.
+ *
+ * @author wyujra
+ */
+public interface FormatterBatch {
+
+    /**
+     * Create the default instance for FormatterBatch
+     *
+     * @return
+     */
+    public static FormatterBatch create() {
+        FormatterBatch batch = new FormatterBatchImpl();
+        batch.setLog(new FormatterLogImpl());
+        return batch;
+    }
+
+    /**
+     * Add a new unit to the batch, the unit uses the logger of the batch.
+     * The worker settings of the unit are ignored, the batch settings are
+     * used for all units
+     *
+     * @return the unit to configure
+     */
+    public FormatterBuild addUnit();
+
+    public List<FormatterBuild> getUnits();
+
+    /**
+     * Execute the format code of all units
+     *
+     * @throws FormatterException
+     */
+    public void execute() throws FormatterException;
+
+    public FormatterLog getLog();
+
+    /**
+     * Set the Logger Implement
+     *
+     * @param logger
+     */
+    public void setLog(FormatterLog logger);
+
+    public int getThreads();
+
+    /**
+     * Set the number of worker threads that format the files of all units, 0
+     * for the CPU quota of the container
+     *
+     * @param threads
+     */
+    public void setThreads(int threads);
+
+    public int getIoThreads();
+
+    /**
+     * Set the number of worker threads that read and hash the files of all
+     * units, 0 for twice the CPU quota of the container
+     *
+     * @param ioThreads
+     */
+    public void setIoThreads(int ioThreads);
+
+    public boolean isAdaptiveThreads();
+
+    /**
+     * Set TRUE for resize the worker threads while running
+     *
+     * @param adaptiveThreads
+     */
+    public void setAdaptiveThreads(boolean adaptiveThreads);
+
+    public long getMaxInFlightBytes();
+
+    /**
+     * Set the memory budget in bytes for the files formatted at the same
+     * time, in all units
+     *
+     * @param maxInFlightBytes
+     */
+    public void setMaxInFlightBytes(long maxInFlightBytes);
+
+    public int getMaxOpenFiles();
+
+    /**
+     * Set the maximum number of files open at the same time, in all units
+     *
+     * @param maxOpenFiles
+     */
+    public void setMaxOpenFiles(int maxOpenFiles);
+
+    public long getHugeFileThreshold();
+
+    /**
+     * Set the size in bytes from which a file is formatted in a dedicated
+     * lane. Use 0 for disable
+     *
+     * @param hugeFileThreshold
+     */
+    public void setHugeFileThreshold(long hugeFileThreshold);
+
+}
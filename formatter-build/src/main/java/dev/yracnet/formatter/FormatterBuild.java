@@ -6,9 +6,14 @@
 package dev.yracnet.formatter;
 
 import java.io.File;
+import java.io.Reader;
+import java.io.Writer;
 import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import net.revelc.code.formatter.FormatterBuildImpl;
 import net.revelc.code.formatter.LineEnding;
+import net.revelc.code.formatter.cache.CacheBackend;
 
 /**
  *
@@ -34,6 +39,68 @@ public interface FormatterBuild {
      */
     public void execute() throws FormatterException;
 
+    /**
+     * Execute the format code in a background thread. The listener is
+     * notified of each file as it completes, from the worker threads. Cancel
+     * the future to stop the run: the queued files are dropped, the formats
+     * in flight are abandoned and no file is written after the cancel; a
+     * formatter without time budget ends its file before it stops
+     *
+     * @param listener the listener of the files, or null
+     * @return the report of the run, completed exceptionally with a
+     * FormatterException if the run fails
+     */
+    public CompletableFuture<FormatterReport> executeAsync(FormatterListener listener);
+
+    /**
+     * Execute the format code in a background thread, without listener
+     *
+     * @return the report of the run
+     * @see #executeAsync(FormatterListener)
+     */
+    public default CompletableFuture<FormatterReport> executeAsync() {
+        return executeAsync(null);
+    }
+
+    /**
+     * Format the code in memory, without read or write files and without the
+     * hash cache. The formatters are initialized from the settings of this
+     * build on the first call and reused, the method could be called from
+     * many threads
+     *
+     * @param content the code
+     * @param languageOrFileName the language (java, js, json, css, html,
+     * xml), an extension or a file name
+     * @return the formatted code, the same content if already formatted
+     * @throws FormatterException if not formatter support the language or
+     * the code cannot be formatted
+     */
+    public String format(String content, String languageOrFileName) throws FormatterException;
+
+    /**
+     * Format the code of the reader into the writer, the streams are not
+     * closed
+     *
+     * @param reader the code
+     * @param writer the formatted code
+     * @param languageOrFileName the language, an extension or a file name
+     * @throws FormatterException
+     */
+    public void format(Reader reader, Writer writer, String languageOrFileName) throws FormatterException;
+
+    /**
+     * Format many codes in parallel with the worker threads of this build.
+     * The key of each code is its file name. The threads end after a minute
+     * without calls
+     *
+     * @param contents the codes by file name
+     * @return the formatted codes by file name, in the same order
+     * @throws FormatterException when all the codes completed, if any code
+     * cannot be formatted: the message names the failed codes, the failure of
+     * the first one is the cause and the others are suppressed
+     */
+    public Map<String, String> formatAll(Map<String, String> contents) throws FormatterException;
+
     public FormatterLog getLog();
 
     /**
@@ -135,6 +202,246 @@ public interface FormatterBuild {
      */
     public void setLineEnding(LineEnding lineEnding);
 
+    public long getFileTimeout();
+
+    /**
+     * Set the default time budget for format a file in milliseconds, a file
+     * that exceeds the budget is abandoned and skipped in the next executions
+     * until its content changes. Use 0 for no limit
+     *
+     * @param fileTimeout
+     */
+    public void setFileTimeout(long fileTimeout);
+
+    public int getThreads();
+
+    /**
+     * Set the number of worker threads that format the files, 0 for the CPU
+     * quota of the container
+     *
+     * @param threads
+     */
+    public void setThreads(int threads);
+
+    public int getIoThreads();
+
+    /**
+     * Set the number of worker threads that read and hash the files, 0 for
+     * twice the CPU quota of the container
+     *
+     * @param ioThreads
+     */
+    public void setIoThreads(int ioThreads);
+
+    public boolean isAdaptiveThreads();
+
+    /**
+     * Set TRUE for resize the worker threads while running from the queue
+     * depths and the measured latencies of the read and format stages
+     *
+     * @param adaptiveThreads
+     */
+    public void setAdaptiveThreads(boolean adaptiveThreads);
+
+    public long getMaxInFlightBytes();
+
+    /**
+     * Set the memory budget in bytes for the files formatted at the same
+     * time, a file waits until its estimated memory is available
+     *
+     * @param maxInFlightBytes
+     */
+    public void setMaxInFlightBytes(long maxInFlightBytes);
+
+    public int getMaxOpenFiles();
+
+    /**
+     * Set the maximum number of files open at the same time
+     *
+     * @param maxOpenFiles
+     */
+    public void setMaxOpenFiles(int maxOpenFiles);
+
+    public long getHugeFileThreshold();
+
+    /**
+     * Set the size in bytes from which a file is formatted in a dedicated
+     * lane, so huge files do not starve the small files. Use 0 for disable
+     *
+     * @param hugeFileThreshold
+     */
+    public void setHugeFileThreshold(long hugeFileThreshold);
+
+    public int getProcesses();
+
+    /**
+     * Set the number of child JVMs that format the files, 0 for format in
+     * this JVM. The file that crashes a child is quarantined until its
+     * content changes and the rest of its slice is formatted by other child
+     *
+     * @param processes
+     */
+    public void setProcesses(int processes);
+
+    public String getWorkerJvmOptions();
+
+    /**
+     * Set the options of the child JVMs, as -Xmx1g -Xss4m; an option with
+     * spaces goes between quotes, as "-Dname=a value"
+     *
+     * @param workerJvmOptions
+     */
+    public void setWorkerJvmOptions(String workerJvmOptions);
+
+    public String getShard();
+
+    /**
+     * Set the shard <code>i/n</code> of the files to format, with i from 1
+     * to n, for split the build between independent jobs. Each shard writes
+     * its own cache fragment, merge them with {@link FormatterCacheMerge}
+     *
+     * @param shard
+     */
+    public void setShard(String shard);
+
+    public boolean isShardBalanced();
+
+    /**
+     * Set TRUE for balance the shards by the file sizes and the cost history
+     * of the cache instead of the hash of the path. All the shards must start
+     * with the same sources and the same cache
+     *
+     * @param shardBalanced
+     */
+    public void setShardBalanced(boolean shardBalanced);
+
+    public int getOutputCacheEntries();
+
+    /**
+     * Set the maximum number of formatted codes kept in memory, a repeated
+     * content with the same formatter settings is formatted once. Use 0 for
+     * disable the cache
+     *
+     * @param outputCacheEntries
+     */
+    public void setOutputCacheEntries(int outputCacheEntries);
+
+    public long getOutputCacheBytes();
+
+    /**
+     * Set the maximum estimated size in bytes of the formatted codes kept in
+     * memory, the least recently used are evicted first
+     *
+     * @param outputCacheBytes
+     */
+    public void setOutputCacheBytes(long outputCacheBytes);
+
+    public long getCacheCheckpointInterval();
+
+    /**
+     * Set the milliseconds between the checkpoints of the cache journal. The
+     * cache entries are appended to the journal as the files complete, an
+     * interrupted run resumes from the last checkpoint
+     *
+     * @param cacheCheckpointInterval
+     */
+    public void setCacheCheckpointInterval(long cacheCheckpointInterval);
+
+    public int getCacheMaxAge();
+
+    /**
+     * Set the number of runs an entry of the hash cache is kept without its
+     * file being scanned, the entries of deleted or moved files are pruned
+     * after them. Use 0 for keep only the files of the last run
+     *
+     * @param cacheMaxAge
+     */
+    public void setCacheMaxAge(int cacheMaxAge);
+
+    public int getCacheMaxEntries();
+
+    /**
+     * Set the maximum number of entries of the hash cache, the least
+     * recently scanned are evicted first. Use 0 for no limit
+     *
+     * @param cacheMaxEntries
+     */
+    public void setCacheMaxEntries(int cacheMaxEntries);
+
+    public long getCacheMaxBytes();
+
+    /**
+     * Set the maximum size in bytes of the hash cache file, the least
+     * recently scanned entries are evicted first. Use 0 for no limit
+     *
+     * @param cacheMaxBytes
+     */
+    public void setCacheMaxBytes(long cacheMaxBytes);
+
+    public CacheBackend getCacheBackend();
+
+    /**
+     * Set where the cache entries are stored. XATTR stores them in the
+     * user.formatter.* extended attributes of the files, with no cache file
+     * to load and surviving the clean of the target directory; the files of
+     * a file system without extended attributes fall back to the properties
+     * file
+     *
+     * @param cacheBackend
+     */
+    public void setCacheBackend(CacheBackend cacheBackend);
+
+    public boolean isDirectorySnapshots();
+
+    /**
+     * Set true for keep the snapshots of the scanned directories in the
+     * target directory. A directory with the same modification time and all
+     * its files formatted in the last run is not listed and its files are
+     * not read. The modification time of a directory does not change when
+     * a file is written in place, use it when the files are replaced by the
+     * tools that edit them
+     *
+     * @param directorySnapshots
+     */
+    public void setDirectorySnapshots(boolean directorySnapshots);
+
+    public boolean isGitIgnore();
+
+    /**
+     * Set true for skip the files ignored by git: the .gitignore files of
+     * the repository and its .git/info/exclude file are read, the ignored
+     * directories are not scanned
+     *
+     * @param gitIgnore
+     */
+    public void setGitIgnore(boolean gitIgnore);
+
+    public boolean isRetryFailures();
+
+    /**
+     * Set true for format again the files that failed or were unstable in a
+     * previous run. A failed file is cached with its content and the
+     * fingerprint of its formatter settings, it is not formatted again until
+     * one of them changes; it is counted as failed and listed in the report
+     *
+     * @param retryFailures
+     */
+    public void setRetryFailures(boolean retryFailures);
+
+    public boolean isStabilityCheck();
+
+    /**
+     * Set false for not format again the formatted code of the files, new or
+     * changed since a previous run, before write it. With the check, true by
+     * default, a file whose formatted code changes when it is formatted again
+     * is not written: it is cached as unstable with its content, counted and
+     * listed in the report, and not formatted again until its content or the
+     * settings change
+     *
+     * @param stabilityCheck
+     */
+    public void setStabilityCheck(boolean stabilityCheck);
+
     public FormatterConfig getJavaFormatterConfig();
 
     public FormatterConfig getCssFormatterConfig();
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2020 wyujra.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.yracnet.formatter;
+
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * Merge the cache fragments written by the shards of a build into one cache.
+ *
+ * Usage: FormatterCacheMerge &lt;targetDirectory&gt; [fragment...]
+ *
+ * Without fragments, all the fragments of the target directory are merged
+ * and deleted.
+ *
+ * @author wyujra
+ */
+public class FormatterCacheMerge {
+
+    public static void main(String[] args) throws FormatterException {
+        File targetDirectory = new File(args.length > 0 ? args[0] : "target");
+        File[] fragments = Arrays.stream(args).skip(1).map(File::new).toArray(File[]::new);
+        int merged = FormatterHelp.mergeCacheFragments(targetDirectory, fragments);
+        System.out.println("Merged " + merged + " cache fragment(s) into "
+                + new File(targetDirectory, FormatterHelp.CACHE_PROPERTIES_FILENAME));
+    }
+
+}
@@ -46,6 +46,51 @@ public interface FormatterConfig {
      */
     void setSkip(boolean skip);
 
+    /**
+     * Get Time Budget for format a file in milliseconds
+     *
+     * @return
+     */
+    long getTimeout();
+
+    /**
+     * Set Time Budget for format a file in milliseconds, 0 for use the
+     * default file timeout of the build
+     *
+     * @param timeout
+     */
+    void setTimeout(long timeout);
+
+    /**
+     * Get Expansion Factor of memory used for format a file over its size
+     *
+     * @return
+     */
+    double getExpansionFactor();
+
+    /**
+     * Set Expansion Factor of memory used for format a file over its size,
+     * used for estimate the memory in flight
+     *
+     * @param expansionFactor
+     */
+    void setExpansionFactor(double expansionFactor);
+
+    /**
+     * Get Cost Factor, estimated nanoseconds for format a byte
+     *
+     * @return
+     */
+    double getCostFactor();
+
+    /**
+     * Set Cost Factor, estimated nanoseconds for format a byte, used for
+     * start the expensive files first when the file was not formatted before
+     *
+     * @param costFactor
+     */
+    void setCostFactor(double costFactor);
+
     /**
      * Get Extension File Support
      *
@@ -0,0 +1,56 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package dev.yracnet.formatter;
+
+import java.io.File;
+import lombok.Getter;
+import net.revelc.code.formatter.Result;
+
+/**
+ * The outcome of a file of a run.
+ *
+ * @author wyujra
+ */
+@Getter
+public class FormatterEvent {
+
+    /**
+     * The path of the file relative to the basedir, the key of the file in
+     * the hash cache.
+     */
+    private final String path;
+    private final File file;
+    /**
+     * The language of the formatter of the file, null if no formatter
+     * supports it.
+     */
+    private final String formatter;
+    private final Result result;
+    /**
+     * The time of the format in milliseconds, 0 if the file was not
+     * formatted by this run.
+     */
+    private final long duration;
+    /**
+     * The size of the file when it was scanned.
+     */
+    private final long bytes;
+
+    public FormatterEvent(String path, File file, String formatter, Result result, long duration, long bytes) {
+        this.path = path;
+        this.file = file;
+        this.formatter = formatter;
+        this.result = result;
+        this.duration = duration;
+        this.bytes = bytes;
+    }
+
+    @Override
+    public String toString() {
+        return path + " " + result + (formatter == null ? "" : " " + formatter) + " " + duration + "ms " + bytes + " bytes";
+    }
+
+}
@@ -5,23 +5,21 @@
  */
 package dev.yracnet.formatter;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import net.revelc.code.formatter.FormatterScanner;
+import net.revelc.code.formatter.cache.CacheJournal;
 import net.revelc.code.formatter.model.ConfigReadException;
 import net.revelc.code.formatter.model.ConfigReader;
-import org.codehaus.plexus.util.DirectoryScanner;
 import org.eclipse.jdt.core.JavaCore;
 import org.xml.sax.SAXException;
 
@@ -32,6 +30,7 @@ import org.xml.sax.SAXException;
 public class FormatterHelp {
 
     public static final String CACHE_PROPERTIES_FILENAME = "formatter-cache.properties";
+    public static final String SNAPSHOTS_PROPERTIES_FILENAME = "formatter-directories.properties";
     public static final String[] DEFAULT_INCLUDES = new String[]{"**/*.java", "**/*.js", "**/*.html", "**/*.xml", "**/*.json", "**/*.css"};
 
     //private static FormatterLog logger;
@@ -86,14 +85,77 @@ public class FormatterHelp {
      * @param targetDirectory
      */
     public static void storeFileHashCache(Properties props, File targetDirectory) {
-        File cacheFile = new File(targetDirectory, FormatterHelp.CACHE_PROPERTIES_FILENAME);
-        try ( OutputStream out = new BufferedOutputStream(new FileOutputStream(cacheFile))) {
-            props.store(out, null);
+        storeFileHashCache(props, targetDirectory, FormatterHelp.CACHE_PROPERTIES_FILENAME);
+    }
+
+    /**
+     * Store file hash cache with other file name, as a shard fragment.
+     *
+     * @param props the props
+     * @param targetDirectory
+     * @param name the file name
+     */
+    public static void storeFileHashCache(Properties props, File targetDirectory, String name) {
+        try {
+            CacheJournal.store(props, new File(targetDirectory, name));
         } catch (IOException e) {
             //logger.warn("Cannot store file hash cache properties file", e);
         }
     }
 
+    /**
+     * File name of the cache fragment of a shard
+     *
+     * @param index the shard, from 1
+     * @param count the number of shards
+     * @return the file name
+     */
+    public static String getCacheFragmentName(int index, int count) {
+        return CACHE_PROPERTIES_FILENAME.replace(".properties", ".shard-" + index + "-of-" + count + ".properties");
+    }
+
+    /**
+     * Merge the cache fragments of the shards into the cache of the target
+     * directory and delete them. The fragments have disjoint files, an entry
+     * of a fragment replaces the entry of the cache.
+     *
+     * @param targetDirectory the directory of the cache
+     * @param fragments the fragment files, all the fragments in the target
+     * directory if empty
+     * @return the number of merged fragments
+     * @throws FormatterException if a fragment cannot be read
+     */
+    public static int mergeCacheFragments(File targetDirectory, File... fragments) throws FormatterException {
+        if (fragments == null || fragments.length == 0) {
+            String prefix = CACHE_PROPERTIES_FILENAME.replace(".properties", ".shard-");
+            String[] names = targetDirectory.list((dir, name) -> name.startsWith(prefix)
+                    && (name.endsWith(".properties") || CacheJournal.getCacheFileName(name) != null));
+            if (names == null || names.length == 0) {
+                return 0;
+            }
+            // a killed shard can have only its journal
+            fragments = Arrays.stream(names).map(name -> name.endsWith(".properties") ? name : CacheJournal.getCacheFileName(name))
+                    .distinct().map(name -> new File(targetDirectory, name)).toArray(File[]::new);
+        }
+        Properties cache = readFileHashCacheFile(targetDirectory);
+        for (File fragment : fragments) {
+            try {
+                // with the journal of a killed shard
+                cache.putAll(CacheJournal.read(fragment));
+            } catch (IOException e) {
+                throw new FormatterException("Cannot read cache fragment [" + fragment + "]", e);
+            }
+        }
+        storeFileHashCache(cache, targetDirectory);
+        for (File fragment : fragments) {
+            if (fragment.getAbsoluteFile().getParentFile().equals(targetDirectory.getAbsoluteFile())) {
+                fragment.delete();
+                CacheJournal.getJournalFiles(fragment).forEach(File::delete);
+            }
+        }
+        return fragments.length;
+    }
+
     /**
      * Search file in directory or in ClassPath
      *
@@ -120,6 +182,17 @@ public class FormatterHelp {
      * @return the properties
      */
     public static Properties readFileHashCacheFile(File targetDirectory) {
+        return readFileHashCacheFile(targetDirectory, FormatterHelp.CACHE_PROPERTIES_FILENAME);
+    }
+
+    /**
+     * Read file hash cache file with other file name, as a shard fragment.
+     *
+     * @param targetDirectory
+     * @param name the file name
+     * @return the properties
+     */
+    public static Properties readFileHashCacheFile(File targetDirectory, String name) {
         Properties props = new Properties();
         if (!targetDirectory.exists()) {
             targetDirectory.mkdirs();
@@ -128,12 +201,8 @@ public class FormatterHelp {
             //        + "' supposedly target directory is not a directory.");
             return props;
         }
-        File cacheFile = new File(targetDirectory, FormatterHelp.CACHE_PROPERTIES_FILENAME);
-        if (!cacheFile.exists()) {
-            return props;
-        }
-        try ( BufferedInputStream stream = new BufferedInputStream(new FileInputStream(cacheFile))) {
-            props.load(stream);
+        try {
+            props = CacheJournal.read(new File(targetDirectory, name));
         } catch (IOException e) {
             //logger.warn("Cannot load file hash cache properties file", e);
         }
@@ -149,25 +218,27 @@ public class FormatterHelp {
      * @return
      */
     public static List<File> addCollectionFiles(File newBasedir, String[] includes, String[] excludes) {
-        final DirectoryScanner ds = new DirectoryScanner();
-        ds.setBasedir(newBasedir);
-        if (includes != null && includes.length > 0) {
-            ds.setIncludes(includes);
-        } else {
-            ds.setIncludes(FormatterHelp.DEFAULT_INCLUDES);
-        }
-        ds.setExcludes(excludes);
-        ds.addDefaultExcludes();
-        ds.setCaseSensitive(false);
-        ds.setFollowSymlinks(false);
-        ds.scan();
         List<File> foundFiles = new ArrayList<>();
-        for (String filename : ds.getIncludedFiles()) {
+        for (String filename : getIncludedFiles(newBasedir, includes, excludes)) {
             foundFiles.add(new File(newBasedir, filename));
         }
         return foundFiles;
     }
 
+    /**
+     * Scan the source files of the directory.
+     *
+     * @param newBasedir
+     * @param includes
+     * @param excludes
+     * @return the paths of the files relative to the directory
+     */
+    public static String[] getIncludedFiles(File newBasedir, String[] includes, String[] excludes) {
+        FormatterScanner scanner = new FormatterScanner(newBasedir, includes, excludes);
+        scanner.scan();
+        return scanner.getIncludedFiles();
+    }
+
     /**
      * Gets the basedir path.
      *
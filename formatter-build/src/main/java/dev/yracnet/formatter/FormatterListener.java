@@ -0,0 +1,25 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package dev.yracnet.formatter;
+
+/**
+ * Listener of the files of a run, called as each file completes. The calls
+ * come from the worker threads of the run: the listener must be thread safe
+ * and return quickly, a slow listener slows the run.
+ *
+ * @author wyujra
+ */
+@FunctionalInterface
+public interface FormatterListener {
+
+    /**
+     * A file of the run completed
+     *
+     * @param event the outcome of the file
+     */
+    public void onFile(FormatterEvent event);
+
+}
@@ -5,6 +5,8 @@
  */
 package dev.yracnet.formatter;
 
+import java.util.function.Supplier;
+
 /**
  *
  * @author wyujra
@@ -25,4 +27,57 @@ public interface FormatterLog {
 
     public void info(String message);
 
+    /**
+     * Return true if the debug messages are logged, guard the messages built
+     * for the debug in the code run by file
+     *
+     * @return
+     */
+    public default boolean isDebugEnabled() {
+        return true;
+    }
+
+    /**
+     * Return true if the info messages are logged
+     *
+     * @return
+     */
+    public default boolean isInfoEnabled() {
+        return true;
+    }
+
+    /**
+     * Log a debug message built only if the debug is enabled
+     *
+     * @param message
+     */
+    public default void debug(Supplier<String> message) {
+        if (isDebugEnabled()) {
+            debug(message.get());
+        }
+    }
+
+    /**
+     * Log a debug message built only if the debug is enabled
+     *
+     * @param message
+     * @param e
+     */
+    public default void debug(Supplier<String> message, Throwable e) {
+        if (isDebugEnabled()) {
+            debug(message.get(), e);
+        }
+    }
+
+    /**
+     * Log an info message built only if the info is enabled
+     *
+     * @param message
+     */
+    public default void info(Supplier<String> message) {
+        if (isInfoEnabled()) {
+            info(message.get());
+        }
+    }
+
 }
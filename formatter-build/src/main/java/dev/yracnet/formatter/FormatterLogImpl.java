@@ -7,6 +7,7 @@ package dev.yracnet.formatter;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.logging.ConsoleHandler;
 import java.util.logging.Level;
 import java.util.logging.LogManager;
 import java.util.logging.Logger;
@@ -17,15 +18,34 @@ import java.util.logging.Logger;
  */
 class FormatterLogImpl implements FormatterLog {
 
-    private static final Logger LOGGER = Logger.getLogger("dev.yracnet.formatter");
+    private static final Logger LOGGER;
 
-    public FormatterLogImpl() {
+    static {
+        // read once, every build used to reset the log manager
         InputStream stream = FormatterLogImpl.class.getClassLoader().getResourceAsStream("logging.properties");
         try {
             LogManager.getLogManager().readConfiguration(stream);
         } catch (IOException e) {
             e.printStackTrace();
         }
+        // the formatter logger writes with its own handlers from the thread of the ring buffer,
+        // the handlers of the root logger belong to the application and are not wrapped
+        LOGGER = Logger.getLogger("dev.yracnet.formatter");
+        if (LOGGER.getHandlers().length == 0) {
+            LOGGER.addHandler(new ConsoleHandler());
+            LOGGER.setUseParentHandlers(false);
+        }
+        FormatterAsyncHandler.install(LOGGER);
+    }
+
+    @Override
+    public boolean isDebugEnabled() {
+        return LOGGER.isLoggable(Level.FINE);
+    }
+
+    @Override
+    public boolean isInfoEnabled() {
+        return LOGGER.isLoggable(Level.INFO);
     }
 
     @Override
@@ -0,0 +1,68 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package dev.yracnet.formatter;
+
+import java.util.List;
+import java.util.Map;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * The report of a run: the files by result, the time taken and if the run
+ * was cancelled.
+ *
+ * @author wyujra
+ */
+@Getter
+@Setter
+public class FormatterReport {
+
+    /**
+     * The files found by the scan.
+     */
+    private int files;
+    private int successCount;
+    private int failCount;
+    /**
+     * The failed files not formatted again, unchanged since they failed in
+     * a previous run; they are also in the fail count.
+     */
+    private int knownFailCount;
+    private int skippedCount;
+    private int readOnlyCount;
+    private int timeoutCount;
+    private int quarantinedCount;
+    /**
+     * The files whose formatted code changes when it is formatted again, they
+     * are not written.
+     */
+    private int unstableCount;
+    /**
+     * The time of the run in milliseconds.
+     */
+    private long time;
+    /**
+     * True if the run was cancelled, the counts are of the files completed
+     * before the cancellation.
+     */
+    private boolean cancelled;
+    /**
+     * The failed files, by their path, with the reason of the failure.
+     */
+    private Map<String, String> failures;
+    /**
+     * The paths of the unstable files.
+     */
+    private List<String> unstable;
+
+    @Override
+    public String toString() {
+        return files + " file(s): " + successCount + " formatted, " + failCount + " failed (" + knownFailCount + " known), " + skippedCount + " skipped, "
+                + readOnlyCount + " read only, " + timeoutCount + " timed out, " + quarantinedCount + " quarantined, " + unstableCount + " unstable in "
+                + time + "ms" + (cancelled ? ", cancelled" : "");
+    }
+
+}
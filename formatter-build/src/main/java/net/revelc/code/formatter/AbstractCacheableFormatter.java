@@ -16,8 +16,18 @@ package net.revelc.code.formatter;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.hash.Hashing;
+import net.revelc.code.formatter.cache.OutputCache;
 
 import org.codehaus.plexus.util.FileUtils;
 import org.eclipse.jface.text.BadLocationException;
@@ -29,29 +39,62 @@ import dev.yracnet.formatter.FormatterLog;
  */
 public abstract class AbstractCacheableFormatter {
 
+    /**
+     * The gates of the formatters that are not thread safe, by class.
+     */
+    private static final Map<Class<?>, Semaphore> GATES = new ConcurrentHashMap<>();
+
     protected String fileConfig;
     protected boolean skip = false;
     protected String[] extensions;
     protected FormatterLog log;
     protected Charset encoding;
+    protected long timeout = 0;
+    protected double expansionFactor = 4;
+    protected double costFactor = 1000;
+    private Map<String, String> options;
+    private ConfigurationSource cfg;
+    private String fingerprint;
 
     protected abstract void init(Map<String, String> options, ConfigurationSource cfg);
 
-    protected void initCfg(ConfigurationSource cfg) {
+    protected void initCfg(Map<String, String> options, ConfigurationSource cfg) {
+        this.options = options;
+        this.cfg = cfg;
         this.log = cfg.getLog();
         this.encoding = cfg.getEncodingAsCharset();
+        this.fingerprint = Hashing.murmur3_128().hashUnencodedChars(getClass().getName()
+                + (options == null ? "" : new TreeMap<>(options).toString())).toString();
+    }
+
+    /**
+     * Create a new formatter instance with the same options, the instance
+     * abandoned in a watchdog thread could be still running.
+     */
+    protected void reset() {
+        init(options, cfg);
+    }
+
+    /**
+     * Get the time budget for format a file, the own timeout or the default
+     * of the build
+     *
+     * @return the budget in milliseconds, 0 for no limit
+     */
+    public long getEffectiveTimeout() {
+        if (timeout > 0 || cfg == null) {
+            return timeout;
+        }
+        return cfg.getFileTimeout();
     }
 
     public Result formatFile(File file, LineEnding ending, boolean dryRun) {
         try {
-            this.log.debug("Processing file: " + file + " with line ending: " + ending);
-            String code = FileUtils.fileRead(file, this.encoding.name());
-            String formattedCode = doFormat(code, ending);
-
-            if (formattedCode == null) {
-                this.log.debug("Nothing formatted. Try to fix line endings.");
-                formattedCode = fixLineEnding(code, ending);
+            if (this.log.isDebugEnabled()) {
+                this.log.debug("Processing file: " + file + " with line ending: " + ending);
             }
+            String code = FileUtils.fileRead(file, this.encoding.name());
+            String formattedCode = formatCode(code, ending);
 
             if (formattedCode == null) {
                 this.log.debug("Equal code. Not writing result to file.");
@@ -66,10 +109,215 @@ public abstract class AbstractCacheableFormatter {
             // changed. The issue is likely copyright dating issues.
             // this.log.debug("formatted code: " + formattedCode);
             return Result.SUCCESS;
-        } catch (IOException | MalformedTreeException | BadLocationException e) {
-            this.log.warn(e);
-            return Result.FAIL;
+        } catch (IOException | MalformedTreeException | BadLocationException | TimeoutException e) {
+            return failure(file, e);
+        }
+    }
+
+    /**
+     * Format the code in memory, with the time budget of this formatter.
+     *
+     * @param code the code
+     * @param ending the line ending
+     * @return the formatted code or null if the code is already formatted
+     * @throws IOException
+     * @throws BadLocationException
+     * @throws TimeoutException when the time budget is exceeded
+     */
+    public String formatCode(String code, LineEnding ending) throws IOException, BadLocationException, TimeoutException {
+        OutputCache cache = cfg == null ? null : cfg.getOutputCache();
+        if (cache == null) {
+            return doFormatCode(code, ending);
+        }
+        String key = fingerprint + ending + Hashing.sha256().hashUnencodedChars(code);
+        String cached = cache.get(key);
+        if (cached != null) {
+            // an unchanged code is cached as itself
+            return cached.equals(code) ? null : cached;
+        }
+        String formattedCode = doFormatCode(code, ending);
+        cache.put(key, formattedCode == null ? code : formattedCode);
+        return formattedCode;
+    }
+
+    private String doFormatCode(String code, LineEnding ending) throws IOException, BadLocationException, TimeoutException {
+        String formattedCode;
+        if (isThreadSafe()) {
+            formattedCode = FormatterWatchdog.getInstance().call(() -> doFormat(code, ending), getEffectiveTimeout());
+        } else {
+            formattedCode = doFormatExclusive(code, ending);
+        }
+        if (formattedCode == null) {
+            this.log.debug("Nothing formatted. Try to fix line endings.");
+            formattedCode = fixLineEnding(code, ending);
+        }
+        return formattedCode;
+    }
+
+    /**
+     * Format holding the gate of the class. The gate is waited within the
+     * time budget, and released by the thread that runs the format, so a
+     * format abandoned by the watchdog keeps the next ones waiting until it
+     * ends: they report the timeout at the end of their budget without
+     * start. The caller releases the gate only when the format did not start.
+     */
+    private String doFormatExclusive(String code, LineEnding ending) throws IOException, BadLocationException, TimeoutException {
+        Semaphore gate = GATES.computeIfAbsent(getClass(), key -> new Semaphore(1));
+        long budget = getEffectiveTimeout();
+        long start = System.nanoTime();
+        try {
+            if (budget <= 0) {
+                gate.acquire();
+            } else if (!gate.tryAcquire(budget, TimeUnit.MILLISECONDS)) {
+                throw new FormatterWatchdog.BusyException("The " + getLanguage() + " formatter is busy with an abandoned format");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while formatting", e);
+        }
+        long remaining = budget <= 0 ? 0 : Math.max(1, budget - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        AtomicBoolean owned = new AtomicBoolean();
+        try {
+            return FormatterWatchdog.getInstance().call(() -> {
+                if (!owned.compareAndSet(false, true)) {
+                    // abandoned before start, the caller released the gate
+                    return null;
+                }
+                try {
+                    return doFormat(code, ending);
+                } finally {
+                    gate.release();
+                }
+            }, remaining);
+        } finally {
+            if (owned.compareAndSet(false, true)) {
+                gate.release();
+            }
+        }
+    }
+
+    /**
+     * Log the failure of {@link #formatCode(String, LineEnding)} and return
+     * its result.
+     *
+     * @param file the formatted file
+     * @param e the exception
+     * @return TIMEOUT or FAIL
+     */
+    public Result failure(File file, Exception e) {
+        if (e instanceof FormatterWatchdog.BusyException) {
+            this.log.warn("Format of " + file + " did not start in the time budget of " + getEffectiveTimeout() + "ms: " + e.getMessage());
+            return Result.TIMEOUT;
+        }
+        if (e instanceof TimeoutException) {
+            this.log.warn("Format of " + file + " exceeded the time budget of " + getEffectiveTimeout() + "ms, abandoned ("
+                    + FormatterWatchdog.getInstance().getAbandoned() + " abandoned formats still running)");
+            reset();
+            return Result.TIMEOUT;
         }
+        this.log.warn(e);
+        return Result.FAIL;
+    }
+
+    /**
+     * Create a new instance of this formatter with the same configuration,
+     * the formatter engines are not thread safe and each worker needs its own
+     * instance.
+     *
+     * @return the copy
+     */
+    public AbstractCacheableFormatter copy() {
+        AbstractCacheableFormatter copy;
+        try {
+            copy = getClass().getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot copy the formatter " + getClass().getName(), e);
+        }
+        copy.fileConfig = fileConfig;
+        copy.skip = skip;
+        copy.extensions = extensions;
+        copy.timeout = timeout;
+        copy.expansionFactor = expansionFactor;
+        copy.costFactor = costFactor;
+        if (cfg != null) {
+            copy.init(options, cfg);
+        }
+        return copy;
+    }
+
+    /**
+     * Return false when the formatter engine keeps static state, the format
+     * of its files is serialized between all the instances, also with a
+     * format abandoned by the watchdog.
+     *
+     * @return
+     */
+    protected boolean isThreadSafe() {
+        return true;
+    }
+
+    /**
+     * Name of the language for the messages, from the class name.
+     *
+     * @return
+     */
+    public String getLanguage() {
+        return getClass().getSimpleName().replace("Formatter", "");
+    }
+
+    /**
+     * Key of the settings of this formatter before the init, formatters with
+     * the same key are initialized with the same options. A config file found
+     * in the base directory is keyed by its path and last modification.
+     *
+     * @param basedir the base directory of the build
+     * @return the key
+     */
+    public String getConfigKey(File basedir) {
+        String source = "";
+        if (fileConfig != null) {
+            File file = new File(basedir, fileConfig);
+            source = file.exists() ? file.getAbsolutePath() + "@" + file.lastModified() : "classpath:" + fileConfig;
+        }
+        return getClass().getName() + "[" + source + "," + skip + "," + Arrays.toString(extensions) + ","
+                + timeout + "," + expansionFactor + "," + costFactor + "]";
+    }
+
+    /**
+     * Hash of the class and the options of the initialized formatter, null
+     * before the init.
+     *
+     * @return
+     */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Remove the blank lines at the start and the end of the formatted code,
+     * keeping the final line break of the code: a file that ends with a line
+     * break is not rewritten only for remove it, and a tool that adds it back
+     * does not make the file change in every run.
+     *
+     * @param code the original code
+     * @param formattedCode the output of the formatter
+     * @return
+     */
+    protected static String trimFormatted(String code, String formattedCode) {
+        String trimmed = formattedCode.trim();
+        if (trimmed.isEmpty() || !(code.endsWith("\n") || code.endsWith("\r"))) {
+            return trimmed;
+        }
+        // the line break of the formatted code, the first one is enough
+        int lf = trimmed.indexOf('\n');
+        if (lf > 0 && trimmed.charAt(lf - 1) == '\r') {
+            return trimmed + "\r\n";
+        } else if (lf >= 0) {
+            return trimmed + "\n";
+        } else if (trimmed.indexOf('\r') >= 0) {
+            return trimmed + "\r";
+        }
+        return trimmed + (code.endsWith("\r\n") ? "\r\n" : code.substring(code.length() - 1));
     }
 
     private static String fixLineEnding(String code, LineEnding ending) {
@@ -107,6 +355,30 @@ public abstract class AbstractCacheableFormatter {
         this.skip = skip;
     }
 
+    public long getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    public double getExpansionFactor() {
+        return expansionFactor;
+    }
+
+    public void setExpansionFactor(double expansionFactor) {
+        this.expansionFactor = expansionFactor;
+    }
+
+    public double getCostFactor() {
+        return costFactor;
+    }
+
+    public void setCostFactor(double costFactor) {
+        this.costFactor = costFactor;
+    }
+
     public String[] getExtensions() {
         return extensions;
     }
@@ -127,4 +399,6 @@ public abstract class AbstractCacheableFormatter {
 
     protected abstract String doFormat(String code, LineEnding ending) throws IOException, BadLocationException;
 
+    public abstract boolean isInitialized();
+
 }
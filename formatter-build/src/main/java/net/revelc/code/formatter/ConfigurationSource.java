@@ -15,6 +15,7 @@ package net.revelc.code.formatter;
 
 import java.nio.charset.Charset;
 import dev.yracnet.formatter.FormatterLog;
+import net.revelc.code.formatter.cache.OutputCache;
 
 /**
  * @author marvin.froeder
@@ -33,4 +34,18 @@ public interface ConfigurationSource {
 //
     Charset getEncodingAsCharset();
 
+    /**
+     * Default time budget for format a file in milliseconds, 0 for no limit
+     *
+     * @return
+     */
+    long getFileTimeout();
+
+    /**
+     * Cache of the formatted codes shared by the formatters
+     *
+     * @return the cache or null if it is disabled
+     */
+    OutputCache getOutputCache();
+
 }
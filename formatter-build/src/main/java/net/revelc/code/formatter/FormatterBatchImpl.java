@@ -0,0 +1,108 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.revelc.code.formatter;
+
+import dev.yracnet.formatter.FormatterBatch;
+import dev.yracnet.formatter.FormatterBuild;
+import dev.yracnet.formatter.FormatterException;
+import dev.yracnet.formatter.FormatterLog;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Batch of builds formatted by one scheduler. The registry of formatters is
+ * kept between executions, so a second execution starts with warm
+ * formatters.
+ *
+ * @author wyujra
+ */
+@Getter
+@Setter
+public class FormatterBatchImpl implements FormatterBatch {
+
+    private static final String FILE_S = " file(s)";
+
+    private FormatterLog log;
+
+    private final List<FormatterBuildImpl> builds = new ArrayList<>();
+
+    private final FormatterRegistry registry = new FormatterRegistry();
+
+    private int threads = 0;
+
+    private int ioThreads = 0;
+
+    private boolean adaptiveThreads = true;
+
+    private long maxInFlightBytes = Runtime.getRuntime().maxMemory() / 4;
+
+    private int maxOpenFiles = 64;
+
+    private long hugeFileThreshold = 1024 * 1024;
+
+    @Override
+    public FormatterBuild addUnit() {
+        FormatterBuildImpl build = new FormatterBuildImpl();
+        build.setLog(log);
+        builds.add(build);
+        return build;
+    }
+
+    @Override
+    public List<FormatterBuild> getUnits() {
+        return Collections.unmodifiableList(builds);
+    }
+
+    @Override
+    public void execute() throws FormatterException {
+        ResultCollector total = new ResultCollector();
+        total.start();
+        int formatThreads = WorkerSizing.formatThreads(threads);
+        int readThreads = WorkerSizing.ioThreads(ioThreads, maxOpenFiles);
+        try ( FormatterScheduler scheduler = new FormatterScheduler(formatThreads, readThreads, adaptiveThreads,
+                maxInFlightBytes, maxOpenFiles, hugeFileThreshold)) {
+            List<FormatterRun> runs = new ArrayList<>(builds.size());
+            for (FormatterBuildImpl build : builds) {
+                log.info("Unit:                            " + build.getBasedir().getAbsolutePath());
+                FormatterRun run = build.prepare(scheduler, registry);
+                if (run != null) {
+                    runs.add(run);
+                }
+            }
+            log.info("Formatter settings:              " + registry.size() + " for " + builds.size() + " unit(s)");
+            log.info("Worker threads:                  format " + formatThreads + ", read " + readThreads
+                    + " (" + WorkerSizing.cpus() + " cpu(s)" + (adaptiveThreads ? ", adaptive)" : ")"));
+            FormatterRun.submit(scheduler, runs);
+            scheduler.await();
+            for (FormatterRun run : runs) {
+                log.info("Unit:                            " + run.getBuild().getBasedir().getAbsolutePath());
+                run.getBuild().finish(run, scheduler.getReport(), false);
+                total.add(run.getResult());
+            }
+            total.stop();
+            log.info("Batch of " + builds.size() + " unit(s)");
+            log.info("Successfully formatted:          " + total.getSuccessCount() + FILE_S);
+            log.info("Fail to format:                  " + total.getFailCount() + FILE_S);
+            log.info("Skipped:                         " + total.getSkippedCount() + FILE_S);
+            log.info("Read only skipped:               " + total.getReadOnlyCount() + FILE_S);
+            log.info("Timed out:                       " + total.getTimeoutCount() + FILE_S);
+            log.info("Quarantined:                     " + total.getQuarantinedCount() + FILE_S);
+            log.info("Approximate time taken:          " + total.getTimeClock() + "s");
+        }
+    }
+
+}
@@ -15,17 +15,39 @@ package net.revelc.code.formatter;
 
 import dev.yracnet.formatter.FormatterException;
 import dev.yracnet.formatter.FormatterBuild;
+import dev.yracnet.formatter.FormatterListener;
+import dev.yracnet.formatter.FormatterReport;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
+import org.codehaus.plexus.util.IOUtil;
 import org.codehaus.plexus.util.ReaderFactory;
 import org.codehaus.plexus.util.StringUtils;
 import org.codehaus.plexus.util.WriterFactory;
@@ -36,6 +58,7 @@ import org.eclipse.text.edits.MalformedTreeException;
 
 import com.google.common.hash.Hashing;
 import dev.yracnet.formatter.FormatterHelp;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 
@@ -46,6 +69,15 @@ import net.revelc.code.formatter.javascript.JavascriptFormatter;
 import net.revelc.code.formatter.json.JsonFormatter;
 import net.revelc.code.formatter.xml.XMLFormatter;
 import dev.yracnet.formatter.FormatterLog;
+import net.revelc.code.formatter.cache.CacheBackend;
+import net.revelc.code.formatter.cache.CacheEntry;
+import net.revelc.code.formatter.cache.CacheJournal;
+import net.revelc.code.formatter.cache.CacheMaintenance;
+import net.revelc.code.formatter.cache.DirectorySnapshots;
+import net.revelc.code.formatter.cache.HashCacheTable;
+import net.revelc.code.formatter.cache.LazyHashCache;
+import net.revelc.code.formatter.cache.OutputCache;
+import net.revelc.code.formatter.cache.XattrCache;
 
 /**
  * A Maven plugin mojo to format Java source code using the Eclipse code
@@ -65,6 +97,7 @@ import dev.yracnet.formatter.FormatterLog;
 public class FormatterBuildImpl implements ConfigurationSource, FormatterBuild {
 
     private static final String FILE_S = " file(s)";
+    private static final long CODE_THREAD_IDLE = 60;
 
     private FormatterLog log;
 
@@ -155,6 +188,140 @@ public class FormatterBuildImpl implements ConfigurationSource, FormatterBuild {
      */
     private boolean useEclipseDefaults = false;
 
+    /**
+     * Default time budget for format a file in milliseconds, 0 for no limit.
+     * Each formatter could define its own timeout.
+     */
+    private long fileTimeout = 60000;
+
+    /**
+     * Number of worker threads that format the files, 0 for the CPU quota of
+     * the container.
+     */
+    private int threads = 0;
+
+    /**
+     * Number of worker threads that read and hash the files, 0 for twice the
+     * CPU quota.
+     */
+    private int ioThreads = 0;
+
+    /**
+     * Resize the worker pools while running from the queue depths and the
+     * stage latencies.
+     */
+    private boolean adaptiveThreads = true;
+
+    /**
+     * Memory budget in bytes for the files being formatted at the same time,
+     * estimated as the file size times the expansion factor of its formatter.
+     * Defaults to a quarter of the max heap.
+     */
+    private long maxInFlightBytes = Runtime.getRuntime().maxMemory() / 4;
+
+    /**
+     * Maximum number of files open at the same time.
+     */
+    private int maxOpenFiles = 64;
+
+    /**
+     * Size in bytes from which a file is formatted in the dedicated lane for
+     * huge files, 0 for disable the lane.
+     */
+    private long hugeFileThreshold = 1024 * 1024;
+
+    /**
+     * Number of child JVMs that format the files, 0 for format in this JVM.
+     * A crash of a child only loses the file it was formatting, the file is
+     * quarantined until its content changes.
+     */
+    private int processes = 0;
+
+    /**
+     * Options of the child JVMs, as -Xmx1g -Xss4m.
+     */
+    private String workerJvmOptions;
+
+    /**
+     * Format only the shard <code>i/n</code> of the files, with i from 1 to
+     * n. The shard writes its own cache fragment, merged with
+     * {@link FormatterHelp#mergeCacheFragments(File, File...)}.
+     */
+    private String shard;
+
+    /**
+     * Balance the shards by the file sizes and the cost history of the
+     * cache instead of the hash of the path.
+     */
+    private boolean shardBalanced = false;
+
+    /**
+     * Maximum number of formatted codes kept in memory for the repeated
+     * contents, 0 for disable the cache.
+     */
+    private int outputCacheEntries = 10000;
+
+    /**
+     * Maximum estimated size in bytes of the formatted codes kept in memory.
+     */
+    private long outputCacheBytes = 32 * 1024 * 1024;
+
+    /**
+     * Milliseconds between the checkpoints of the cache journal, the journal
+     * is forced to the disk at most once by interval.
+     */
+    private long cacheCheckpointInterval = 1000;
+
+    /**
+     * Number of runs an entry of the hash cache is kept without its file
+     * being scanned, 0 for keep only the files of the last run. The runs are
+     * counted by basedir and directories, the builds that share the target
+     * directory do not age the entries of the others.
+     */
+    private int cacheMaxAge = 10;
+
+    /**
+     * Maximum number of entries of the hash cache, 0 for no limit. Over the
+     * limit the least recently scanned entries of this build are evicted.
+     */
+    private int cacheMaxEntries = 0;
+
+    /**
+     * Maximum size in bytes of the hash cache file, 0 for no limit.
+     */
+    private long cacheMaxBytes = 0;
+
+    /**
+     * Where the cache entries are stored, the properties file of the target
+     * directory or the extended attributes of the files.
+     */
+    private CacheBackend cacheBackend = CacheBackend.PROPERTIES;
+
+    /**
+     * Keep the snapshots of the scanned directories and do not list the
+     * unchanged directories whose files were all formatted.
+     */
+    private boolean directorySnapshots = false;
+
+    /**
+     * Read the .gitignore files and the .git/info/exclude file of the
+     * repository, the ignored directories are not scanned.
+     */
+    private boolean gitIgnore = false;
+
+    /**
+     * Format again the files that failed or did not converge in a previous
+     * run, with the same content and the same formatter settings.
+     */
+    private boolean retryFailures = false;
+
+    /**
+     * Format once more the formatted code of a file, new or changed since a
+     * previous run, before write it; a file whose formatted code changes again
+     * is not written.
+     */
+    private boolean stabilityCheck = true;
+
     private JavaFormatter javaFormatterConfig = new JavaFormatter();
 
     private JavascriptFormatter jsFormatterConfig = new JavascriptFormatter( );
@@ -166,6 +333,21 @@ public class FormatterBuildImpl implements ConfigurationSource, FormatterBuild {
     private JsonFormatter jsonFormatterConfig = new JsonFormatter();
 
     private CssFormatter cssFormatterConfig = new CssFormatter();
+
+    /**
+     * The formatters of the in-memory methods, initialized on the first use.
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private ThreadLocal<FormatterSet> codeFormatters;
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private ExecutorService codeExecutor;
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private OutputCache outputCache;
     
     public FormatterBuildImpl(){
         javaFormatterConfig.setFileConfig("formatter-config/eclipse/java.xml");
@@ -184,14 +366,380 @@ public class FormatterBuildImpl implements ConfigurationSource, FormatterBuild {
      */
     @Override
     public void execute() throws FormatterException {
+        try ( FormatterScheduler scheduler = newScheduler()) {
+            execute(scheduler, null);
+        }
+    }
+
+    @Override
+    public CompletableFuture<FormatterReport> executeAsync(FormatterListener listener) {
+        FormatterScheduler scheduler = newScheduler();
+        CompletableFuture<FormatterReport> future = new CompletableFuture<>();
+        Thread thread = new Thread(() -> {
+            try ( FormatterScheduler running = scheduler) {
+                future.complete(execute(running, listener));
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        }, "formatter-run");
+        thread.setDaemon(true);
+        // the cancel of a CompletableFuture does not interrupt, the scheduler stops the run
+        future.whenComplete((report, e) -> {
+            if (future.isCancelled()) {
+                scheduler.cancel();
+            }
+        });
+        thread.start();
+        return future;
+    }
+
+    private FormatterScheduler newScheduler() {
+        return new FormatterScheduler(WorkerSizing.formatThreads(threads), WorkerSizing.ioThreads(ioThreads, maxOpenFiles),
+                adaptiveThreads, maxInFlightBytes, maxOpenFiles, hugeFileThreshold);
+    }
+
+    /**
+     * Execute the run on the scheduler
+     *
+     * @param scheduler the scheduler of the run, cancelled to stop it
+     * @param listener the listener of the files or null
+     * @return the report of the run
+     * @throws FormatterException
+     */
+    private FormatterReport execute(FormatterScheduler scheduler, FormatterListener listener) throws FormatterException {
+        FormatterRun run = prepare(scheduler, new FormatterRegistry());
+        if (run == null) {
+            FormatterReport report = new FormatterReport();
+            report.setCancelled(scheduler.isCancelled());
+            return report;
+        }
+        run.setListener(listener);
+        if (processes > 0) {
+            FormatterCoordinator coordinator = new FormatterCoordinator(this, processes);
+            scheduler.onCancel(coordinator::cancel);
+            coordinator.execute(run);
+            return finish(run, coordinator.getReport(), scheduler.isCancelled());
+        }
+        log.info("Worker threads:                  format " + WorkerSizing.formatThreads(threads) + ", read "
+                + WorkerSizing.ioThreads(ioThreads, maxOpenFiles) + " (" + WorkerSizing.cpus() + " cpu(s)"
+                + (adaptiveThreads ? ", adaptive)" : ")"));
+        FormatterRun.submit(scheduler, Collections.singletonList(run));
+        scheduler.await();
+        return finish(run, scheduler.getReport(), scheduler.isCancelled());
+    }
+
+    /**
+     * Scan the directories, initialize the formatters from the registry and
+     * create the tasks of this build.
+     *
+     * @param scheduler the scheduler for the scan
+     * @param registry the initialized formatters, shared between builds
+     * @return the run or null if there is nothing to format
+     * @throws FormatterException
+     */
+    FormatterRun prepare(FormatterScheduler scheduler, FormatterRegistry registry) throws FormatterException {
         if (skipFormatting) {
             log.info("Formatting is skipped");
-            return;
+            return null;
         }
 
         ResultCollector result = new ResultCollector();
         result.start();
 
+        checkEncoding();
+
+        if (directories == null) {
+            directories = new File[]{basedir};
+        }
+
+        // scan stage, the directories in parallel on the I/O threads
+        PathStore paths = new PathStore(basedir);
+        DirectorySnapshots snapshots = loadSnapshots();
+        AtomicInteger ignored = new AtomicInteger();
+        List<Integer> files = new ArrayList<>();
+        for (int[] found : scheduler.scan(Arrays.asList(directories), directory -> scan(paths, snapshots, ignored, directory))) {
+            for (int id : found) {
+                files.add(id);
+            }
+        }
+        if (gitIgnore) {
+            log.info("Git ignored:                     " + ignored.get() + " director(ies) not scanned");
+        }
+        if (scheduler.isCancelled()) {
+            log.info("Cancelled while scanning");
+            return null;
+        }
+        if (snapshots != null) {
+            log.info("Directory snapshots:             " + snapshots.getReport());
+        }
+
+        int numberOfFiles = files.size();
+
+        log.info("Number of files to be formatted: " + numberOfFiles);
+
+        if (numberOfFiles == 0) {
+            storeSnapshots(snapshots, Collections.emptySet());
+            return null;
+        }
+        FormatterRegistry.Entry formatters = registry.get(this);
+        CacheJournal cacheJournal = new CacheJournal(new File(targetDirectory, FormatterHelp.CACHE_PROPERTIES_FILENAME), cacheCheckpointInterval);
+        XattrCache xattrCache = cacheBackend == CacheBackend.XATTR ? new XattrCache(getFingerprint(formatters.getPrototypes())) : null;
+        // with the extended attributes only a file of a store without them loads the cache file
+        LazyHashCache hashCache = new LazyHashCache(() -> HashCacheTable.of(loadCache(cacheJournal)));
+        if (xattrCache == null) {
+            hashCache.get();
+        }
+        CacheJournal journal = cacheJournal;
+        // the keys are relative to the basedir by the paths, without a canonicalization by file
+        List<FormatterTask> tasks = scheduler.scan(files, id -> {
+            File file = paths.getFile(id);
+            CacheEntry cached = FormatterRun.getCached(xattrCache, hashCache, file, paths.getKey(id));
+            return new FormatterTask(paths, id, formatters.getPrototypes().find(file.getName()), cached);
+        });
+        if (scheduler.isCancelled()) {
+            log.info("Cancelled while scanning");
+            return null;
+        }
+        FormatterShard selected = null;
+        if (shard != null) {
+            selected = FormatterShard.parse(shard, shardBalanced);
+            tasks = selected.select(tasks);
+            // the costs come from the shared cache, the own fragment only skips the files formatted by this shard
+            CacheJournal fragment = new CacheJournal(new File(targetDirectory, selected.getCacheFragmentName()), cacheCheckpointInterval);
+            hashCache.putAll(() -> loadCache(fragment));
+            journal = fragment;
+            log.info("Shard:                           " + selected + ", " + tasks.size() + " of " + numberOfFiles + FILE_S);
+        }
+        FormatterDuplicates duplicates = new FormatterDuplicates(tasks);
+        FormatterRun run = new FormatterRun(this, result, hashCache, formatters.getFormatters(), duplicates.getTasks());
+        run.setShard(selected);
+        run.setDuplicates(duplicates);
+        run.setJournal(journal);
+        run.setXattrCache(xattrCache);
+        run.setSnapshots(snapshots);
+        run.setPrototypes(formatters.getPrototypes());
+        return run;
+    }
+
+    /**
+     * Scan a directory, the unchanged directories of the snapshots and the
+     * directories ignored by git are not listed
+     *
+     * @return the ids of the files in the paths
+     */
+    private int[] scan(PathStore paths, DirectorySnapshots snapshots, AtomicInteger ignored, File directory) {
+        if (!directory.exists() || !directory.isDirectory()) {
+            return new int[0];
+        }
+        int root = paths.addDirectory(directory);
+        FormatterScanner scanner = new FormatterScanner(directory, includes, excludes);
+        if (snapshots != null) {
+            scanner.setSnapshots(snapshots, paths.getKey(root));
+        }
+        if (gitIgnore) {
+            scanner.setGitIgnore(GitIgnore.of(directory));
+        }
+        scanner.scan();
+        ignored.addAndGet(scanner.getIgnoredDirectories());
+        return paths.addFiles(root, scanner.getIncludedFiles());
+    }
+
+    /**
+     * Load the snapshots of the directories, the shards scan all the
+     * directories
+     *
+     * @return the snapshots or null if they are disabled
+     */
+    private DirectorySnapshots loadSnapshots() {
+        if (!directorySnapshots || shard != null) {
+            return null;
+        }
+        String fingerprint = Hashing.murmur3_128().hashUnencodedChars(Arrays.toString(includes) + '|'
+                + Arrays.toString(excludes) + '|' + gitIgnore + '|' + encoding + '|' + lineEnding).toString();
+        DirectorySnapshots snapshots = new DirectorySnapshots(new File(targetDirectory, FormatterHelp.SNAPSHOTS_PROPERTIES_FILENAME), fingerprint);
+        try {
+            snapshots.load();
+        } catch (IOException e) {
+            log.warn("Cannot read the directory snapshots " + snapshots.getFile(), e);
+        }
+        return snapshots;
+    }
+
+    private void storeSnapshots(DirectorySnapshots snapshots, Set<String> unsettled) {
+        if (snapshots == null) {
+            return;
+        }
+        targetDirectory.mkdirs();
+        try {
+            snapshots.store(unsettled);
+        } catch (IOException e) {
+            log.warn("Cannot store the directory snapshots " + snapshots.getFile(), e);
+        }
+    }
+
+    /**
+     * Merge the changes of the run in the cache file, shared with the other
+     * builds of the target directory
+     *
+     * @return false if the cache cannot be stored
+     */
+    private boolean commitCache(CacheJournal journal, Consumer<Properties> update) {
+        if (journal.getFailure() != null) {
+            log.warn("Cannot append to the journal " + journal.getJournal(), journal.getFailure());
+        }
+        try {
+            journal.commit(update);
+            return true;
+        } catch (IOException e) {
+            log.warn("Cannot store the hash cache " + journal.getFile(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Fingerprint of the formatter settings for the cache entries in the
+     * extended attributes, from the options and not the paths of the config
+     * files, so the checkouts of the same settings share the entries
+     */
+    private String getFingerprint(FormatterSet formatters) {
+        StringBuilder key = new StringBuilder();
+        key.append(encoding).append('|').append(lineEnding);
+        for (AbstractCacheableFormatter formatter : formatters.getFormatters()) {
+            key.append('|').append(formatter.getFingerprint());
+        }
+        return Hashing.murmur3_128().hashUnencodedChars(key).toString();
+    }
+
+    /**
+     * Namespace of this build in the hash cache, from its basedir and
+     * directories: the builds that share the target directory count their
+     * runs and age their entries apart
+     */
+    private String getCacheNamespace() {
+        StringBuilder key = new StringBuilder(canonical(basedir));
+        for (File directory : directories) {
+            key.append('|').append(canonical(directory));
+        }
+        return Hashing.murmur3_128().hashUnencodedChars(key).toString().substring(0, 16);
+    }
+
+    private static String canonical(File file) {
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException e) {
+            return file.getAbsolutePath();
+        }
+    }
+
+    /**
+     * Load the cache file and replay the journal of an interrupted run
+     */
+    private Properties loadCache(CacheJournal journal) {
+        targetDirectory.mkdirs();
+        try {
+            Properties cache = journal.load();
+            if (journal.getReplayed() > 0) {
+                log.info("Resumed:                         " + journal.getReplayed() + " cache entries of an interrupted run");
+            }
+            return cache;
+        } catch (IOException e) {
+            log.warn("Cannot read the hash cache " + journal.getFile(), e);
+            return new Properties();
+        }
+    }
+
+    /**
+     * Store the hash cache and log the summary of the run.
+     *
+     * @param run the run of this build
+     * @param workers the report of the workers of the run
+     * @param cancelled true if the run was cancelled
+     * @return the report of the run
+     */
+    FormatterReport finish(FormatterRun run, String workers, boolean cancelled) {
+        ResultCollector result = run.getResult();
+        Set<String> scanned = new HashSet<>();
+        for (FormatterTask task : run.getTasks()) {
+            scanned.add(task.getPath());
+            for (FormatterTask link : run.getDuplicates().getLinks(task)) {
+                scanned.add(link.getPath());
+            }
+        }
+        // with all the entries in the extended attributes the cache file is not read nor written
+        boolean commit = run.isHashCacheLoaded();
+        if (run.getShard() != null) {
+            // the fragment has only the files of the shard, the fragments are disjoint
+            if (commit) {
+                commitCache(run.getJournal(), cache -> {
+                });
+            }
+        } else {
+            // the shards only scan a part of the files, the full runs maintain the cache
+            // the files of the unchanged directories were not listed, they are still in the tree
+            DirectorySnapshots snapshots = run.getSnapshots();
+            CacheMaintenance maintenance = new CacheMaintenance(getCacheNamespace(), cacheMaxAge, cacheMaxEntries, cacheMaxBytes);
+            if (commit && commitCache(run.getJournal(), cache -> maintenance.apply(cache,
+                    key -> scanned.contains(key) || (snapshots != null && snapshots.isUnchanged(key))))) {
+                log.info("Hash cache:                      " + maintenance.getReport());
+            }
+            if (!cancelled) {
+                // the dropped files of a cancelled run are not in the unsettled ones, the last snapshots are kept
+                storeSnapshots(snapshots, run.getUnsettled());
+            }
+        }
+        result.stop();
+        if (cancelled) {
+            log.info("Cancelled:                       the files not completed are not written");
+        }
+        log.info("Successfully formatted:          " + result.getSuccessCount() + FILE_S);
+        log.info("Fail to format:                  " + result.getFailCount() + FILE_S);
+        if (run.getKnownFailures().get() > 0) {
+            log.info("Known failures:                  " + run.getKnownFailures().get() + " file(s) unchanged since they failed, not retried");
+        }
+        if (log.isDebugEnabled()) {
+            for (Map.Entry<String, String> failure : new TreeMap<>(run.getFailures()).entrySet()) {
+                log.debug("Failed " + failure.getKey() + ": " + failure.getValue());
+            }
+        }
+        log.info("Skipped:                         " + result.getSkippedCount() + FILE_S);
+        log.info("Read only skipped:               " + result.getReadOnlyCount() + FILE_S);
+        log.info("Timed out:                       " + result.getTimeoutCount() + FILE_S);
+        if (FormatterWatchdog.getInstance().getAbandoned() > 0) {
+            log.info("Abandoned formats:               " + FormatterWatchdog.getInstance().getAbandoned() + " still running in the watchdog");
+        }
+        log.info("Quarantined:                     " + result.getQuarantinedCount() + FILE_S);
+        log.info("Unstable, not written:           " + result.getUnstableCount() + FILE_S);
+        if (log.isDebugEnabled()) {
+            for (String path : new TreeSet<>(run.getUnstable())) {
+                log.debug("Unstable " + path);
+            }
+        }
+        if (run.getDuplicates() != null && !run.getDuplicates().isEmpty()) {
+            log.info("Duplicates:                      " + run.getDuplicates().getReport());
+        }
+        if (outputCache != null) {
+            log.info("Output cache:                    " + outputCache.getReport());
+        }
+        log.info("Worker threads at the end:       " + workers);
+        log.info("Approximate time taken:          " + result.getTimeClock() + "s");
+        FormatterReport report = new FormatterReport();
+        report.setFiles(scanned.size());
+        report.setSuccessCount(result.getSuccessCount());
+        report.setFailCount(result.getFailCount());
+        report.setKnownFailCount(run.getKnownFailures().get());
+        report.setFailures(new TreeMap<>(run.getFailures()));
+        report.setSkippedCount(result.getSkippedCount());
+        report.setReadOnlyCount(result.getReadOnlyCount());
+        report.setTimeoutCount(result.getTimeoutCount());
+        report.setQuarantinedCount(result.getQuarantinedCount());
+        report.setUnstableCount(result.getUnstableCount());
+        report.setUnstable(new ArrayList<>(new TreeSet<>(run.getUnstable())));
+        report.setTime(result.getTimeMillis());
+        report.setCancelled(cancelled);
+        return report;
+    }
+
+    private void checkEncoding() throws FormatterException {
         if (StringUtils.isEmpty(encoding)) {
             encoding = ReaderFactory.FILE_ENCODING;
             log.warn("File encoding has not been set, using platform encoding (" + encoding + ") to format source files, i.e. build is platform dependent!");
@@ -201,163 +749,575 @@ public class FormatterBuildImpl implements ConfigurationSource, FormatterBuild {
             }
             log.info("Using '" + encoding + "' encoding to format source files.");
         }
+    }
 
-        List<File> files = new ArrayList<>();
+    @Override
+    public String format(String content, String languageOrFileName) throws FormatterException {
+        AbstractCacheableFormatter formatter = getCodeFormatters().get().findLanguage(languageOrFileName);
+        if (formatter == null) {
+            throw new FormatterException("No formatter for '" + languageOrFileName + "'");
+        }
+        if (formatter.isSkip()) {
+            return content;
+        }
+        try {
+            String formattedCode = formatter.formatCode(content, lineEnding);
+            return formattedCode == null ? content : formattedCode;
+        } catch (IOException | MalformedTreeException | BadLocationException | TimeoutException e) {
+            if (e instanceof TimeoutException) {
+                formatter.reset();
+            }
+            throw new FormatterException("Fail to format '" + languageOrFileName + "'", e);
+        }
+    }
 
-        if (directories == null) {
-            directories = new File[]{basedir};
+    @Override
+    public void format(Reader reader, Writer writer, String languageOrFileName) throws FormatterException {
+        try {
+            writer.write(format(IOUtil.toString(reader), languageOrFileName));
+            writer.flush();
+        } catch (IOException e) {
+            throw new FormatterException("Fail to format '" + languageOrFileName + "'", e);
         }
+    }
 
-        for (File directory : directories) {
-            if (directory.exists() && directory.isDirectory()) {
-                files.addAll(FormatterHelp.addCollectionFiles(directory, includes, excludes));
+    @Override
+    public Map<String, String> formatAll(Map<String, String> contents) throws FormatterException {
+        getCodeFormatters();
+        Map<String, Future<String>> futures = new LinkedHashMap<>();
+        for (Map.Entry<String, String> content : contents.entrySet()) {
+            futures.put(content.getKey(), getCodeExecutor().submit(() -> format(content.getValue(), content.getKey())));
+        }
+        Map<String, String> formatted = new LinkedHashMap<>();
+        List<FormatterException> failures = new ArrayList<>();
+        try {
+            for (Map.Entry<String, Future<String>> future : futures.entrySet()) {
+                try {
+                    formatted.put(future.getKey(), future.getValue().get());
+                } catch (ExecutionException e) {
+                    failures.add(e.getCause() instanceof FormatterException ? (FormatterException) e.getCause()
+                            : new FormatterException("Fail to format '" + future.getKey() + "'", e.getCause()));
+                }
+            }
+        } catch (InterruptedException e) {
+            for (Future<String> future : futures.values()) {
+                future.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+            throw new FormatterException("Interrupted while formatting", e);
+        }
+        if (!failures.isEmpty()) {
+            // all the codes completed, the first failure is the cause and the others are suppressed
+            List<String> names = new ArrayList<>(contents.keySet());
+            names.removeAll(formatted.keySet());
+            FormatterException failure = new FormatterException("Fail to format " + failures.size() + " of " + contents.size()
+                    + " codes: " + String.join(", ", names), failures.get(0));
+            for (FormatterException other : failures.subList(1, failures.size())) {
+                failure.addSuppressed(other);
             }
+            throw failure;
         }
+        return formatted;
+    }
 
-        int numberOfFiles = files.size();
+    /**
+     * The formatters of the calling thread for the in-memory methods, the
+     * settings are read on the first call.
+     */
+    private synchronized ThreadLocal<FormatterSet> getCodeFormatters() throws FormatterException {
+        if (codeFormatters == null) {
+            checkEncoding();
+            codeFormatters = new FormatterRegistry().get(this).getFormatters();
+        }
+        return codeFormatters;
+    }
 
-        log.info("Number of files to be formatted: " + numberOfFiles);
+    @Override
+    public synchronized OutputCache getOutputCache() {
+        if (outputCache == null && outputCacheEntries > 0 && outputCacheBytes > 0) {
+            outputCache = new OutputCache(outputCacheEntries, outputCacheBytes);
+        }
+        return outputCache;
+    }
 
-        if (numberOfFiles > 0) {
-            createCodeFormatter();
-            Properties hashCache = FormatterHelp.readFileHashCacheFile(targetDirectory);
-            String basedirPath = FormatterHelp.getBasedirPath(basedir);
-            for (File file : files) {
-                if (file.exists()) {
-                    if (file.canWrite()) {
-                        formatFile(file, result, hashCache, basedirPath);
-                    } else {
-                        result.readOnlyCount();
-                    }
-                } else {
-                    result.failCount();
-                }
+    /**
+     * The pool of {@link #formatAll(Map)}, its threads end after a minute
+     * without work, so a build that is not used again does not keep them
+     */
+    private synchronized ExecutorService getCodeExecutor() {
+        if (codeExecutor == null) {
+            AtomicInteger count = new AtomicInteger();
+            int size = WorkerSizing.formatThreads(threads);
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(size, size, CODE_THREAD_IDLE, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), task -> {
+                Thread thread = new Thread(task, "formatter-code-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.allowCoreThreadTimeOut(true);
+            codeExecutor = executor;
+        }
+        return codeExecutor;
+    }
+
+    /**
+     * The settings a worker process needs to format the files as this build.
+     *
+     * @return the settings
+     */
+    Properties getWorkerSettings() {
+        Properties settings = new Properties();
+        settings.setProperty("basedir", basedir.getAbsolutePath());
+        settings.setProperty("encoding", encoding);
+        settings.setProperty("lineEnding", lineEnding.name());
+        settings.setProperty("compilerSource", compilerSource);
+        settings.setProperty("compilerCompliance", compilerCompliance);
+        settings.setProperty("compilerTargetPlatform", compilerTargetPlatform);
+        settings.setProperty("useEclipseDefaults", String.valueOf(useEclipseDefaults));
+        settings.setProperty("fileTimeout", String.valueOf(fileTimeout));
+        settings.setProperty("ioThreads", String.valueOf(ioThreads));
+        settings.setProperty("adaptiveThreads", String.valueOf(adaptiveThreads));
+        settings.setProperty("maxOpenFiles", String.valueOf(maxOpenFiles));
+        settings.setProperty("hugeFileThreshold", String.valueOf(hugeFileThreshold));
+        settings.setProperty("outputCacheEntries", String.valueOf(outputCacheEntries));
+        settings.setProperty("outputCacheBytes", String.valueOf(outputCacheBytes));
+        settings.setProperty("retryFailures", String.valueOf(retryFailures));
+        settings.setProperty("stabilityCheck", String.valueOf(stabilityCheck));
+        for (Map.Entry<String, AbstractCacheableFormatter> formatter : getFormatterPrefixes().entrySet()) {
+            String prefix = formatter.getKey() + ".";
+            AbstractCacheableFormatter config = formatter.getValue();
+            if (config.getFileConfig() != null) {
+                settings.setProperty(prefix + "fileConfig", config.getFileConfig());
+            }
+            if (config.getExtensions() != null) {
+                settings.setProperty(prefix + "extensions", String.join(",", config.getExtensions()));
             }
-            FormatterHelp.storeFileHashCache(hashCache, targetDirectory);
-            result.stop();
-            log.info("Successfully formatted:          " + result.getSuccessCount() + FILE_S);
-            log.info("Fail to format:                  " + result.getFailCount() + FILE_S);
-            log.info("Skipped:                         " + result.getSkippedCount() + FILE_S);
-            log.info("Read only skipped:               " + result.getReadOnlyCount() + FILE_S);
-            log.info("Approximate time taken:          " + result.getTimeClock() + "s");
+            settings.setProperty(prefix + "skip", String.valueOf(config.isSkip()));
+            settings.setProperty(prefix + "timeout", String.valueOf(config.getTimeout()));
+            settings.setProperty(prefix + "expansionFactor", String.valueOf(config.getExpansionFactor()));
+            settings.setProperty(prefix + "costFactor", String.valueOf(config.getCostFactor()));
         }
+        return settings;
     }
 
     /**
-     * Format file.
+     * Configure this build in a worker process from the settings of
+     * {@link #getWorkerSettings()}.
      *
-     * @param file the file
-     * @param rc the rc
-     * @param hashCache the hash cache
-     * @param basedirPath the basedir path
+     * @param settings the settings
      */
-    private void formatFile(File file, ResultCollector rc, Properties hashCache, String basedirPath)
-            throws FormatterException {
-        try {
-            doFormatFile(file, rc, hashCache, basedirPath, false);
-        } catch (IOException | MalformedTreeException | BadLocationException e) {
-            rc.failCount();
-            log.warn(e);
+    void setWorkerSettings(Properties settings) {
+        basedir = new File(settings.getProperty("basedir"));
+        encoding = settings.getProperty("encoding");
+        lineEnding = LineEnding.valueOf(settings.getProperty("lineEnding"));
+        compilerSource = settings.getProperty("compilerSource");
+        compilerCompliance = settings.getProperty("compilerCompliance");
+        compilerTargetPlatform = settings.getProperty("compilerTargetPlatform");
+        useEclipseDefaults = Boolean.parseBoolean(settings.getProperty("useEclipseDefaults"));
+        fileTimeout = Long.parseLong(settings.getProperty("fileTimeout"));
+        threads = Integer.parseInt(settings.getProperty("threads", "0"));
+        ioThreads = Integer.parseInt(settings.getProperty("ioThreads"));
+        adaptiveThreads = Boolean.parseBoolean(settings.getProperty("adaptiveThreads"));
+        maxOpenFiles = Integer.parseInt(settings.getProperty("maxOpenFiles"));
+        hugeFileThreshold = Long.parseLong(settings.getProperty("hugeFileThreshold"));
+        outputCacheEntries = Integer.parseInt(settings.getProperty("outputCacheEntries"));
+        outputCacheBytes = Long.parseLong(settings.getProperty("outputCacheBytes"));
+        retryFailures = Boolean.parseBoolean(settings.getProperty("retryFailures"));
+        stabilityCheck = Boolean.parseBoolean(settings.getProperty("stabilityCheck"));
+        for (Map.Entry<String, AbstractCacheableFormatter> formatter : getFormatterPrefixes().entrySet()) {
+            String prefix = formatter.getKey() + ".";
+            AbstractCacheableFormatter config = formatter.getValue();
+            config.setFileConfig(settings.getProperty(prefix + "fileConfig"));
+            String extensions = settings.getProperty(prefix + "extensions");
+            if (extensions != null) {
+                config.setExtensions(extensions.split(","));
+            }
+            config.setSkip(Boolean.parseBoolean(settings.getProperty(prefix + "skip")));
+            config.setTimeout(Long.parseLong(settings.getProperty(prefix + "timeout")));
+            config.setExpansionFactor(Double.parseDouble(settings.getProperty(prefix + "expansionFactor")));
+            config.setCostFactor(Double.parseDouble(settings.getProperty(prefix + "costFactor")));
         }
     }
 
+    private Map<String, AbstractCacheableFormatter> getFormatterPrefixes() {
+        Map<String, AbstractCacheableFormatter> prefixes = new LinkedHashMap<>();
+        prefixes.put("java", javaFormatterConfig);
+        prefixes.put("js", jsFormatterConfig);
+        prefixes.put("html", htmlFormatterConfig);
+        prefixes.put("xml", xmlFormatterConfig);
+        prefixes.put("json", jsonFormatterConfig);
+        prefixes.put("css", cssFormatterConfig);
+        return prefixes;
+    }
+
     /**
-     * Format individual file.
+     * Key of the formatter settings of this build, builds with the same key
+     * share the initialized formatters.
      *
-     * @param file the file
-     * @param rc the rc
-     * @param hashCache the hash cache
-     * @param basedirPath the basedir path
-     * @throws IOException Signals that an I/O exception has occurred.
-     * @throws BadLocationException the bad location exception
-     */
-    private void doFormatFile(File file, ResultCollector rc, Properties hashCache, String basedirPath, boolean dryRun)
-            throws IOException, BadLocationException {
-        log.debug("Processing file: " + file);
-        String code = readFileAsString(file);
-        String originalHash = sha512hash(code);
-
-        String canonicalPath = file.getCanonicalPath();
-        String path = canonicalPath.substring(basedirPath.length());
-        String cachedHash = hashCache.getProperty(path);
-        if (cachedHash != null && cachedHash.equals(originalHash)) {
-            rc.skippedCount();
-            log.debug("File is already formatted.");
-            return;
+     * @return the key
+     */
+    String getFormatterKey() {
+        StringBuilder key = new StringBuilder();
+        key.append(encoding).append('|').append(lineEnding).append('|').append(fileTimeout)
+                .append('|').append(useEclipseDefaults).append('|').append(compilerSource)
+                .append('|').append(compilerCompliance).append('|').append(compilerTargetPlatform);
+        for (AbstractCacheableFormatter formatter : getFormatterSet().getFormatters()) {
+            key.append('|').append(formatter.getConfigKey(basedir));
         }
+        return key.toString();
+    }
 
-        Result result;
-        if (javaFormatterConfig.isSupport(file.getName()) && javaFormatterConfig.isInitialized()) {
-            if (javaFormatterConfig.isSkip()) {
-                log.info("Java formatting is skipped");
-                result = Result.SKIPPED;
-            } else {
-                result = javaFormatterConfig.formatFile(file, lineEnding, dryRun);
+    /**
+     * The formatter configurations of this build, in the order they are
+     * searched.
+     *
+     * @return the formatters
+     */
+    FormatterSet getFormatterSet() {
+        return new FormatterSet(javaFormatterConfig, jsFormatterConfig, htmlFormatterConfig,
+                xmlFormatterConfig, jsonFormatterConfig, cssFormatterConfig);
+    }
+
+    /**
+     * The stages of a file in the {@link FormatterScheduler}. The cache entry
+     * of a formatted file is committed after the file is written. The result
+     * of the file is also the result of its other paths, and of the copies
+     * of its content that follow it.
+     */
+    class FileJob implements FormatterScheduler.FileJob, FormatterDuplicates.Follower {
+
+        private final FormatterTask task;
+        private final FormatterRun run;
+        private final ResultCollector rc;
+        private final ThreadLocal<FormatterSet> formatters;
+        private final FormatterScheduler scheduler;
+        private final FormatterDuplicates duplicates;
+        private final List<FormatterTask> links;
+        private FormatterDuplicates.Group group;
+        private String code;
+        private String originalHash;
+        private String formattedCode;
+        private CacheEntry entry;
+        private long duration;
+        private String reason;
+        private boolean knownFailure;
+
+        FileJob(FormatterTask task, FormatterRun run, FormatterScheduler scheduler) {
+            this.task = task;
+            this.run = run;
+            this.rc = run.getResult();
+            this.formatters = run.getFormatters();
+            this.scheduler = scheduler;
+            this.duplicates = run.getDuplicates();
+            this.links = duplicates == null ? Collections.emptyList() : duplicates.getLinks(task);
+        }
+
+        FormatterTask getTask() {
+            return task;
+        }
+
+        @Override
+        public boolean read() {
+            File file = task.getFile();
+            // a candidate leaves its group on every exit, the last file of a size releases the groups
+            boolean candidate = duplicates != null && duplicates.isCandidate(task);
+            try {
+                if (!file.exists()) {
+                    reason = "File not found";
+                    count(Result.FAIL);
+                    unsettle();
+                    return false;
+                }
+                if (!file.canWrite()) {
+                    count(Result.READ_ONLY);
+                    unsettle();
+                    return false;
+                }
+                try {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Processing file: " + file);
+                    }
+                    code = scheduler.io(() -> readFileAsString(file));
+                    originalHash = sha512hash(code);
+                } catch (IOException e) {
+                    fail(e);
+                    return false;
+                }
+                CacheEntry cached = run.getCached(task);
+                if (cached != null && cached.isSameContent(originalHash) && !isRetried(cached)) {
+                    if (cached.getState() == CacheEntry.State.FAILED) {
+                        reason = cached.getReason();
+                        knownFailure = true;
+                        count(Result.FAIL);
+                    } else if (cached.getState() == CacheEntry.State.UNSTABLE) {
+                        count(Result.UNSTABLE);
+                    } else {
+                        count(Result.SKIPPED);
+                    }
+                    cache(cached);
+                    if (cached.getState() != CacheEntry.State.FORMATTED) {
+                        unsettle();
+                    }
+                    if (cached.getState() == CacheEntry.State.TIMEOUT) {
+                        log.debug("File exceeded the time budget in a previous run.");
+                    } else if (cached.getState() == CacheEntry.State.QUARANTINED) {
+                        log.debug("File crashed a worker process in a previous run.");
+                    } else if (cached.getState() == CacheEntry.State.FAILED) {
+                        log.debug(() -> "File failed to format in a previous run: " + reason);
+                    } else if (cached.getState() == CacheEntry.State.UNSTABLE) {
+                        log.debug("File did not converge in a previous run.");
+                    } else {
+                        log.debug("File is already formatted.");
+                    }
+                    return false;
+                }
+                if (candidate) {
+                    group = duplicates.join(task, originalHash, this);
+                    if (group == null) {
+                        // other copy of the content formats it
+                        code = null;
+                        return false;
+                    }
+                }
+                return true;
+            } finally {
+                if (candidate) {
+                    duplicates.leave(task);
+                }
             }
-        } else if (jsFormatterConfig.isSupport(file.getName())  && jsFormatterConfig.isInitialized()) {
-            if (jsFormatterConfig.isSkip()) {
-                log.info("Javascript formatting is skipped");
-                result = Result.SKIPPED;
-            } else {
-                result = jsFormatterConfig.formatFile(file, lineEnding, dryRun);
+        }
+
+        /**
+         * A file that failed or did not converge in a previous run is
+         * formatted again when the retry is forced or the settings of its
+         * formatter changed
+         */
+        private boolean isRetried(CacheEntry cached) {
+            if (cached.getState() != CacheEntry.State.FAILED && cached.getState() != CacheEntry.State.UNSTABLE) {
+                return false;
             }
-        } else if (htmlFormatterConfig.isSupport(file.getName()) && htmlFormatterConfig.isInitialized()) {
-            if (htmlFormatterConfig.isSkip()) {
-                log.info("Html formatting is skipped");
-                result = Result.SKIPPED;
-            } else {
-                result = htmlFormatterConfig.formatFile(file, lineEnding, dryRun);
+            if (retryFailures) {
+                return true;
             }
-        } else if ( xmlFormatterConfig.isSupport(file.getName())  && xmlFormatterConfig.isInitialized()) {
-            if (xmlFormatterConfig.isSkip()) {
-                log.info("Xml formatting is skipped");
+            AbstractCacheableFormatter formatter = run.getPrototypes() == null ? null : run.getPrototypes().find(task.getFile().getName());
+            return formatter == null || !cached.isSameFormatter(formatter.getFingerprint());
+        }
+
+        @Override
+        public boolean format() {
+            File file = task.getFile();
+            String path = task.getPath();
+            Result result;
+            boolean unchanged = false;
+            boolean started = true;
+            long start = System.nanoTime();
+            AbstractCacheableFormatter formatter = formatters.get().find(file.getName());
+            if (formatter == null) {
                 result = Result.SKIPPED;
-            } else {
-                result = xmlFormatterConfig.formatFile(file, lineEnding, dryRun);
-            }
-        } else if ( jsonFormatterConfig.isSupport(file.getName())  && jsonFormatterConfig.isInitialized()) {
-            if (jsonFormatterConfig.isSkip()) {
-                log.info("json formatting is skipped");
+            } else if (formatter.isSkip()) {
+                log.info(formatter.getLanguage() + " formatting is skipped");
                 result = Result.SKIPPED;
             } else {
-                result = jsonFormatterConfig.formatFile(file, lineEnding, dryRun);
+                try {
+                    formattedCode = formatter.formatCode(code, lineEnding);
+                    unchanged = formattedCode == null;
+                    result = unchanged ? Result.SKIPPED : Result.SUCCESS;
+                } catch (IOException | BadLocationException | TimeoutException | RuntimeException e) {
+                    if (scheduler.isCancelled()) {
+                        // interrupted by the cancel of the run, the file ends without result
+                        code = null;
+                        return false;
+                    }
+                    result = formatter.failure(file, e);
+                    reason = e.toString();
+                    started = !(e instanceof FormatterWatchdog.BusyException);
+                }
             }
-        } else if (cssFormatterConfig.isSupport(file.getName()) && cssFormatterConfig.isInitialized()) {
-            if (cssFormatterConfig.isSkip()) {
-                log.info("css formatting is skipped");
-                result = Result.SKIPPED;
-            } else {
-                result = cssFormatterConfig.formatFile(file, lineEnding, dryRun);
+            duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            code = null;
+
+            switch (result) {
+                case SKIPPED:
+                    // an already formatted file is cached as a written one, also over an unstable entry retried
+                    end(Result.SKIPPED, unchanged ? new CacheEntry(originalHash, CacheEntry.State.FORMATTED, duration) : null);
+                    return false;
+                case SUCCESS:
+                    break;
+                case FAIL:
+                    end(Result.FAIL, new CacheEntry(originalHash, CacheEntry.State.FAILED, duration, 0, formatter.getFingerprint(), reason));
+                    return false;
+                case TIMEOUT:
+                    // a format that did not start is tried again by the next run
+                    end(Result.TIMEOUT, started ? new CacheEntry(originalHash, CacheEntry.State.TIMEOUT, duration) : null);
+                    return false;
+                default:
+                    break;
+            }
+
+            String formattedHash = sha512hash(formattedCode);
+            entry = new CacheEntry(formattedHash, CacheEntry.State.FORMATTED, duration);
+
+            if (originalHash.equals(formattedHash)) {
+                log.debug("Equal hash code. Not writing result to file.");
+                end(Result.SKIPPED, entry);
+                return false;
+            }
+            if (stabilityCheck && !isStable(formatter)) {
+                formattedCode = null;
+                log.warn("Format of " + file + " does not converge, not written: " + reason);
+                end(Result.UNSTABLE, new CacheEntry(originalHash, CacheEntry.State.UNSTABLE, duration, 0, formatter.getFingerprint(), reason));
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Format the formatted code once more, it is stable when it does not
+         * change again
+         */
+        private boolean isStable(AbstractCacheableFormatter formatter) {
+            try {
+                String again = formatter.formatCode(formattedCode, lineEnding);
+                if (again == null || again.equals(formattedCode)) {
+                    return true;
+                }
+                reason = "Formatting the formatted code changes it again";
+            } catch (IOException | BadLocationException | TimeoutException | RuntimeException e) {
+                if (scheduler.isCancelled()) {
+                    // the write of a cancelled run is skipped
+                    return true;
+                }
+                formatter.failure(task.getFile(), e);
+                reason = "Formatting the formatted code fails: " + e;
+            }
+            return false;
+        }
+
+        @Override
+        public void write() {
+            try {
+                publish(Result.SUCCESS, entry, formattedCode);
+                write(formattedCode, entry);
+            } finally {
+                formattedCode = null;
+            }
+        }
+
+        @Override
+        public void fail(Throwable e) {
+            reason = e.toString();
+            count(Result.FAIL);
+            unsettle();
+            log.warn("Fail to format " + task.getFile(), e);
+            publish(Result.FAIL, null, null);
+        }
+
+        @Override
+        public void follow(Result result, CacheEntry entry, String formattedCode) {
+            switch (result) {
+                case SUCCESS:
+                    write(formattedCode, entry);
+                    break;
+                case TIMEOUT:
+                    count(Result.TIMEOUT);
+                    cache(entry);
+                    unsettle();
+                    break;
+                case FAIL:
+                    if (entry != null) {
+                        reason = entry.getReason();
+                    }
+                    count(Result.FAIL);
+                    cache(entry);
+                    unsettle();
+                    break;
+                case UNSTABLE:
+                    count(Result.UNSTABLE);
+                    cache(entry);
+                    unsettle();
+                    break;
+                default:
+                    count(Result.SKIPPED);
+                    cache(entry);
+                    break;
             }
-        } else {
-            result = Result.SKIPPED;
-        }
-
-        switch (result) {
-            case SKIPPED:
-                rc.skippedCount();
-                return;
-            case SUCCESS:
-                rc.successCount();
-                break;
-            case FAIL:
-                rc.failCount();
-                return;
-            default:
-                break;
-        }
-
-        String formattedCode = readFileAsString(file);
-        String formattedHash = sha512hash(formattedCode);
-        hashCache.setProperty(path, formattedHash);
-
-        if (originalHash.equals(formattedHash)) {
-            rc.skippedCount();
-            log.debug("Equal hash code. Not writing result to file.");
-            return;
         }
 
-        writeStringToFile(formattedCode, file);
+        private void write(String formattedCode, CacheEntry entry) {
+            try {
+                scheduler.io(() -> {
+                    writeStringToFile(formattedCode, task.getFile());
+                    return null;
+                });
+                count(Result.SUCCESS);
+                cache(entry);
+            } catch (IOException e) {
+                reason = e.toString();
+                count(Result.FAIL);
+                unsettle();
+                log.warn("Fail to format " + task.getFile(), e);
+            }
+        }
+
+        /**
+         * End the file without write it
+         */
+        private void end(Result result, CacheEntry entry) {
+            follow(result, entry, null);
+            publish(result, entry, null);
+        }
+
+        private void publish(Result result, CacheEntry entry, String formattedCode) {
+            if (group != null) {
+                FormatterDuplicates.Group owned = group;
+                group = null;
+                duplicates.publish(owned, result, entry, formattedCode);
+            }
+        }
+
+        /**
+         * Count the result for the file and its other paths, and notify the
+         * listener of the run
+         */
+        private void count(Result result) {
+            rc.count(result);
+            record(task, result);
+            run.fire(task, result, duration);
+            for (FormatterTask link : links) {
+                rc.count(result);
+                record(link, result);
+                run.fire(link, result, duration);
+            }
+        }
+
+        /**
+         * Keep the failed and the unstable files for the report
+         */
+        private void record(FormatterTask path, Result result) {
+            if (result == Result.FAIL) {
+                run.failed(path.getPath(), reason, knownFailure);
+            } else if (result == Result.UNSTABLE) {
+                run.unstable(path.getPath());
+            }
+        }
+
+        /**
+         * The file and its other paths are not formatted by the run
+         */
+        private void unsettle() {
+            run.unsettle(task);
+            for (FormatterTask link : links) {
+                run.unsettle(link);
+            }
+        }
+
+        private void cache(CacheEntry entry) {
+            if (entry != null) {
+                run.cache(task, entry.toString());
+                for (FormatterTask link : links) {
+                    run.cache(link, entry.toString());
+                }
+            }
+        }
     }
 
     /**
@@ -366,7 +1326,7 @@ public class FormatterBuildImpl implements ConfigurationSource, FormatterBuild {
      * @param str the str
      * @return the string
      */
-    private String sha512hash(String str) {
+    String sha512hash(String str) {
         return Hashing.sha512().hashBytes(str.getBytes(getEncodingAsCharset())).toString();
     }
 
@@ -377,7 +1337,7 @@ public class FormatterBuildImpl implements ConfigurationSource, FormatterBuild {
      * @return the string
      * @throws IOException Signals that an I/O exception has occurred.
      */
-    private String readFileAsString(File file) throws java.io.IOException {
+    String readFileAsString(File file) throws java.io.IOException {
         StringBuilder fileData = new StringBuilder(1000);
         try ( BufferedReader reader = new BufferedReader(ReaderFactory.newReader(file, encoding))) {
             char[] buf = new char[1024];
@@ -413,7 +1373,7 @@ public class FormatterBuildImpl implements ConfigurationSource, FormatterBuild {
      *
      * @throws FormatterException the mojo execution exception
      */
-    private void createCodeFormatter() throws FormatterException {
+    void createCodeFormatter() throws FormatterException {
         Map<String, String> javaFormattingOptions = getFormattingOptions(javaFormatterConfig.getFileConfig());
         if (javaFormattingOptions != null) {
             javaFormatterConfig.init(javaFormattingOptions, this);
@@ -482,7 +1442,7 @@ public class FormatterBuildImpl implements ConfigurationSource, FormatterBuild {
 
     @Override
     public void setBasedir(File basedir) {
-        basedir = basedir;
+        this.basedir = basedir;
         if (directories == null) {
             directories = new File[]{basedir};
         }
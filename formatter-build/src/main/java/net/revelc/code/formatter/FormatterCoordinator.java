@@ -0,0 +1,503 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.revelc.code.formatter;
+
+import dev.yracnet.formatter.FormatterException;
+import dev.yracnet.formatter.FormatterLog;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import net.revelc.code.formatter.cache.CacheEntry;
+
+/**
+ * Format the tasks of a run in child JVMs running {@link FormatterWorker}.
+ * The tasks are split in slices taken by the children from a shared queue;
+ * the results and the cache values are applied to the run as the children
+ * report them. When a child dies, the files it did not start go back to the
+ * queue and the file it was formatting is quarantined; if it was formatting
+ * several files, each one is retried alone to find the guilty one. A
+ * cancelled run kills the children, the files in flight are not written.
+ *
+ * @author wyujra
+ */
+public class FormatterCoordinator {
+
+    private static final int MAX_SLICE = 500;
+    // a class of each library the formatters need, to find their jars when the
+    // class loader does not tell its urls
+    private static final String[] LIBRARIES = {
+        "org.eclipse.jdt.core.ToolFactory",
+        "org.eclipse.wst.jsdt.core.ToolFactory",
+        "org.eclipse.jface.text.Document",
+        "org.eclipse.text.edits.TextEdit",
+        "com.fasterxml.jackson.core.JsonFactory",
+        "com.fasterxml.jackson.databind.ObjectMapper",
+        "org.jsoup.Jsoup",
+        "org.apache.commons.digester3.Digester",
+        "com.steadystate.css.parser.CSSOMParser",
+        "org.w3c.css.sac.InputSource",
+        "net.revelc.code.formatter.xml.lib.XmlDocumentFormatter",
+        "com.google.common.base.Strings",
+        "org.codehaus.plexus.util.IOUtil"
+    };
+
+    private final FormatterBuildImpl build;
+    private final int processes;
+    private final FormatterLog log;
+    private final LinkedBlockingDeque<Slice> slices = new LinkedBlockingDeque<>();
+    private final AtomicInteger remaining = new AtomicInteger();
+    private final AtomicInteger sliceCount = new AtomicInteger();
+    private final AtomicInteger crashes = new AtomicInteger();
+    private final AtomicReference<FormatterException> failure = new AtomicReference<>();
+    private final Set<Process> running = ConcurrentHashMap.newKeySet();
+    private String classpath;
+    private volatile boolean cancelled;
+
+    public FormatterCoordinator(FormatterBuildImpl build, int processes) {
+        this.build = build;
+        this.processes = processes;
+        this.log = build.getLog();
+    }
+
+    /**
+     * Format the tasks of the run and wait for all of them
+     *
+     * @param run the run
+     * @throws FormatterException if the workers cannot be started
+     */
+    public void execute(FormatterRun run) throws FormatterException {
+        List<FormatterTask> tasks = new ArrayList<>(run.getTasks());
+        tasks.sort(Comparator.comparingLong(FormatterTask::getCost).reversed());
+        // at least four slices by process, so the last slices balance the processes
+        int size = Math.max(1, Math.min(MAX_SLICE, (tasks.size() + processes * 4 - 1) / (processes * 4)));
+        for (int i = 0; i < tasks.size(); i += size) {
+            offer(new Slice(tasks.subList(i, Math.min(tasks.size(), i + size))));
+        }
+        classpath = classpath();
+        File settings = writeSettings();
+        log.info("Worker processes:                " + processes + ", " + remaining.get() + " slice(s) of " + size + " file(s)");
+        List<Thread> threads = new ArrayList<>(processes);
+        try {
+            for (int i = 0; i < processes; i++) {
+                Thread thread = new Thread(() -> work(run, settings), "formatter-coordinator-" + (i + 1));
+                thread.start();
+                threads.add(thread);
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            threads.forEach(Thread::interrupt);
+            Thread.currentThread().interrupt();
+            throw new FormatterException("Interrupted while formatting", e);
+        } finally {
+            settings.delete();
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    /**
+     * Cancel the run: the slices are not sent and the worker processes are
+     * killed
+     */
+    public void cancel() {
+        cancelled = true;
+        running.forEach(Process::destroyForcibly);
+    }
+
+    public String getReport() {
+        return processes + " process(es), " + sliceCount.get() + " slice(s), " + crashes.get() + " crash(es)";
+    }
+
+    private File writeSettings() throws FormatterException {
+        Properties settings = build.getWorkerSettings();
+        int threads = build.getThreads() > 0 ? build.getThreads() : Math.max(1, WorkerSizing.cpus() / processes);
+        settings.setProperty("threads", String.valueOf(threads));
+        try {
+            File file = File.createTempFile("formatter-worker", ".properties");
+            try ( OutputStream out = new FileOutputStream(file)) {
+                settings.store(out, null);
+            }
+            return file;
+        } catch (IOException e) {
+            throw new FormatterException("Cannot write the settings of the worker processes", e);
+        }
+    }
+
+    private void offer(Slice slice) {
+        remaining.incrementAndGet();
+        sliceCount.incrementAndGet();
+        slices.addLast(slice);
+    }
+
+    private void work(FormatterRun run, File settings) {
+        Process process = null;
+        try {
+            while (failure.get() == null && !cancelled) {
+                Slice slice = slices.pollFirst(100, TimeUnit.MILLISECONDS);
+                if (slice == null) {
+                    if (remaining.get() == 0) {
+                        break;
+                    }
+                    continue;
+                }
+                try {
+                    if (process == null) {
+                        process = start(settings);
+                    }
+                    if (!format(process, slice, run)) {
+                        process.destroyForcibly();
+                        running.remove(process);
+                        process = null;
+                    }
+                } finally {
+                    remaining.decrementAndGet();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            failure.compareAndSet(null, new FormatterException("Cannot start a worker process", e));
+        } finally {
+            if (process != null) {
+                stop(process);
+                running.remove(process);
+            }
+        }
+    }
+
+    private Process start(File settings) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getAbsolutePath());
+        String options = build.getWorkerJvmOptions();
+        if (options != null && !options.trim().isEmpty()) {
+            command.addAll(split(options));
+        }
+        command.add("-cp");
+        command.add(classpath);
+        command.add(FormatterWorker.class.getName());
+        command.add(settings.getAbsolutePath());
+        Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        running.add(process);
+        if (cancelled) {
+            process.destroyForcibly();
+        }
+        return process;
+    }
+
+    /**
+     * The classpath of the child JVMs: the urls of the class loaders that
+     * load {@link FormatterWorker}, plus the jar of each formatter library;
+     * formatter-build may run under a custom loader, so the classpath of this
+     * JVM is used only when the worker comes from the system class loader
+     */
+    static String classpath() throws FormatterException {
+        ClassLoader loader = FormatterWorker.class.getClassLoader();
+        Set<String> entries = new LinkedHashSet<>();
+        String worker = location(FormatterWorker.class);
+        if (worker == null) {
+            throw new FormatterException("Cannot resolve the location of " + FormatterWorker.class.getName() + " for the worker processes, set processes to 0");
+        }
+        entries.add(worker);
+        for (ClassLoader it = loader; it != null; it = it.getParent()) {
+            if (it instanceof URLClassLoader) {
+                for (URL url : ((URLClassLoader) it).getURLs()) {
+                    String entry = location(url);
+                    if (entry != null) {
+                        entries.add(entry);
+                    }
+                }
+            }
+            if (it == ClassLoader.getSystemClassLoader()) {
+                for (String entry : System.getProperty("java.class.path", "").split(File.pathSeparator)) {
+                    if (!entry.isEmpty()) {
+                        entries.add(new File(entry).getAbsolutePath());
+                    }
+                }
+            }
+        }
+        for (String name : LIBRARIES) {
+            try {
+                String entry = location(Class.forName(name, false, loader));
+                if (entry != null) {
+                    entries.add(entry);
+                }
+            } catch (ClassNotFoundException | LinkageError e) {
+                // an optional library, the worker fails on the files that need it as this JVM does
+            }
+        }
+        return String.join(File.pathSeparator, entries);
+    }
+
+    private static String location(Class<?> type) {
+        CodeSource source = type.getProtectionDomain().getCodeSource();
+        return source == null ? null : location(source.getLocation());
+    }
+
+    private static String location(URL url) {
+        if (url == null || !"file".equals(url.getProtocol())) {
+            return null;
+        }
+        try {
+            return new File(url.toURI()).getAbsolutePath();
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Split the options of the child JVMs on the white spaces, an option with
+     * spaces goes between double or single quotes
+     */
+    static List<String> split(String options) {
+        List<String> list = new ArrayList<>();
+        StringBuilder option = new StringBuilder();
+        boolean pending = false;
+        char quote = 0;
+        for (char c : options.toCharArray()) {
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                } else {
+                    option.append(c);
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+                pending = true;
+            } else if (Character.isWhitespace(c)) {
+                if (pending) {
+                    list.add(option.toString());
+                    option.setLength(0);
+                    pending = false;
+                }
+            } else {
+                option.append(c);
+                pending = true;
+            }
+        }
+        if (pending) {
+            list.add(option.toString());
+        }
+        return list;
+    }
+
+    private void stop(Process process) {
+        try {
+            process.getOutputStream().close();
+            if (!process.waitFor(10, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        } catch (IOException e) {
+            process.destroyForcibly();
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Send the slice to the process and apply the results it reports
+     *
+     * @return false if the process died
+     */
+    private boolean format(Process process, Slice slice, FormatterRun run) throws InterruptedException {
+        List<FormatterTask> tasks = slice.tasks;
+        Set<Integer> begun = new HashSet<>();
+        Set<Integer> ended = new HashSet<>();
+        try {
+            PrintWriter in = new PrintWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+            for (int i = 0; i < tasks.size(); i++) {
+                FormatterTask task = tasks.get(i);
+                CacheEntry cached = run.getCached(task);
+                in.println(FormatterWorker.FILE + "\t" + i + "\t" + task.getFile().getAbsolutePath() + "\t"
+                        + task.getPath() + "\t" + (cached == null ? "" : cached));
+            }
+            in.println(FormatterWorker.RUN);
+            in.flush();
+            BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+            String line;
+            while ((line = out.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                if (fields[0].equals(FormatterWorker.DONE)) {
+                    return true;
+                } else if (fields[0].equals(FormatterWorker.BEGIN)) {
+                    begun.add(Integer.parseInt(fields[1]));
+                } else if (fields[0].equals(FormatterWorker.END)) {
+                    int index = Integer.parseInt(fields[1]);
+                    begun.remove(index);
+                    ended.add(index);
+                    apply(run, tasks.get(index), fields[2], fields[3]);
+                }
+            }
+        } catch (IOException e) {
+            log.debug(e);
+        }
+        crashed(process, slice, run, begun, ended);
+        return false;
+    }
+
+    private void apply(FormatterRun run, FormatterTask task, String counts, String value) {
+        String[] count = counts.split(",");
+        ResultCollector result = new ResultCollector();
+        result.setSuccessCount(Integer.parseInt(count[0]));
+        result.setFailCount(Integer.parseInt(count[1]));
+        result.setSkippedCount(Integer.parseInt(count[2]));
+        result.setReadOnlyCount(Integer.parseInt(count[3]));
+        result.setTimeoutCount(Integer.parseInt(count[4]));
+        result.setUnstableCount(Integer.parseInt(count[5]));
+        CacheEntry entry = CacheEntry.parse(value);
+        boolean unsettled = result.getFailCount() + result.getReadOnlyCount() + result.getTimeoutCount() + result.getUnstableCount() > 0
+                || (entry != null && entry.getState() != CacheEntry.State.FORMATTED);
+        Result outcome = outcome(result);
+        String reason = entry != null && entry.getState() == CacheEntry.State.FAILED ? entry.getReason() : null;
+        for (FormatterTask path : paths(run, task)) {
+            run.getResult().add(result);
+            if (outcome == Result.UNSTABLE) {
+                run.unstable(path.getPath());
+            }
+            if (outcome == Result.FAIL) {
+                // the worker returns the entry sent to it for a failure it did not retry
+                CacheEntry previous = run.getCached(path);
+                run.failed(path.getPath(), reason, reason != null && previous != null && value.equals(previous.toString()));
+            }
+            if (!value.isEmpty()) {
+                run.cache(path, value);
+            }
+            if (unsettled) {
+                run.unsettle(path);
+            }
+            run.fire(path, outcome, entry == null ? 0 : entry.getDuration());
+        }
+    }
+
+    /**
+     * The result of a file from the counts reported by the worker
+     */
+    private static Result outcome(ResultCollector result) {
+        if (result.getSuccessCount() > 0) {
+            return Result.SUCCESS;
+        } else if (result.getFailCount() > 0) {
+            return Result.FAIL;
+        } else if (result.getReadOnlyCount() > 0) {
+            return Result.READ_ONLY;
+        } else if (result.getTimeoutCount() > 0) {
+            return Result.TIMEOUT;
+        } else if (result.getUnstableCount() > 0) {
+            return Result.UNSTABLE;
+        }
+        return Result.SKIPPED;
+    }
+
+    /**
+     * The task and the other paths of its file
+     */
+    private List<FormatterTask> paths(FormatterRun run, FormatterTask task) {
+        if (run.getDuplicates() == null) {
+            return Collections.singletonList(task);
+        }
+        List<FormatterTask> paths = new ArrayList<>(run.getDuplicates().getLinks(task));
+        paths.add(0, task);
+        return paths;
+    }
+
+    private void crashed(Process process, Slice slice, FormatterRun run, Set<Integer> begun, Set<Integer> ended) throws InterruptedException {
+        process.destroyForcibly();
+        int status = process.waitFor();
+        if (cancelled) {
+            // killed by the cancel, the files in flight end without result
+            return;
+        }
+        crashes.incrementAndGet();
+        log.warn("Worker process exited with status " + status + ", " + ended.size() + " of " + slice.tasks.size() + " file(s) of its slice formatted");
+        if (begun.isEmpty() && ended.isEmpty()) {
+            // died before any file, the process and not a file is the problem
+            if (++slice.attempts >= 2) {
+                failure.compareAndSet(null, new FormatterException("Worker process exited with status " + status + " before format any file"));
+            } else {
+                offer(slice);
+            }
+            return;
+        }
+        List<FormatterTask> rest = new ArrayList<>();
+        for (int i = 0; i < slice.tasks.size(); i++) {
+            if (!begun.contains(i) && !ended.contains(i)) {
+                rest.add(slice.tasks.get(i));
+            }
+        }
+        if (!rest.isEmpty()) {
+            offer(new Slice(rest));
+        }
+        if (begun.size() == 1) {
+            quarantine(run, slice.tasks.get(begun.iterator().next()));
+        } else {
+            for (int index : begun) {
+                offer(new Slice(Collections.singletonList(slice.tasks.get(index))));
+            }
+        }
+    }
+
+    private void quarantine(FormatterRun run, FormatterTask task) {
+        try {
+            String hash = build.sha512hash(build.readFileAsString(task.getFile()));
+            for (FormatterTask path : paths(run, task)) {
+                run.cache(path, new CacheEntry(hash, CacheEntry.State.QUARANTINED).toString());
+                run.getResult().quarantinedCount();
+                run.unsettle(path);
+                run.fire(path, Result.QUARANTINED, 0);
+            }
+            log.warn("Worker process crashed formatting " + task.getFile() + ", quarantined until its content changes");
+        } catch (IOException e) {
+            run.getResult().failCount();
+            run.failed(task.getPath(), e.toString(), false);
+            run.fire(task, Result.FAIL, 0);
+            log.warn(e);
+        }
+    }
+
+    private static class Slice {
+
+        private final List<FormatterTask> tasks;
+        private int attempts;
+
+        Slice(List<FormatterTask> tasks) {
+            this.tasks = tasks;
+        }
+    }
+
+}
@@ -0,0 +1,276 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.revelc.code.formatter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.revelc.code.formatter.cache.CacheEntry;
+
+/**
+ * The files of a run with the same content. The paths of the same file, hard
+ * links or bind mounts, are grouped by file key: only the first path is
+ * formatted and the others take its result. The copies of a content are
+ * grouped by hash when they are read: the first copy is formatted and the
+ * others follow it, with the formatted code written to each copy.
+ *
+ * Only the files with a formatter and a size shared by other file are
+ * grouped, by hash and formatter: the same content in files of other
+ * languages is formatted by each formatter. The groups of a size are
+ * released when all the files of that size are read. The formatted code kept
+ * for the copies not read yet holds its memory in the budget of the
+ * scheduler until the last file of the size is read; without room in the
+ * budget, or when no file of the size is left to read, it is not kept.
+ *
+ * @author wyujra
+ */
+public class FormatterDuplicates {
+
+    /**
+     * A file that takes the result of the first copy of its content.
+     */
+    public interface Follower {
+
+        /**
+         * Apply the result of the first copy
+         *
+         * @param result the result of the first copy
+         * @param entry the cache entry of the content or null
+         * @param formattedCode the code to write if the result is SUCCESS
+         */
+        void follow(Result result, CacheEntry entry, String formattedCode);
+    }
+
+    private static final String SEPARATOR = ":";
+
+    private final List<FormatterTask> tasks = new ArrayList<>();
+    private final Map<FormatterTask, List<FormatterTask>> links = new HashMap<>();
+    private final Map<Long, AtomicInteger> pending = new HashMap<>();
+    private final Map<Long, Map<String, Group>> groups = new ConcurrentHashMap<>();
+    private final AtomicInteger copies = new AtomicInteger();
+    private int linkCount;
+    private FormatterScheduler scheduler;
+
+    /**
+     * Group the tasks by file key
+     *
+     * @param tasks all the tasks of the run
+     */
+    public FormatterDuplicates(List<FormatterTask> tasks) {
+        Map<Object, FormatterTask> byKey = new HashMap<>();
+        for (FormatterTask task : tasks) {
+            FormatterTask first = task.getFileKey() == null ? null : byKey.putIfAbsent(task.getFileKey(), task);
+            if (first == null) {
+                this.tasks.add(task);
+            } else {
+                links.computeIfAbsent(first, key -> new ArrayList<>()).add(task);
+                linkCount++;
+            }
+        }
+        Map<Long, Integer> sizes = new HashMap<>();
+        for (FormatterTask task : this.tasks) {
+            if (task.getFormatterKey() != null) {
+                sizes.merge(task.getSize(), 1, Integer::sum);
+            }
+        }
+        for (Map.Entry<Long, Integer> size : sizes.entrySet()) {
+            if (size.getValue() > 1) {
+                pending.put(size.getKey(), new AtomicInteger(size.getValue()));
+            }
+        }
+    }
+
+    /**
+     * Set the scheduler whose budget holds the formatted code kept for the
+     * copies
+     *
+     * @param scheduler
+     */
+    public void setScheduler(FormatterScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * The tasks to format, the first path of each file
+     *
+     * @return
+     */
+    public List<FormatterTask> getTasks() {
+        return tasks;
+    }
+
+    /**
+     * The other paths of the file of the task
+     *
+     * @param task
+     * @return the paths, empty if the file has one path
+     */
+    public List<FormatterTask> getLinks(FormatterTask task) {
+        return links.getOrDefault(task, Collections.emptyList());
+    }
+
+    /**
+     * Return true if the task has a formatter and other file has its size,
+     * its content is grouped by hash. A candidate must
+     * {@link #leave(FormatterTask)} once, whatever its result
+     *
+     * @param task
+     * @return
+     */
+    public boolean isCandidate(FormatterTask task) {
+        return task.getFormatterKey() != null && pending.containsKey(task.getSize());
+    }
+
+    /**
+     * Join the group of the content, the first file of the group formats
+     * the content and must {@link #publish(Group, Result, CacheEntry, String)}
+     * its result
+     *
+     * @param task the candidate task
+     * @param hash the hash of the content
+     * @param follower the file
+     * @return the group if the file is the first of its content, null if it
+     * follows other file
+     */
+    public Group join(FormatterTask task, String hash, Follower follower) {
+        Map<String, Group> contents = groups.computeIfAbsent(task.getSize(), key -> new ConcurrentHashMap<>());
+        String key = task.getFormatterKey() + SEPARATOR + hash;
+        while (true) {
+            Group group = contents.computeIfAbsent(key, k -> new Group(follower, task.getSize(), k));
+            if (group.owner == follower) {
+                return group;
+            }
+            Outcome outcome;
+            synchronized (group) {
+                outcome = group.outcome;
+                if (outcome == null) {
+                    copies.incrementAndGet();
+                    group.followers.add(follower);
+                    return null;
+                }
+            }
+            if (outcome.result == Result.SUCCESS && outcome.formattedCode == null) {
+                // the formatted code was not kept, the group was removed and this copy starts other
+                continue;
+            }
+            copies.incrementAndGet();
+            follower.follow(outcome.result, outcome.entry, outcome.formattedCode);
+            return null;
+        }
+    }
+
+    /**
+     * The candidate task was read, joined or not its group. After the last
+     * file of a size no other copy can join the groups of that size
+     *
+     * @param task
+     */
+    public void leave(FormatterTask task) {
+        AtomicInteger count = pending.get(task.getSize());
+        if (count != null && count.decrementAndGet() == 0) {
+            Map<String, Group> contents = groups.remove(task.getSize());
+            if (contents != null && scheduler != null) {
+                for (Group group : contents.values()) {
+                    synchronized (group) {
+                        scheduler.release(group.size, group.held);
+                        group.held = 0;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Apply the result of the first file to the files that follow it
+     *
+     * @param group the group of the first file
+     * @param result the result
+     * @param entry the cache entry of the content or null
+     * @param formattedCode the code to write if the result is SUCCESS
+     */
+    public void publish(Group group, Result result, CacheEntry entry, String formattedCode) {
+        List<Follower> followers;
+        synchronized (group) {
+            String kept = formattedCode;
+            Map<String, Group> contents = groups.get(group.size);
+            if (contents == null || contents.get(group.key) != group) {
+                // all the files of the size were read, no other copy can join
+                kept = null;
+            } else if (kept != null && scheduler != null) {
+                // a char of the code takes up to two bytes, released by the leave of the last file of the size
+                group.held = scheduler.hold(group.size, 2L * kept.length());
+                if (group.held == 0) {
+                    kept = null;
+                    contents.remove(group.key, group);
+                }
+            }
+            group.outcome = new Outcome(result, entry, kept);
+            followers = new ArrayList<>(group.followers);
+            group.followers.clear();
+        }
+        for (Follower follower : followers) {
+            follower.follow(result, entry, formattedCode);
+        }
+    }
+
+    /**
+     * Summary of the duplicates for the log
+     *
+     * @return
+     */
+    public String getReport() {
+        return linkCount + " path(s) of the same file, " + copies.get() + " copy(ies) of other file";
+    }
+
+    public boolean isEmpty() {
+        return linkCount == 0 && copies.get() == 0;
+    }
+
+    /**
+     * The files with the same content, the first one is formatted.
+     */
+    public static class Group {
+
+        private final Follower owner;
+        private final long size;
+        private final String key;
+        private final List<Follower> followers = new ArrayList<>();
+        private Outcome outcome;
+        private int held;
+
+        Group(Follower owner, long size, String key) {
+            this.owner = owner;
+            this.size = size;
+            this.key = key;
+        }
+    }
+
+    private static class Outcome {
+
+        private final Result result;
+        private final CacheEntry entry;
+        private final String formattedCode;
+
+        Outcome(Result result, CacheEntry entry, String formattedCode) {
+            this.result = result;
+            this.entry = entry;
+            this.formattedCode = formattedCode;
+        }
+    }
+
+}
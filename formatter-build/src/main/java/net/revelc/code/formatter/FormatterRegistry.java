@@ -0,0 +1,72 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.revelc.code.formatter;
+
+import dev.yracnet.formatter.FormatterException;
+import java.util.HashMap;
+import java.util.Map;
+import lombok.Getter;
+
+/**
+ * The initialized formatters by formatter settings. Builds with the same
+ * settings read the config files and initialize the formatters once, and
+ * their files share the formatter copies of the worker threads.
+ *
+ * @author wyujra
+ */
+public class FormatterRegistry {
+
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    /**
+     * Get the formatters for the settings of the build, initialized by the
+     * first build with these settings
+     *
+     * @param build the build
+     * @return the formatters
+     * @throws FormatterException if the config files cannot be read
+     */
+    public synchronized Entry get(FormatterBuildImpl build) throws FormatterException {
+        String key = build.getFormatterKey();
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            build.createCodeFormatter();
+            entry = new Entry(build.getFormatterSet());
+            entries.put(key, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Number of distinct formatter settings
+     *
+     * @return
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    @Getter
+    public static class Entry {
+
+        private final FormatterSet prototypes;
+        private final ThreadLocal<FormatterSet> formatters;
+
+        Entry(FormatterSet prototypes) {
+            this.prototypes = prototypes;
+            this.formatters = ThreadLocal.withInitial(prototypes::copy);
+        }
+    }
+
+}
@@ -0,0 +1,230 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.revelc.code.formatter;
+
+import dev.yracnet.formatter.FormatterEvent;
+import dev.yracnet.formatter.FormatterListener;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+import net.revelc.code.formatter.cache.CacheEntry;
+import net.revelc.code.formatter.cache.CacheJournal;
+import net.revelc.code.formatter.cache.DirectorySnapshots;
+import net.revelc.code.formatter.cache.HashCacheTable;
+import net.revelc.code.formatter.cache.LazyHashCache;
+import net.revelc.code.formatter.cache.XattrCache;
+
+/**
+ * The tasks of a build with the state shared by its files: the result, the
+ * hash cache, the formatters of the worker threads and the duplicates of
+ * the files.
+ *
+ * @author wyujra
+ */
+@Getter
+public class FormatterRun {
+
+    private final FormatterBuildImpl build;
+    private final ResultCollector result;
+    @Getter(AccessLevel.NONE)
+    private final LazyHashCache hashCache;
+    private final ThreadLocal<FormatterSet> formatters;
+    private final List<FormatterTask> tasks;
+    @Setter
+    private FormatterShard shard;
+    @Setter
+    private FormatterDuplicates duplicates;
+    @Setter
+    private CacheJournal journal;
+    @Setter
+    private XattrCache xattrCache;
+    @Setter
+    private DirectorySnapshots snapshots;
+    @Setter
+    private FormatterListener listener;
+    /**
+     * The formatters of the languages of the events.
+     */
+    @Setter
+    private FormatterSet prototypes;
+    private final Set<String> unsettled = ConcurrentHashMap.newKeySet();
+    /**
+     * The failed files of the run with the reason of the failure.
+     */
+    private final Map<String, String> failures = new ConcurrentHashMap<>();
+    /**
+     * The failed files not formatted again, unchanged since they failed.
+     */
+    private final AtomicInteger knownFailures = new AtomicInteger();
+    /**
+     * The files whose formatted code changes when it is formatted again.
+     */
+    private final Set<String> unstable = ConcurrentHashMap.newKeySet();
+
+    public FormatterRun(FormatterBuildImpl build, ResultCollector result, LazyHashCache hashCache,
+            ThreadLocal<FormatterSet> formatters, List<FormatterTask> tasks) {
+        this.build = build;
+        this.result = result;
+        this.hashCache = hashCache;
+        this.formatters = formatters;
+        this.tasks = tasks;
+    }
+
+    /**
+     * The hash cache, loaded by the first call
+     *
+     * @return
+     */
+    public HashCacheTable getHashCache() {
+        return hashCache.get();
+    }
+
+    /**
+     * Return true if the hash cache was loaded, with the extended attributes
+     * only a file of a store without them loads it
+     *
+     * @return
+     */
+    public boolean isHashCacheLoaded() {
+        return hashCache.isLoaded();
+    }
+
+    /**
+     * Get the cache entry of a file, from its extended attributes or the
+     * hash cache
+     *
+     * @param task the file
+     * @return the cache entry or null
+     */
+    public CacheEntry getCached(FormatterTask task) {
+        return getCached(xattrCache, hashCache, task.getFile(), task.getPath());
+    }
+
+    static CacheEntry getCached(XattrCache xattrCache, LazyHashCache hashCache, File file, String path) {
+        if (xattrCache != null && xattrCache.isSupported(file)) {
+            String value = xattrCache.get(file);
+            return value != null ? CacheEntry.parse(value) : null;
+        }
+        return hashCache.get().getEntry(path);
+    }
+
+    /**
+     * Set the cache entry of a file, in its extended attributes or in the
+     * hash cache, where a changed entry is appended to the journal as the
+     * file completes
+     *
+     * @param task the file
+     * @param value the cache entry
+     */
+    public void cache(FormatterTask task, String value) {
+        if (xattrCache != null && xattrCache.isSupported(task.getFile()) && xattrCache.put(task.getFile(), value)) {
+            return;
+        }
+        CacheEntry previous = hashCache.get().put(task.getPath(), value);
+        if (journal != null && (previous == null || !previous.equals(CacheEntry.parse(value)))) {
+            journal.append(task.getPath(), value);
+        }
+    }
+
+    /**
+     * The file is not formatted by the run: it failed, timed out, was
+     * quarantined or is read only
+     *
+     * @param task the file
+     */
+    public void unsettle(FormatterTask task) {
+        unsettled.add(task.getPath());
+    }
+
+    /**
+     * The file failed
+     *
+     * @param path the key of the file
+     * @param reason the reason of the failure or null
+     * @param known true if the file failed in a previous run and was not
+     * formatted again
+     */
+    public void failed(String path, String reason, boolean known) {
+        failures.put(path, reason == null ? "Fail to format" : reason);
+        if (known) {
+            knownFailures.incrementAndGet();
+        }
+    }
+
+    /**
+     * The formatted code of the file does not converge, the file is not
+     * written
+     *
+     * @param path the key of the file
+     */
+    public void unstable(String path) {
+        unstable.add(path);
+    }
+
+    /**
+     * Notify the listener of the result of a file, a failure of the listener
+     * does not stop the run
+     *
+     * @param task the file
+     * @param result the result
+     * @param duration the time of the format in milliseconds
+     */
+    public void fire(FormatterTask task, Result result, long duration) {
+        if (listener == null) {
+            return;
+        }
+        File file = task.getFile();
+        AbstractCacheableFormatter formatter = prototypes == null ? null : prototypes.find(file.getName());
+        try {
+            listener.onFile(new FormatterEvent(task.getPath(), file, formatter == null ? null : formatter.getLanguage(),
+                    result, duration, task.getSize()));
+        } catch (RuntimeException e) {
+            build.getLog().warn("Listener failed on " + file, e);
+        }
+    }
+
+    /**
+     * Submit the tasks of all runs to the scheduler, the most expensive
+     * first whatever the build they belong to.
+     *
+     * @param scheduler the scheduler
+     * @param runs the runs
+     */
+    public static void submit(FormatterScheduler scheduler, List<FormatterRun> runs) {
+        List<FormatterBuildImpl.FileJob> jobs = new ArrayList<>();
+        for (FormatterRun run : runs) {
+            if (run.duplicates != null) {
+                run.duplicates.setScheduler(scheduler);
+            }
+            for (FormatterTask task : run.tasks) {
+                jobs.add(run.build.new FileJob(task, run, scheduler));
+            }
+        }
+        // longest processing time first, a huge file started last keeps the other workers waiting
+        jobs.sort(Comparator.comparingLong((FormatterBuildImpl.FileJob job) -> job.getTask().getCost()).reversed());
+        for (FormatterBuildImpl.FileJob job : jobs) {
+            FormatterTask task = job.getTask();
+            scheduler.submit(task.getSize(), task.getEstimatedBytes(), job);
+        }
+    }
+
+}
@@ -0,0 +1,174 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.revelc.code.formatter;
+
+import dev.yracnet.formatter.FormatterHelp;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.Getter;
+import net.revelc.code.formatter.cache.DirectorySnapshots;
+import org.codehaus.plexus.util.DirectoryScanner;
+
+/**
+ * The scanner of the source files of a directory, with the includes, the
+ * excludes and the default excludes. With the snapshots of the last run the
+ * unchanged directories are not listed, the included files are only the
+ * files of the listed directories. With the rules of git the ignored
+ * directories are pruned, they are never listed.
+ *
+ * @author wyujra
+ */
+public class FormatterScanner extends DirectoryScanner {
+
+    private DirectorySnapshots snapshots;
+    private String rootKey;
+    private final Map<String, Long> listed = new HashMap<>();
+    private final Map<String, List<String>> directories = new HashMap<>();
+    private GitIgnore gitIgnore;
+    private final Map<String, GitIgnore> ignores = new HashMap<>();
+    @Getter
+    private int ignoredDirectories;
+
+    /**
+     * Create the scanner of the directory
+     *
+     * @param directory
+     * @param includes the includes or null for the default includes
+     * @param excludes
+     */
+    public FormatterScanner(File directory, String[] includes, String[] excludes) {
+        setBasedir(directory);
+        if (includes != null && includes.length > 0) {
+            setIncludes(includes);
+        } else {
+            setIncludes(FormatterHelp.DEFAULT_INCLUDES);
+        }
+        setExcludes(excludes);
+        addDefaultExcludes();
+        setCaseSensitive(false);
+        setFollowSymlinks(false);
+    }
+
+    /**
+     * Set the snapshots of the directories
+     *
+     * @param snapshots the snapshots of the run
+     * @param rootKey the key of the scanned directory
+     */
+    public void setSnapshots(DirectorySnapshots snapshots, String rootKey) {
+        this.snapshots = snapshots;
+        this.rootKey = rootKey;
+    }
+
+    /**
+     * Set the ignore rules of git for the parents of the directory, the
+     * .gitignore files of the scanned directories are read as they are
+     * scanned
+     *
+     * @param gitIgnore
+     */
+    public void setGitIgnore(GitIgnore gitIgnore) {
+        this.gitIgnore = gitIgnore;
+    }
+
+    @Override
+    public void scan() {
+        super.scan();
+        if (snapshots == null) {
+            return;
+        }
+        Map<String, List<String>> files = new HashMap<>();
+        for (String name : getIncludedFiles()) {
+            int index = name.lastIndexOf(File.separatorChar) + 1;
+            files.computeIfAbsent(name.substring(0, index), key -> new ArrayList<>()).add(name.substring(index));
+        }
+        for (Map.Entry<String, Long> directory : listed.entrySet()) {
+            String vpath = directory.getKey();
+            snapshots.listed(getKey(vpath), new DirectorySnapshots.Snapshot(new File(basedir, vpath), directory.getValue(), true,
+                    files.getOrDefault(vpath, new ArrayList<>()), directories.getOrDefault(vpath, new ArrayList<>())));
+        }
+    }
+
+    @Override
+    protected void scandir(File dir, String vpath, boolean fast) {
+        long modified = 0;
+        if (gitIgnore != null) {
+            GitIgnore ignore;
+            if (vpath.isEmpty()) {
+                ignore = gitIgnore.child(dir, vpath);
+            } else {
+                GitIgnore parent = ignores.get(getParent(vpath));
+                if (parent.isIgnored(vpath, true)) {
+                    ignoredDirectories++;
+                    return;
+                }
+                ignore = parent.child(dir, vpath);
+            }
+            ignores.put(vpath, ignore);
+            // a changed ignore file changes the files of the directory
+            modified = ignore.getModified();
+        }
+        if (snapshots == null) {
+            super.scandir(dir, vpath, fast);
+            return;
+        }
+        if (!vpath.isEmpty()) {
+            directories.computeIfAbsent(getParent(vpath), key -> new ArrayList<>()).add(dir.getName());
+        }
+        long dirModified = dir.lastModified();
+        if (dirModified == 0 && !dir.isDirectory()) {
+            // removed since the listing of its parent
+            return;
+        }
+        modified = Math.max(modified, dirModified);
+        String key = getKey(vpath);
+        DirectorySnapshots.Snapshot previous = snapshots.getPrevious(key);
+        if (previous != null && previous.isSettled() && previous.getModified() == modified) {
+            snapshots.unchanged(key, previous);
+            for (String name : previous.getDirectories()) {
+                scandir(new File(dir, name), vpath + name + File.separator, fast);
+            }
+            return;
+        }
+        listed.put(vpath, modified);
+        super.scandir(dir, vpath, fast);
+    }
+
+    @Override
+    protected boolean isSelected(String name, File file) {
+        if (gitIgnore != null && ignores.get(getParent(name)).isIgnored(name, false)) {
+            return false;
+        }
+        return super.isSelected(name, file);
+    }
+
+    /**
+     * The path of the parent directory, with the separator at the end
+     */
+    private static String getParent(String vpath) {
+        int end = vpath.endsWith(File.separator) ? vpath.length() - 2 : vpath.length() - 1;
+        return vpath.substring(0, vpath.lastIndexOf(File.separatorChar, end) + 1);
+    }
+
+    /**
+     * The key of a directory as the keys of the files in the cache
+     */
+    private String getKey(String vpath) {
+        return vpath.isEmpty() ? rootKey : rootKey + File.separator + vpath.substring(0, vpath.length() - 1);
+    }
+
+}
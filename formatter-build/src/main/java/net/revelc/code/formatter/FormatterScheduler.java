@@ -0,0 +1,746 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.revelc.code.formatter;
+
+import dev.yracnet.formatter.FormatterException;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Staged pipeline that formats the files with bounded memory.
+ *
+ * Each file goes through three stages: read (read, hash and cache lookup),
+ * format and write. The read and write stages and the scan of the directories
+ * run on virtual threads, or on a cached pool on JDKs without them, limited by
+ * the read concurrency. The format stage runs on a pool of platform threads
+ * sized to the CPU quota, fed through a bounded queue; the write stage is fed
+ * through a bounded number of pending writes. A full queue blocks the stage
+ * before it, so I/O is overlapped with the formatting without reading ahead
+ * without limit.
+ *
+ * A file waits in the queue of its lane, as a plain reference, until its
+ * estimated memory (file size times the expansion factor of its formatter) is
+ * available in the byte budget and a reader is free; the memory is released
+ * when the file is written. No thread is blocked by the files waiting. Files
+ * over the huge threshold run in a dedicated lane with its own part of the
+ * budget, so a few huge files do not starve the small ones. The open file descriptors are limited by
+ * {@link #io(IOTask)}.
+ *
+ * The normal lane is resized while running: the read concurrency follows the
+ * ratio of read and format latencies and the depth of the format queue, the
+ * format pool grows over the CPU quota only while the process does not use the
+ * CPU it has.
+ *
+ * A run is cancelled by {@link #cancel()}: the queued files are dropped, the
+ * format workers are interrupted, so a format with a time budget is abandoned
+ * by the {@link FormatterWatchdog}, and the formatted files are not written.
+ *
+ * @author wyujra
+ */
+public class FormatterScheduler implements AutoCloseable {
+
+    /**
+     * I/O operation executed with an open file permit
+     *
+     * @param <T>
+     */
+    @FunctionalInterface
+    public interface IOTask<T> {
+
+        T call() throws IOException;
+    }
+
+    /**
+     * The stages of a file. An exception thrown by a stage is passed to
+     * {@link #fail(Throwable)} and ends the file.
+     */
+    public interface FileJob {
+
+        /**
+         * Read stage, on an I/O thread
+         *
+         * @return true if the file must be formatted
+         */
+        boolean read();
+
+        /**
+         * Format stage, on a format worker
+         *
+         * @return true if the result must be written
+         */
+        boolean format();
+
+        /**
+         * Write stage, on an I/O thread, commit the cache entry after the
+         * file is written
+         */
+        void write();
+
+        /**
+         * Unexpected error in a stage
+         *
+         * @param e
+         */
+        void fail(Throwable e);
+    }
+
+    private static final long ADAPT_PERIOD = 250;
+    private static final int SCAN_CHUNK = 256;
+
+    private final ExecutorService ioExecutor;
+    private final boolean virtualThreads;
+    private final Lane normal;
+    private final Lane huge;
+    private final long hugeFileThreshold;
+    private final Semaphore openFiles;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final ScheduledExecutorService controller;
+    private final int baseFormatThreads;
+    private final int maxFormatThreads;
+    private final int maxIoThreads;
+    private final WorkerSizing.CpuLoad cpuLoad = new WorkerSizing.CpuLoad();
+    private volatile boolean cancelled;
+    private final Set<Thread> formatting = new HashSet<>();
+    private final List<Runnable> cancelHooks = new CopyOnWriteArrayList<>();
+
+    /**
+     * Create the scheduler
+     *
+     * @param formatThreads initial number of format workers
+     * @param ioThreads initial number of files read or written at the same
+     * time
+     * @param adaptive true for resize the pools while running
+     * @param maxInFlightBytes memory budget for the files in flight
+     * @param maxOpenFiles maximum number of files open at the same time
+     * @param hugeFileThreshold size in bytes from which a file use the huge
+     * lane, 0 for disable the huge lane
+     */
+    public FormatterScheduler(int formatThreads, int ioThreads, boolean adaptive, long maxInFlightBytes, int maxOpenFiles, long hugeFileThreshold) {
+        ExecutorService virtual = newVirtualThreadExecutor();
+        this.virtualThreads = virtual != null;
+        this.ioExecutor = virtual != null ? virtual : Executors.newCachedThreadPool(daemon("formatter-io-"));
+        boolean hugeLane = formatThreads > 1 && hugeFileThreshold > 0;
+        long hugeBudget = hugeLane ? maxInFlightBytes / 2 : 0;
+        this.normal = new Lane("formatter-", formatThreads, ioThreads, maxInFlightBytes - hugeBudget);
+        this.huge = hugeLane ? new Lane("formatter-huge-", 1, 1, hugeBudget) : normal;
+        this.hugeFileThreshold = hugeLane ? hugeFileThreshold : Long.MAX_VALUE;
+        this.openFiles = new Semaphore(Math.max(1, maxOpenFiles), true);
+        this.baseFormatThreads = Math.max(1, formatThreads);
+        this.maxFormatThreads = 2 * baseFormatThreads;
+        this.maxIoThreads = Math.max(normal.reads.getLimit(), maxOpenFiles);
+        if (adaptive) {
+            this.controller = Executors.newSingleThreadScheduledExecutor(daemon("formatter-sizing-"));
+            this.controller.scheduleAtFixedRate(this::adapt, ADAPT_PERIOD, ADAPT_PERIOD, TimeUnit.MILLISECONDS);
+        } else {
+            this.controller = null;
+        }
+    }
+
+    /**
+     * Executor of a virtual thread per task, by reflection for run in JDK 11
+     *
+     * @return the executor or null if the JDK does not support virtual
+     * threads
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            // before JDK 21, or a preview not enabled
+            return null;
+        }
+    }
+
+    private static ThreadFactory daemon(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, name + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Map the items in parallel on the I/O threads, used by the scan stage.
+     * The order of the results is the order of the items, a cancelled run
+     * stops the map and returns a part of the results.
+     *
+     * @param <T>
+     * @param <R>
+     * @param items the items
+     * @param function the I/O function
+     * @return the results
+     * @throws FormatterException when the function fails
+     */
+    public <T, R> List<R> scan(List<T> items, Function<T, R> function) throws FormatterException {
+        List<Future<List<R>>> futures = new ArrayList<>();
+        Semaphore running = new Semaphore(maxIoThreads);
+        List<R> results = new ArrayList<>(items.size());
+        try {
+            for (int i = 0; i < items.size(); i += SCAN_CHUNK) {
+                List<T> chunk = items.subList(i, Math.min(items.size(), i + SCAN_CHUNK));
+                running.acquire();
+                futures.add(ioExecutor.submit(() -> {
+                    try {
+                        List<R> chunkResults = new ArrayList<>(chunk.size());
+                        for (T item : chunk) {
+                            if (cancelled) {
+                                break;
+                            }
+                            chunkResults.add(function.apply(item));
+                        }
+                        return chunkResults;
+                    } finally {
+                        running.release();
+                    }
+                }));
+            }
+            for (Future<List<R>> future : futures) {
+                results.addAll(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FormatterException("Interrupted while scanning", e);
+        } catch (ExecutionException e) {
+            throw new FormatterException("Cannot scan the files: " + e.getCause(), e.getCause());
+        }
+        return results;
+    }
+
+    /**
+     * Queue the format of a file. The read stage starts when the memory
+     * budget of its lane admits the estimated size and a reader is free.
+     *
+     * @param fileSize the size of the file
+     * @param estimatedBytes the memory estimated for format the file
+     * @param job the stages of the file
+     */
+    public void submit(long fileSize, long estimatedBytes, FileJob job) {
+        Lane lane = fileSize >= hugeFileThreshold ? huge : normal;
+        int permits = lane.permits(estimatedBytes);
+        pending.incrementAndGet();
+        lane.offer(permits, () -> readStage(lane, permits, job));
+    }
+
+    /**
+     * Hold memory of the budget of the lane of a file size outside of the
+     * stages of a file, as the formatted code kept for the copies of a file
+     * not read yet. It does not wait for the budget
+     *
+     * @param fileSize the size of the file
+     * @param bytes the memory to hold
+     * @return the held permits, 0 if the budget has not room for them
+     */
+    public int hold(long fileSize, long bytes) {
+        Lane lane = fileSize >= hugeFileThreshold ? huge : normal;
+        int permits = lane.permits(bytes);
+        return lane.budget.tryAcquire(permits) ? permits : 0;
+    }
+
+    /**
+     * Release the memory of {@link #hold(long, long)}
+     *
+     * @param fileSize the size of the file
+     * @param permits the held permits
+     */
+    public void release(long fileSize, int permits) {
+        if (permits > 0) {
+            Lane lane = fileSize >= hugeFileThreshold ? huge : normal;
+            lane.budget.release(permits);
+            lane.pump();
+        }
+    }
+
+    /**
+     * The free memory of the budgets of the lanes, in KB
+     *
+     * @return
+     */
+    int getAvailableBudget() {
+        return normal.budget.availablePermits() + (huge != normal ? huge.budget.availablePermits() : 0);
+    }
+
+    /**
+     * The memory of the budgets of the lanes, in KB
+     *
+     * @return
+     */
+    int getBudget() {
+        return normal.budgetKb + (huge != normal ? huge.budgetKb : 0);
+    }
+
+    private void readStage(Lane lane, int permits, FileJob job) {
+        boolean handed = false;
+        try {
+            if (failure.get() == null && !cancelled) {
+                boolean format;
+                long start = System.nanoTime();
+                try {
+                    format = job.read();
+                } finally {
+                    lane.reads.release();
+                    lane.pump();
+                }
+                lane.readLatency.record(System.nanoTime() - start);
+                if (format) {
+                    lane.format.execute(() -> formatStage(lane, permits, job));
+                    handed = true;
+                }
+            } else {
+                lane.reads.release();
+            }
+        } catch (Throwable e) {
+            error(job, e);
+        } finally {
+            if (!handed) {
+                done(lane, permits);
+            }
+        }
+    }
+
+    private void formatStage(Lane lane, int permits, FileJob job) {
+        boolean handed = false;
+        try {
+            long start = System.nanoTime();
+            boolean write = formatting() && job.format();
+            lane.formatLatency.record(System.nanoTime() - start);
+            if (write && !cancelled) {
+                // bounded write queue, the format worker waits for the writers
+                lane.writes.acquire();
+                ioExecutor.execute(() -> writeStage(lane, permits, job));
+                handed = true;
+            }
+        } catch (InterruptedException e) {
+            if (!cancelled) {
+                Thread.currentThread().interrupt();
+                job.fail(e);
+            }
+        } catch (Throwable e) {
+            error(job, e);
+        } finally {
+            formatted();
+            if (!handed) {
+                done(lane, permits);
+            }
+        }
+    }
+
+    /**
+     * Register the format worker for the interruption of a cancel
+     *
+     * @return false if the run is cancelled
+     */
+    private boolean formatting() {
+        synchronized (formatting) {
+            if (cancelled) {
+                return false;
+            }
+            formatting.add(Thread.currentThread());
+            return true;
+        }
+    }
+
+    private void formatted() {
+        synchronized (formatting) {
+            formatting.remove(Thread.currentThread());
+            if (cancelled) {
+                // the interruption of the cancel is not for the next file of the worker
+                Thread.interrupted();
+            }
+        }
+    }
+
+    private void writeStage(Lane lane, int permits, FileJob job) {
+        try {
+            if (!cancelled) {
+                job.write();
+            }
+        } catch (Throwable e) {
+            error(job, e);
+        } finally {
+            lane.writes.release();
+            done(lane, permits);
+        }
+    }
+
+    /**
+     * The error ends the file, a VirtualMachineError other than a stack
+     * overflow of a formatter stops the pipeline.
+     */
+    private void error(FileJob job, Throwable e) {
+        if (cancelled) {
+            // the interrupted stages of a cancelled run do not fail the files
+            return;
+        }
+        job.fail(e);
+        if (e instanceof VirtualMachineError && !(e instanceof StackOverflowError)) {
+            failure.compareAndSet(null, e);
+        }
+    }
+
+    private void done(Lane lane, int permits) {
+        lane.budget.release(permits);
+        lane.pump();
+        synchronized (pending) {
+            if (pending.decrementAndGet() == 0) {
+                pending.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Execute the I/O task holding an open file permit
+     *
+     * @param <T>
+     * @param task
+     * @return
+     * @throws IOException
+     */
+    public <T> T io(IOTask<T> task) throws IOException {
+        openFiles.acquireUninterruptibly();
+        try {
+            return task.call();
+        } finally {
+            openFiles.release();
+        }
+    }
+
+    /**
+     * Wait for all queued files
+     *
+     * @throws FormatterException when the pipeline was stopped by an error
+     */
+    public void await() throws FormatterException {
+        synchronized (pending) {
+            while (pending.get() > 0) {
+                try {
+                    pending.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new FormatterException("Interrupted while formatting", e);
+                }
+            }
+        }
+        Throwable e = failure.get();
+        if (e != null) {
+            throw new FormatterException("Unexpected error formatting: " + e, e);
+        }
+    }
+
+    /**
+     * Cancel the run: the queued files are dropped, the format workers are
+     * interrupted and the formatted files are not written. The files in
+     * flight end without result and {@link #await()} returns as they end
+     */
+    public void cancel() {
+        synchronized (formatting) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            formatting.forEach(Thread::interrupt);
+        }
+        drop(normal.cancel());
+        if (huge != normal) {
+            drop(huge.cancel());
+        }
+        cancelHooks.forEach(Runnable::run);
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Add an action executed by {@link #cancel()}, as stop the worker
+     * processes of the run
+     *
+     * @param hook
+     */
+    public void onCancel(Runnable hook) {
+        cancelHooks.add(hook);
+        if (cancelled) {
+            hook.run();
+        }
+    }
+
+    /**
+     * The dropped files are not pending
+     */
+    private void drop(int files) {
+        synchronized (pending) {
+            if (pending.addAndGet(-files) == 0) {
+                pending.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Resize the normal lane from the queue depths and the stage latencies
+     * measured since the last call.
+     */
+    void adapt() {
+        long readLatency = normal.readLatency.reset();
+        long formatLatency = normal.formatLatency.reset();
+        int formatQueue = normal.format.getQueue().size();
+        int readQueue = normal.getQueued();
+        int formatThreads = normal.format.getMaximumPoolSize();
+        int ioThreads = normal.reads.getLimit();
+
+        // the format pool is CPU bound, over the quota only when the CPU is not used
+        double load = cpuLoad.sample();
+        if (formatQueue > 0 && load >= 0 && load < 0.6 && formatThreads < maxFormatThreads) {
+            normal.resize(formatThreads + 1);
+        } else if (load > 0.95 && formatThreads > baseFormatThreads) {
+            normal.resize(formatThreads - 1);
+        }
+
+        // enough readers to keep the format pool busy, no more
+        if (readQueue > 0 && readLatency > 0 && formatLatency > 0) {
+            int target = (int) Math.ceil(1.2 * normal.format.getMaximumPoolSize() * readLatency / formatLatency);
+            if (formatQueue > 2 * formatThreads) {
+                target = Math.min(target, ioThreads - 1);
+            }
+            target = Math.max(1, Math.min(maxIoThreads, target));
+            if (target > ioThreads) {
+                normal.reads.setLimit(ioThreads + 1);
+            } else if (target < ioThreads) {
+                normal.reads.setLimit(ioThreads - 1);
+            }
+        } else if (readQueue > 0 && formatQueue == 0 && ioThreads < maxIoThreads) {
+            normal.reads.setLimit(ioThreads + 1);
+        }
+        normal.pump();
+    }
+
+    /**
+     * Sizes of the pools for the run summary
+     *
+     * @return
+     */
+    public String getReport() {
+        return "format " + normal.format.getMaximumPoolSize() + " thread(s) (peak " + normal.format.getLargestPoolSize()
+                + "), read " + normal.reads.getLimit() + " (peak " + normal.reads.getPeak() + ")"
+                + (virtualThreads ? " on virtual threads" : "")
+                + (huge != normal ? ", huge lane 1+1 thread(s)" : "");
+    }
+
+    /**
+     * Stop the pipeline, the files in flight are finished
+     */
+    @Override
+    public void close() {
+        if (controller != null) {
+            controller.shutdownNow();
+        }
+        normal.shutdown();
+        if (huge != normal) {
+            huge.shutdown();
+        }
+        ioExecutor.shutdown();
+        try {
+            ioExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Average latency of a stage between two resets
+     */
+    private static class Latency {
+
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong count = new AtomicLong();
+
+        void record(long nanos) {
+            total.addAndGet(nanos);
+            count.incrementAndGet();
+        }
+
+        long reset() {
+            long n = count.getAndSet(0);
+            long t = total.getAndSet(0);
+            return n == 0 ? 0 : t / n;
+        }
+    }
+
+    /**
+     * Semaphore with a limit that could change while running
+     */
+    private static class Limit extends Semaphore {
+
+        private static final long serialVersionUID = 1L;
+
+        private int limit;
+        private int peak;
+
+        Limit(int limit) {
+            super(limit, true);
+            this.limit = limit;
+            this.peak = limit;
+        }
+
+        synchronized int getLimit() {
+            return limit;
+        }
+
+        synchronized int getPeak() {
+            return peak;
+        }
+
+        synchronized void setLimit(int value) {
+            if (value > limit) {
+                release(value - limit);
+            } else if (value < limit) {
+                reducePermits(limit - value);
+            }
+            limit = value;
+            peak = Math.max(peak, value);
+        }
+    }
+
+    private static class Pending {
+
+        private final int permits;
+        private final Runnable read;
+
+        Pending(int permits, Runnable read) {
+            this.permits = permits;
+            this.read = read;
+        }
+    }
+
+    private class Lane {
+
+        private static final int KB = 1024;
+        private static final int QUEUE_PER_THREAD = 4;
+
+        private final ThreadPoolExecutor format;
+        private final Limit reads;
+        private final Semaphore writes;
+        private final Semaphore budget;
+        private final int budgetKb;
+        private final Latency readLatency = new Latency();
+        private final Latency formatLatency = new Latency();
+        private final Queue<Pending> queue = new ArrayDeque<>();
+
+        Lane(String name, int formatThreads, int ioThreads, long budgetBytes) {
+            int size = Math.max(1, formatThreads);
+            this.format = new ThreadPoolExecutor(size, size, 1, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(QUEUE_PER_THREAD * size), daemon(name + "worker-"), (task, executor) -> {
+                        // bounded queue, the reader waits for the format workers
+                        try {
+                            executor.getQueue().put(task);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new RejectedExecutionException(e);
+                        }
+                    });
+            this.reads = new Limit(Math.max(1, ioThreads));
+            this.writes = new Semaphore(QUEUE_PER_THREAD * size);
+            this.budgetKb = (int) Math.max(1, Math.min(Integer.MAX_VALUE, budgetBytes / KB));
+            this.budget = new Semaphore(budgetKb, true);
+        }
+
+        synchronized void offer(int permits, Runnable read) {
+            queue.add(new Pending(permits, read));
+            pump();
+        }
+
+        synchronized int getQueued() {
+            return queue.size();
+        }
+
+        /**
+         * Drop the queued files, their reads are not started
+         *
+         * @return the number of dropped files
+         */
+        synchronized int cancel() {
+            int dropped = queue.size();
+            queue.clear();
+            return dropped;
+        }
+
+        /**
+         * Start the reads of the queued files, in order, while a reader is
+         * free and the budget admits the head of the queue
+         */
+        synchronized void pump() {
+            while (!queue.isEmpty()) {
+                Pending head = queue.peek();
+                if (!reads.tryAcquire()) {
+                    return;
+                }
+                if (!budget.tryAcquire(head.permits)) {
+                    reads.release();
+                    return;
+                }
+                queue.poll();
+                ioExecutor.execute(head.read);
+            }
+        }
+
+        void resize(int size) {
+            if (size > format.getMaximumPoolSize()) {
+                format.setMaximumPoolSize(size);
+                format.setCorePoolSize(size);
+            } else {
+                format.setCorePoolSize(size);
+                format.setMaximumPoolSize(size);
+            }
+        }
+
+        /**
+         * Permits of the estimated bytes, a file bigger than the budget takes
+         * the whole budget and runs alone
+         */
+        int permits(long estimatedBytes) {
+            return (int) Math.max(1, Math.min(budgetKb, estimatedBytes / KB));
+        }
+
+        void shutdown() {
+            format.shutdown();
+            try {
+                format.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.revelc.code.formatter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Ordered set of formatters, the first initialized formatter that supports
+ * the file name is used.
+ *
+ * @author wyujra
+ */
+public class FormatterSet {
+
+    private final List<AbstractCacheableFormatter> formatters;
+
+    public FormatterSet(AbstractCacheableFormatter... formatters) {
+        this.formatters = Arrays.asList(formatters);
+    }
+
+    private FormatterSet(List<AbstractCacheableFormatter> formatters) {
+        this.formatters = formatters;
+    }
+
+    /**
+     * Find the formatter for the file name
+     *
+     * @param name the file name
+     * @return the formatter or null if not formatter support the file
+     */
+    public AbstractCacheableFormatter find(String name) {
+        for (AbstractCacheableFormatter formatter : formatters) {
+            if (formatter.isSupport(name) && formatter.isInitialized()) {
+                return formatter;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Find the formatter for a language name, an extension or a file name
+     *
+     * @param languageOrFileName as java, js, Javascript, .css or Foo.xml
+     * @return the formatter or null if not formatter support it
+     */
+    public AbstractCacheableFormatter findLanguage(String languageOrFileName) {
+        AbstractCacheableFormatter found = find(languageOrFileName);
+        if (found == null) {
+            found = find("." + languageOrFileName);
+        }
+        if (found == null) {
+            for (AbstractCacheableFormatter formatter : formatters) {
+                if (formatter.getLanguage().equalsIgnoreCase(languageOrFileName) && formatter.isInitialized()) {
+                    return formatter;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Copy all formatters for the use in other thread
+     *
+     * @return
+     */
+    public FormatterSet copy() {
+        List<AbstractCacheableFormatter> copies = new ArrayList<>(formatters.size());
+        for (AbstractCacheableFormatter formatter : formatters) {
+            copies.add(formatter.copy());
+        }
+        return new FormatterSet(copies);
+    }
+
+    public List<AbstractCacheableFormatter> getFormatters() {
+        return formatters;
+    }
+
+}
@@ -0,0 +1,131 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.revelc.code.formatter;
+
+import com.google.common.hash.Hashing;
+import dev.yracnet.formatter.FormatterException;
+import dev.yracnet.formatter.FormatterHelp;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import lombok.Getter;
+
+/**
+ * A shard <code>i/n</code> of the files of a build, for split the build
+ * between independent jobs. Every job computes the same partition: by a
+ * stable hash of the basedir relative path, or balanced by the cost of the
+ * files, greedy on the most expensive first. The balanced partition depends
+ * on the sizes and the cost history, so all the shards must start with the
+ * same sources and the same cache (one checkout by job).
+ *
+ * @author wyujra
+ */
+@Getter
+public class FormatterShard {
+
+    private final int index;
+    private final int count;
+    private final boolean balanced;
+
+    public FormatterShard(int index, int count, boolean balanced) {
+        this.index = index;
+        this.count = count;
+        this.balanced = balanced;
+    }
+
+    /**
+     * Parse the shard as <code>i/n</code>, with i from 1 to n
+     *
+     * @param shard
+     * @param balanced
+     * @return the shard
+     * @throws FormatterException if the shard is invalid
+     */
+    public static FormatterShard parse(String shard, boolean balanced) throws FormatterException {
+        String[] parts = shard.trim().split("/");
+        try {
+            int index = Integer.parseInt(parts[0].trim());
+            int count = Integer.parseInt(parts[1].trim());
+            if (parts.length == 2 && count > 0 && index > 0 && index <= count) {
+                return new FormatterShard(index, count, balanced);
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            // invalid
+        }
+        throw new FormatterException("Invalid shard '" + shard + "', expected i/n with i from 1 to n");
+    }
+
+    /**
+     * Select the tasks of this shard
+     *
+     * @param tasks all the tasks of the build
+     * @return the tasks of this shard
+     */
+    public List<FormatterTask> select(List<FormatterTask> tasks) {
+        List<FormatterTask> selected = new ArrayList<>();
+        if (!balanced) {
+            for (FormatterTask task : tasks) {
+                if (Math.floorMod(hash(task.getPath()), count) == index - 1) {
+                    selected.add(task);
+                }
+            }
+            return selected;
+        }
+        List<FormatterTask> sorted = new ArrayList<>(tasks);
+        sorted.sort(Comparator.comparingLong(FormatterTask::getCost).reversed()
+                .thenComparing(task -> normalize(task.getPath())));
+        long[] loads = new long[count];
+        for (FormatterTask task : sorted) {
+            int lightest = 0;
+            for (int i = 1; i < count; i++) {
+                if (loads[i] < loads[lightest]) {
+                    lightest = i;
+                }
+            }
+            loads[lightest] += Math.max(1, task.getCost());
+            if (lightest == index - 1) {
+                selected.add(task);
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * File name of the cache fragment of this shard
+     *
+     * @return
+     */
+    public String getCacheFragmentName() {
+        return FormatterHelp.getCacheFragmentName(index, count);
+    }
+
+    private static int hash(String path) {
+        return Hashing.murmur3_32().hashString(normalize(path), StandardCharsets.UTF_8).asInt();
+    }
+
+    /**
+     * The same path on every platform
+     */
+    private static String normalize(String path) {
+        String normalized = path.replace('\\', '/');
+        return normalized.startsWith("/") ? normalized.substring(1) : normalized;
+    }
+
+    @Override
+    public String toString() {
+        return index + "/" + count + (balanced ? " balanced" : "");
+    }
+
+}
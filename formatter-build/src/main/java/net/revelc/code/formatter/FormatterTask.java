@@ -0,0 +1,101 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.revelc.code.formatter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.TimeUnit;
+import lombok.AccessLevel;
+import lombok.Getter;
+import net.revelc.code.formatter.cache.CacheEntry;
+
+/**
+ * A file to format with its estimated memory and cost. The cost is the
+ * duration recorded in the cache by a previous run or, without history, the
+ * file size times the cost factor of its formatter. The file key identifies
+ * the paths of the same file, it is null when the file system has not keys.
+ * The file and its cache key are nodes of the {@link PathStore} of the run.
+ *
+ * @author wyujra
+ */
+@Getter
+public class FormatterTask {
+
+    @Getter(AccessLevel.NONE)
+    private final PathStore paths;
+    private final int id;
+    private final long size;
+    private final Object fileKey;
+    private final long estimatedBytes;
+    private final long cost;
+    /**
+     * The fingerprint of the formatter of the file, null when no formatter
+     * supports it or its formatter is skipped.
+     */
+    private final String formatterKey;
+
+    /**
+     * Create the task
+     *
+     * @param paths the paths of the run
+     * @param id the id of the file in the paths
+     * @param formatter the formatter that supports the file or null
+     * @param cached the cache entry of the file or null
+     */
+    public FormatterTask(PathStore paths, int id, AbstractCacheableFormatter formatter, CacheEntry cached) {
+        this.paths = paths;
+        this.id = id;
+        File file = paths.getFile(id);
+        BasicFileAttributes attributes = readAttributes(file);
+        this.size = attributes == null ? file.length() : attributes.size();
+        this.fileKey = attributes == null ? null : attributes.fileKey();
+        this.formatterKey = formatter == null || formatter.isSkip() ? null
+                : formatter.getFingerprint() == null ? formatter.getClass().getName() : formatter.getFingerprint();
+        if (formatter == null) {
+            this.estimatedBytes = size;
+            this.cost = size;
+        } else {
+            this.estimatedBytes = (long) (size * formatter.getExpansionFactor());
+            if (cached != null && cached.getDuration() > 0) {
+                this.cost = TimeUnit.MILLISECONDS.toNanos(cached.getDuration());
+            } else {
+                this.cost = (long) (size * formatter.getCostFactor());
+            }
+        }
+    }
+
+    public File getFile() {
+        return paths.getFile(id);
+    }
+
+    /**
+     * The key of the file in the cache
+     *
+     * @return
+     */
+    public String getPath() {
+        return paths.getKey(id);
+    }
+
+    private static BasicFileAttributes readAttributes(File file) {
+        try {
+            return Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+}
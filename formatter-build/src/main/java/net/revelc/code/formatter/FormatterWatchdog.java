@@ -0,0 +1,201 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.revelc.code.formatter;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.eclipse.jface.text.BadLocationException;
+
+/**
+ * Run the format of a code with a time budget. The JDT and JSDT formatters
+ * ignore the interruption, so a task that exceeds the budget is abandoned in
+ * its daemon thread and the caller continues with the next file. The
+ * abandoned tasks still running are counted and capped: over the cap a new
+ * format waits its budget for one of them to end, and does not start if none
+ * ends.
+ *
+ * @author wyujra
+ */
+public class FormatterWatchdog {
+
+    /**
+     * The budget of a format ended before the format started, waiting for the
+     * gate of its formatter or for room between the abandoned formats. The
+     * code was not formatted, so it is not known to be slow.
+     */
+    public static class BusyException extends TimeoutException {
+
+        private static final long serialVersionUID = 1L;
+
+        public BusyException(String message) {
+            super(message);
+        }
+    }
+
+    private static final int MAX_ABANDONED = 16;
+
+    private static final FormatterWatchdog INSTANCE = new FormatterWatchdog(MAX_ABANDONED);
+
+    private static final int PENDING = 0;
+    private static final int RUNNING = 1;
+    private static final int ENDED = 2;
+    private static final int ABANDONED = 3;
+
+    private final AtomicInteger count = new AtomicInteger();
+    private final int maxAbandoned;
+    private int abandoned;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "formatter-watchdog-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Create a watchdog
+     *
+     * @param maxAbandoned the abandoned formats still running from which a
+     * new format waits
+     */
+    FormatterWatchdog(int maxAbandoned) {
+        this.maxAbandoned = maxAbandoned;
+    }
+
+    public static FormatterWatchdog getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Number of formats abandoned by the budget that are still running
+     *
+     * @return
+     */
+    public synchronized int getAbandoned() {
+        return abandoned;
+    }
+
+    /**
+     * Call the task and wait at most the timeout
+     *
+     * @param task the format task
+     * @param timeout the budget in milliseconds, 0 or less for no limit
+     * @return the task result
+     * @throws IOException
+     * @throws BadLocationException
+     * @throws TimeoutException when the budget is exceeded, a
+     * {@link BusyException} if the task did not start
+     */
+    public String call(Callable<String> task, long timeout) throws IOException, BadLocationException, TimeoutException {
+        if (timeout <= 0) {
+            return unwrap(task);
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        try {
+            awaitRoom(deadline);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while formatting", e);
+        }
+        AtomicInteger state = new AtomicInteger(PENDING);
+        Future<String> future = executor.submit(() -> {
+            if (!state.compareAndSet(PENDING, RUNNING)) {
+                return null;
+            }
+            try {
+                return task.call();
+            } finally {
+                if (!state.compareAndSet(RUNNING, ENDED)) {
+                    ended();
+                }
+            }
+        });
+        try {
+            return future.get(Math.max(1, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            abandon(future, state);
+            throw e;
+        } catch (InterruptedException e) {
+            abandon(future, state);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while formatting", e);
+        } catch (ExecutionException e) {
+            throw rethrow(e.getCause());
+        }
+    }
+
+    /**
+     * Wait until the abandoned formats are under the cap
+     */
+    private synchronized void awaitRoom(long deadline) throws InterruptedException, BusyException {
+        while (abandoned >= maxAbandoned) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new BusyException(abandoned + " abandoned formats still running");
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+    }
+
+    private void abandon(Future<String> future, AtomicInteger state) {
+        future.cancel(true);
+        if (state.compareAndSet(PENDING, ENDED)) {
+            return;
+        }
+        synchronized (this) {
+            // the task that ends after the change waits the count on this lock
+            if (state.compareAndSet(RUNNING, ABANDONED)) {
+                abandoned++;
+            }
+        }
+    }
+
+    private synchronized void ended() {
+        abandoned--;
+        notifyAll();
+    }
+
+    private static String unwrap(Callable<String> task) throws IOException, BadLocationException {
+        try {
+            return task.call();
+        } catch (IOException | BadLocationException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static IOException rethrow(Throwable cause) throws BadLocationException {
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        if (cause instanceof BadLocationException) {
+            throw (BadLocationException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new IOException(cause);
+    }
+
+}
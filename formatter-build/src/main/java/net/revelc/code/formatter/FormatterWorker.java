@@ -0,0 +1,192 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.revelc.code.formatter;
+
+import dev.yracnet.formatter.FormatterBuild;
+import dev.yracnet.formatter.FormatterException;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
+import net.revelc.code.formatter.cache.CacheEntry;
+import net.revelc.code.formatter.cache.HashCacheTable;
+import net.revelc.code.formatter.cache.LazyHashCache;
+
+/**
+ * Child JVM of the {@link FormatterCoordinator}. Reads slices of files from
+ * the standard input, formats them with the pipeline of
+ * {@link FormatterBuildImpl} and streams the progress to the standard output:
+ *
+ * <pre>
+ * in:  FILE &lt;index&gt; &lt;file&gt; &lt;cache path&gt; &lt;cached value&gt;
+ * in:  RUN
+ * out: BEGIN &lt;index&gt;         (format started)
+ * out: END &lt;index&gt; &lt;success,fail,skipped,readOnly,timeout,unstable&gt; &lt;cache value&gt;
+ * out: DONE
+ * </pre>
+ *
+ * The fields are separated by tabs. The formatters print to the standard
+ * output, so it is redirected to the standard error.
+ *
+ * @author wyujra
+ */
+public class FormatterWorker {
+
+    static final String FILE = "FILE";
+    static final String RUN = "RUN";
+    static final String BEGIN = "BEGIN";
+    static final String END = "END";
+    static final String DONE = "DONE";
+
+    private final FormatterBuildImpl build;
+    private final PrintStream out;
+
+    FormatterWorker(FormatterBuildImpl build, PrintStream out) {
+        this.build = build;
+        this.out = out;
+    }
+
+    public static void main(String[] args) throws IOException {
+        PrintStream out = new PrintStream(new FileOutputStream(FileDescriptor.out), true, "UTF-8");
+        System.setOut(System.err);
+        Properties settings = new Properties();
+        try ( InputStream in = new FileInputStream(args[0])) {
+            settings.load(in);
+        }
+        FormatterBuildImpl build = (FormatterBuildImpl) FormatterBuild.create();
+        build.setWorkerSettings(settings);
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        System.exit(new FormatterWorker(build, out).run(in));
+    }
+
+    /**
+     * Format the slices until the end of the input
+     *
+     * @param in the commands
+     * @return the exit status
+     * @throws IOException
+     */
+    int run(BufferedReader in) throws IOException {
+        int formatThreads = WorkerSizing.formatThreads(build.getThreads());
+        int readThreads = WorkerSizing.ioThreads(build.getIoThreads(), build.getMaxOpenFiles());
+        try ( FormatterScheduler scheduler = new FormatterScheduler(formatThreads, readThreads, build.isAdaptiveThreads(),
+                build.getMaxInFlightBytes(), build.getMaxOpenFiles(), build.getHugeFileThreshold())) {
+            FormatterRegistry.Entry formatters = new FormatterRegistry().get(build);
+            HashCacheTable hashCache = new HashCacheTable();
+            PathStore paths = new PathStore(build.getBasedir());
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.equals(RUN)) {
+                    scheduler.await();
+                    hashCache = new HashCacheTable();
+                    paths = new PathStore(build.getBasedir());
+                    out.println(DONE);
+                    continue;
+                }
+                String[] fields = line.split("\t", -1);
+                int index = Integer.parseInt(fields[1]);
+                File file = new File(fields[2]);
+                String path = fields[3];
+                String cached = fields[4].isEmpty() ? null : fields[4];
+                if (cached != null) {
+                    hashCache.put(path, cached);
+                }
+                FormatterTask task = new FormatterTask(paths, paths.add(file, path), formatters.getPrototypes().find(file.getName()), CacheEntry.parse(cached));
+                FormatterRun run = new FormatterRun(build, new ResultCollector(), LazyHashCache.of(hashCache), formatters.getFormatters(), null);
+                run.setPrototypes(formatters.getPrototypes());
+                scheduler.submit(task.getSize(), task.getEstimatedBytes(),
+                        new TracedJob(index, path, run, build.new FileJob(task, run, scheduler)));
+            }
+            return 0;
+        } catch (FormatterException e) {
+            build.getLog().warn(e);
+            return 1;
+        }
+    }
+
+    /**
+     * Report the begin and the end of the file around the stages of the
+     * build.
+     */
+    private class TracedJob implements FormatterScheduler.FileJob {
+
+        private final int index;
+        private final String path;
+        private final FormatterRun run;
+        private final FormatterScheduler.FileJob job;
+        private final AtomicBoolean ended = new AtomicBoolean();
+
+        TracedJob(int index, String path, FormatterRun run, FormatterScheduler.FileJob job) {
+            this.index = index;
+            this.path = path;
+            this.run = run;
+            this.job = job;
+        }
+
+        @Override
+        public boolean read() {
+            boolean format = job.read();
+            if (!format) {
+                end();
+            }
+            return format;
+        }
+
+        @Override
+        public boolean format() {
+            // only the format stage is traced, a crash while the next files are read blames the formatted ones
+            out.println(BEGIN + "\t" + index);
+            boolean write = job.format();
+            if (!write) {
+                end();
+            }
+            return write;
+        }
+
+        @Override
+        public void write() {
+            job.write();
+            end();
+        }
+
+        @Override
+        public void fail(Throwable e) {
+            if (e instanceof VirtualMachineError && !(e instanceof StackOverflowError)) {
+                // die with the file in flight, the coordinator quarantines it
+                Runtime.getRuntime().halt(3);
+            }
+            job.fail(e);
+            end();
+        }
+
+        private void end() {
+            if (ended.compareAndSet(false, true)) {
+                ResultCollector rc = run.getResult();
+                String value = run.getHashCache().get(path);
+                out.println(END + "\t" + index + "\t" + rc.getSuccessCount() + "," + rc.getFailCount() + ","
+                        + rc.getSkippedCount() + "," + rc.getReadOnlyCount() + "," + rc.getTimeoutCount() + "," + rc.getUnstableCount()
+                        + "\t" + (value == null ? "" : value));
+            }
+        }
+    }
+
+}
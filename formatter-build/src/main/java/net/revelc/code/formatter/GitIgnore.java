@@ -0,0 +1,306 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.revelc.code.formatter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import lombok.Getter;
+
+/**
+ * The ignore rules of git for a directory: the .git/info/exclude file of the
+ * repository and the .gitignore files from the root of the repository to the
+ * directory, compiled in regular expressions. The last rule that matches a
+ * path decides if it is ignored, as in git.
+ *
+ * A directory has the rules of its parent and the rules of its own
+ * .gitignore file; the paths are relative to the root of the repository, the
+ * rules of a .gitignore file are relative to its directory. A nested
+ * repository or a submodule, a directory with its own .git, starts again
+ * with its own rules, it does not inherit the rules of the parent.
+ *
+ * @author wyujra
+ */
+public class GitIgnore {
+
+    private static final String GITIGNORE = ".gitignore";
+    private static final String GIT = ".git";
+    private static final String GITDIR = "gitdir:";
+    private static final String SPECIAL = "\\.[]{}()<>*+-=!?^$|";
+
+    private final List<Rule> rules;
+    private final String prefix;
+    /**
+     * The last modification time of the ignore files of the directory and
+     * its parents.
+     */
+    @Getter
+    private final long modified;
+
+    private GitIgnore(List<Rule> rules, String prefix, long modified) {
+        this.rules = rules;
+        this.prefix = prefix;
+        this.modified = modified;
+    }
+
+    /**
+     * The rules of the parents of a scanned directory, the rules of the
+     * directory are added by {@link #child(File, String)}
+     *
+     * @param directory the scanned directory
+     * @return
+     */
+    public static GitIgnore of(File directory) {
+        File dir;
+        try {
+            dir = directory.getCanonicalFile();
+        } catch (IOException e) {
+            dir = directory.getAbsoluteFile();
+        }
+        File repository = dir;
+        while (repository != null && !new File(repository, GIT).exists()) {
+            repository = repository.getParentFile();
+        }
+        List<Rule> rules = new ArrayList<>();
+        if (repository == null) {
+            return new GitIgnore(rules, "", 0);
+        }
+        String prefix = dir.equals(repository) ? ""
+                : dir.getPath().substring(repository.getPath().length() + 1).replace(File.separatorChar, '/') + "/";
+        long modified = load(rules, exclude(repository), "");
+        File ancestor = repository;
+        String base = "";
+        for (String segment : prefix.split("/")) {
+            if (segment.isEmpty()) {
+                break;
+            }
+            modified = Math.max(modified, load(rules, new File(ancestor, GITIGNORE), base));
+            ancestor = new File(ancestor, segment);
+            base += segment + "/";
+        }
+        return new GitIgnore(rules, prefix, modified);
+    }
+
+    /**
+     * The rules of a subdirectory, with its .gitignore file
+     *
+     * @param directory the subdirectory
+     * @param vpath the path of the subdirectory relative to the scanned
+     * directory
+     * @return
+     */
+    public GitIgnore child(File directory, String vpath) {
+        if (!vpath.isEmpty() && new File(directory, GIT).exists()) {
+            String base = prefix + normalize(vpath);
+            List<Rule> nestedRules = new ArrayList<>();
+            long loaded = load(nestedRules, exclude(directory), base);
+            loaded = Math.max(loaded, load(nestedRules, new File(directory, GITIGNORE), base));
+            return new GitIgnore(nestedRules, prefix, loaded);
+        }
+        File file = new File(directory, GITIGNORE);
+        if (file.lastModified() == 0) {
+            return this;
+        }
+        List<Rule> childRules = new ArrayList<>(rules);
+        long loaded = load(childRules, file, prefix + normalize(vpath));
+        return new GitIgnore(childRules, prefix, Math.max(modified, loaded));
+    }
+
+    /**
+     * Return true if the path is ignored
+     *
+     * @param vpath the path relative to the scanned directory
+     * @param directory true for a directory
+     * @return
+     */
+    public boolean isIgnored(String vpath, boolean directory) {
+        String path = prefix + normalize(vpath);
+        if (path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        for (int i = rules.size() - 1; i >= 0; i--) {
+            Rule rule = rules.get(i);
+            if (rule.matches(path, name, directory)) {
+                return !rule.negated;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The info/exclude file of the repository; the .git of a submodule is a
+     * file with the path of its git directory
+     */
+    private static File exclude(File repository) {
+        File git = new File(repository, GIT);
+        if (git.isFile()) {
+            try {
+                for (String line : Files.readAllLines(git.toPath(), StandardCharsets.UTF_8)) {
+                    if (line.startsWith(GITDIR)) {
+                        File path = new File(line.substring(GITDIR.length()).trim());
+                        git = path.isAbsolute() ? path : new File(repository, path.getPath());
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                // without the git directory there is no exclude file
+            }
+        }
+        return new File(new File(git, "info"), "exclude");
+    }
+
+    private static String normalize(String vpath) {
+        return File.separatorChar == '/' ? vpath : vpath.replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Add the rules of the file
+     *
+     * @return the modification time of the file, 0 if it does not exist
+     */
+    private static long load(List<Rule> rules, File file, String base) {
+        long modified = file.lastModified();
+        if (modified == 0) {
+            return 0;
+        }
+        try {
+            for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                Rule rule = Rule.parse(line, base);
+                if (rule != null) {
+                    rules.add(rule);
+                }
+            }
+        } catch (IOException e) {
+            // an unreadable ignore file ignores nothing
+        }
+        return modified;
+    }
+
+    /**
+     * A line of an ignore file.
+     */
+    private static class Rule {
+
+        private final String base;
+        private final Pattern pattern;
+        private final boolean negated;
+        private final boolean directoryOnly;
+        private final boolean anchored;
+
+        Rule(String base, Pattern pattern, boolean negated, boolean directoryOnly, boolean anchored) {
+            this.base = base;
+            this.pattern = pattern;
+            this.negated = negated;
+            this.directoryOnly = directoryOnly;
+            this.anchored = anchored;
+        }
+
+        static Rule parse(String line, String base) {
+            int end = line.length();
+            while (end > 0 && line.charAt(end - 1) == ' ' && !(end > 1 && line.charAt(end - 2) == '\\')) {
+                end--;
+            }
+            line = line.substring(0, end);
+            if (line.isEmpty() || line.startsWith("#")) {
+                return null;
+            }
+            boolean negated = false;
+            if (line.startsWith("!")) {
+                negated = true;
+                line = line.substring(1);
+            } else if (line.startsWith("\\!") || line.startsWith("\\#")) {
+                line = line.substring(1);
+            }
+            boolean directoryOnly = line.endsWith("/");
+            if (directoryOnly) {
+                line = line.substring(0, line.length() - 1);
+            }
+            // a slash at the start or in the middle is relative to the directory of the file
+            boolean anchored = line.indexOf('/') >= 0;
+            if (line.startsWith("/")) {
+                line = line.substring(1);
+            }
+            if (line.isEmpty()) {
+                return null;
+            }
+            return new Rule(base, Pattern.compile(toRegex(line)), negated, directoryOnly, anchored);
+        }
+
+        boolean matches(String path, String name, boolean directory) {
+            if ((directoryOnly && !directory) || !path.startsWith(base)) {
+                return false;
+            }
+            return pattern.matcher(anchored ? path.substring(base.length()) : name).matches();
+        }
+
+        private static String toRegex(String glob) {
+            StringBuilder regex = new StringBuilder();
+            int i = 0;
+            while (i < glob.length()) {
+                char c = glob.charAt(i);
+                if (c == '*' && i + 1 < glob.length() && glob.charAt(i + 1) == '*'
+                        && (i == 0 || glob.charAt(i - 1) == '/') && (i + 2 == glob.length() || glob.charAt(i + 2) == '/')) {
+                    if (i + 2 == glob.length()) {
+                        // a trailing ** is everything inside
+                        regex.append(".*");
+                        i += 2;
+                    } else {
+                        // **/ is zero or more directories
+                        regex.append("(?:.*/)?");
+                        i += 3;
+                    }
+                } else if (c == '*') {
+                    regex.append("[^/]*");
+                    i++;
+                    while (i < glob.length() && glob.charAt(i) == '*') {
+                        i++;
+                    }
+                } else if (c == '?') {
+                    regex.append("[^/]");
+                    i++;
+                } else if (c == '[' && glob.indexOf(']', i + 2) > 0) {
+                    int close = glob.indexOf(']', i + 2);
+                    String range = glob.substring(i + 1, close);
+                    regex.append('[');
+                    if (range.startsWith("!") || range.startsWith("^")) {
+                        regex.append('^');
+                        range = range.substring(1);
+                    }
+                    regex.append(range.replace("\\", "\\\\").replace("[", "\\[").replace("&", "\\&")).append(']');
+                    i = close + 1;
+                } else if (c == '\\' && i + 1 < glob.length()) {
+                    literal(regex, glob.charAt(i + 1));
+                    i += 2;
+                } else {
+                    literal(regex, c);
+                    i++;
+                }
+            }
+            return regex.toString();
+        }
+
+        private static void literal(StringBuilder regex, char c) {
+            if (SPECIAL.indexOf(c) >= 0) {
+                regex.append('\\');
+            }
+            regex.append(c);
+        }
+    }
+
+}
@@ -0,0 +1,223 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.revelc.code.formatter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The paths of the files of a run in a directory trie. A node is an int id
+ * with its parent and its name, the name of a directory is kept once for all
+ * its files; the {@link File} and the cache key of a file are built from the
+ * nodes when they are used.
+ *
+ * The basedir is the first root, canonicalized once: the scanned directories
+ * are canonicalized once and relativized against it, the files found by the
+ * scanner are added by their path relative to the directory, so the cache
+ * key is the path relative to the basedir as before, without a
+ * canonicalization by file. A directory outside the basedir is other root
+ * whose key is its canonical path.
+ *
+ * @author wyujra
+ */
+public class PathStore {
+
+    private static final int NONE = -1;
+
+    private final String basedirPath;
+    private final Map<Integer, Map<String, Integer>> children = new HashMap<>();
+    private final Map<Integer, File> rootFiles = new HashMap<>();
+    private final Map<Integer, String> rootKeys = new HashMap<>();
+    private final Map<String, Integer> roots = new HashMap<>();
+    private int[] parents = new int[1024];
+    private String[] names = new String[1024];
+    private int size;
+
+    /**
+     * Create the store with the basedir as first root
+     *
+     * @param basedir
+     */
+    public PathStore(File basedir) {
+        basedirPath = canonicalPath(basedir);
+        root(new File(basedirPath), "");
+    }
+
+    /**
+     * Add a scanned directory, one canonicalization by directory
+     *
+     * @param directory the scanned directory
+     * @return the id of the directory
+     */
+    public synchronized int addDirectory(File directory) {
+        String path = canonicalPath(directory);
+        if (path.equals(basedirPath)) {
+            return 0;
+        }
+        if (!path.startsWith(basedirPath + File.separator)) {
+            return root(new File(path), path);
+        }
+        return child(0, path.substring(basedirPath.length() + 1), true);
+    }
+
+    /**
+     * Add the files found by the scanner in a directory
+     *
+     * @param parent the id of the scanned directory
+     * @param relativeNames the paths of the files relative to the directory
+     * @return the ids of the files
+     */
+    public synchronized int[] addFiles(int parent, String[] relativeNames) {
+        int[] ids = new int[relativeNames.length];
+        for (int i = 0; i < relativeNames.length; i++) {
+            ids[i] = file(parent, relativeNames[i]);
+        }
+        return ids;
+    }
+
+    /**
+     * Add a file with its cache key, as the tasks sent to a worker process
+     *
+     * @param file the file
+     * @param key the cache key
+     * @return the id of the file
+     */
+    public synchronized int add(File file, String key) {
+        return root(file, key);
+    }
+
+    /**
+     * The file of the id
+     *
+     * @param id
+     * @return
+     */
+    public synchronized File getFile(int id) {
+        int[] path = path(id);
+        File file = rootFiles.get(path[0]);
+        if (path.length == 1) {
+            return file;
+        }
+        StringBuilder relative = new StringBuilder();
+        for (int i = 1; i < path.length; i++) {
+            if (i > 1) {
+                relative.append(File.separatorChar);
+            }
+            relative.append(names[path[i]]);
+        }
+        return new File(file, relative.toString());
+    }
+
+    /**
+     * The cache key of the id: the path relative to the basedir, starting
+     * with the file separator
+     *
+     * @param id
+     * @return
+     */
+    public synchronized String getKey(int id) {
+        int[] path = path(id);
+        StringBuilder key = new StringBuilder(rootKeys.get(path[0]));
+        for (int i = 1; i < path.length; i++) {
+            key.append(File.separatorChar).append(names[path[i]]);
+        }
+        return key.toString();
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * The node of a file, the directories of the relative path are shared
+     */
+    private int file(int parent, String relative) {
+        return child(parent, relative, false);
+    }
+
+    private int child(int parent, String relative, boolean directory) {
+        int start = 0;
+        int end;
+        while ((end = relative.indexOf(File.separatorChar, start)) >= 0) {
+            if (end > start) {
+                parent = directoryNode(parent, relative.substring(start, end));
+            }
+            start = end + 1;
+        }
+        String name = relative.substring(start);
+        if (name.isEmpty()) {
+            return parent;
+        }
+        // the scanner lists a file once, only the directories are looked up
+        return directory ? directoryNode(parent, name) : node(parent, name);
+    }
+
+    private int directoryNode(int parent, String name) {
+        Map<String, Integer> nodes = children.computeIfAbsent(parent, key -> new HashMap<>());
+        Integer id = nodes.get(name);
+        if (id == null) {
+            id = node(parent, name);
+            nodes.put(name, id);
+        }
+        return id;
+    }
+
+    private int root(File file, String key) {
+        Integer id = roots.get(file.getPath() + File.pathSeparator + key);
+        if (id == null) {
+            id = node(NONE, file.getName());
+            roots.put(file.getPath() + File.pathSeparator + key, id);
+            rootFiles.put(id, file);
+            rootKeys.put(id, key);
+        }
+        return id;
+    }
+
+    private int node(int parent, String name) {
+        if (size == parents.length) {
+            parents = Arrays.copyOf(parents, size * 2);
+            names = Arrays.copyOf(names, size * 2);
+        }
+        parents[size] = parent;
+        names[size] = name;
+        return size++;
+    }
+
+    /**
+     * The ids from the root to the node
+     */
+    private int[] path(int id) {
+        int depth = 1;
+        for (int node = id; parents[node] != NONE; node = parents[node]) {
+            depth++;
+        }
+        int[] path = new int[depth];
+        for (int node = id; depth > 0; node = parents[node]) {
+            path[--depth] = node;
+        }
+        return path;
+    }
+
+    private static String canonicalPath(File file) {
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException e) {
+            return file.getAbsolutePath();
+        }
+    }
+
+}
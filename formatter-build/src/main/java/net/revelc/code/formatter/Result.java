@@ -17,5 +17,5 @@ package net.revelc.code.formatter;
  * @author marvin.froeder
  */
 public enum Result {
-    SKIPPED, SUCCESS, FAIL
+    SKIPPED, SUCCESS, FAIL, TIMEOUT, READ_ONLY, QUARANTINED, UNSTABLE
 }
@@ -20,30 +20,94 @@ public class ResultCollector {
     private int failCount;
     private int skippedCount;
     private int readOnlyCount;
+    private int timeoutCount;
+    private int quarantinedCount;
+    private int unstableCount;
 
-    public void reset() {
+    public synchronized void reset() {
         successCount = 0;
         failCount = 0;
         skippedCount = 0;
         readOnlyCount = 0;
+        timeoutCount = 0;
+        quarantinedCount = 0;
+        unstableCount = 0;
     }
 
-    public void successCount() {
+    public synchronized void successCount() {
         successCount++;
     }
 
-    public void failCount() {
+    public synchronized void failCount() {
         failCount++;
     }
 
-    public void skippedCount() {
+    public synchronized void skippedCount() {
         skippedCount++;
     }
 
-    public void readOnlyCount() {
+    public synchronized void readOnlyCount() {
         readOnlyCount++;
     }
 
+    public synchronized void timeoutCount() {
+        timeoutCount++;
+    }
+
+    public synchronized void quarantinedCount() {
+        quarantinedCount++;
+    }
+
+    public synchronized void unstableCount() {
+        unstableCount++;
+    }
+
+    /**
+     * Count the result of a file
+     *
+     * @param result
+     */
+    public synchronized void count(Result result) {
+        switch (result) {
+            case SUCCESS:
+                successCount++;
+                break;
+            case FAIL:
+                failCount++;
+                break;
+            case READ_ONLY:
+                readOnlyCount++;
+                break;
+            case TIMEOUT:
+                timeoutCount++;
+                break;
+            case QUARANTINED:
+                quarantinedCount++;
+                break;
+            case UNSTABLE:
+                unstableCount++;
+                break;
+            default:
+                skippedCount++;
+                break;
+        }
+    }
+
+    /**
+     * Add the counts of other collector
+     *
+     * @param other
+     */
+    public synchronized void add(ResultCollector other) {
+        successCount += other.getSuccessCount();
+        failCount += other.getFailCount();
+        skippedCount += other.getSkippedCount();
+        readOnlyCount += other.getReadOnlyCount();
+        timeoutCount += other.getTimeoutCount();
+        quarantinedCount += other.getQuarantinedCount();
+        unstableCount += other.getUnstableCount();
+    }
+
     private long startClock, endClock;
 
     public void stop() {
@@ -54,6 +118,10 @@ public class ResultCollector {
         return ((endClock - startClock) / 1000);
     }
 
+    public long getTimeMillis() {
+        return endClock - startClock;
+    }
+
     public void start() {
         startClock = System.currentTimeMillis();
         endClock = startClock;
@@ -0,0 +1,111 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.revelc.code.formatter;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+
+/**
+ * Initial size of the worker pools. The format pool is CPU bound and starts
+ * with the CPU quota of the container, the read pool is I/O bound and starts
+ * with twice as many threads.
+ *
+ * @author wyujra
+ */
+public class WorkerSizing {
+
+    private WorkerSizing() {
+    }
+
+    /**
+     * Number of CPUs available for this process. The JVM resolves the cgroup
+     * of the process, so {@link Runtime#availableProcessors()} is already
+     * limited by the CPU quota and the cpuset of the container
+     *
+     * @return
+     */
+    public static int cpus() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Initial number of format threads
+     *
+     * @param configured the configured threads, 0 or less for auto
+     * @return
+     */
+    public static int formatThreads(int configured) {
+        return configured > 0 ? configured : cpus();
+    }
+
+    /**
+     * Initial number of read threads
+     *
+     * @param configured the configured threads, 0 or less for auto
+     * @param maxOpenFiles the maximum number of files open at the same time
+     * @return
+     */
+    public static int ioThreads(int configured, int maxOpenFiles) {
+        if (configured > 0) {
+            return configured;
+        }
+        return Math.max(2, Math.min(maxOpenFiles, 2 * cpus()));
+    }
+
+    /**
+     * CPU time used by this process, or a negative value if the platform does
+     * not report it
+     *
+     * @return the time in nanoseconds
+     */
+    public static long processCpuTime() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+        return -1;
+    }
+
+    /**
+     * CPU load of this process since the previous sample, relative to
+     * {@link #cpus()}. The load of the management bean is relative to all the
+     * CPUs of the host, so a process limited by a cgroup quota never looks
+     * busy
+     */
+    public static class CpuLoad {
+
+        private final int cpus = cpus();
+        private long cpuTime = processCpuTime();
+        private long time = System.nanoTime();
+
+        /**
+         * The load between 0 and 1, or a negative value if the platform does
+         * not report the CPU time
+         *
+         * @return
+         */
+        public synchronized double sample() {
+            long nowCpu = processCpuTime();
+            long now = System.nanoTime();
+            double load = -1;
+            if (nowCpu >= 0 && cpuTime >= 0 && now > time) {
+                load = Math.min(1, (double) (nowCpu - cpuTime) / ((now - time) * cpus));
+            }
+            cpuTime = nowCpu;
+            time = now;
+            return load;
+        }
+    }
+
+}
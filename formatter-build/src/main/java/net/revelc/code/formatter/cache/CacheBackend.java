@@ -0,0 +1,33 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.revelc.code.formatter.cache;
+
+/**
+ * Where the hash cache entries of the files are stored.
+ *
+ * @author wyujra
+ */
+public enum CacheBackend {
+
+    /**
+     * The formatter-cache.properties file of the target directory.
+     */
+    PROPERTIES,
+    /**
+     * The user.formatter.* extended attributes of each file, the files of a
+     * file system without them fall back to the properties file.
+     */
+    XATTR
+
+}
@@ -0,0 +1,165 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.revelc.code.formatter.cache;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+/**
+ * Value of an entry in the file hash cache, stored as
+ * <code>hash|STATE|duration|run</code>. The duration in milliseconds of the
+ * last format is used for schedule the expensive files first, the run is the
+ * last run that scanned the file. A plain hash, as in previous versions, is a
+ * formatted file without duration.
+ *
+ * A file that failed to format is stored as
+ * <code>hash|FAILED|duration|run|fingerprint|reason</code>, with the
+ * fingerprint of the formatter settings and the message of the failure: the
+ * same content with the same settings fails again and is not formatted. A
+ * file whose formatted code changes when it is formatted again is stored in
+ * the same way as UNSTABLE, it is not written. These entries keep text, they
+ * are never canonical for the {@link HashCacheTable} and are kept in its side
+ * table.
+ *
+ * @author wyujra
+ */
+@Getter
+@EqualsAndHashCode
+public class CacheEntry {
+
+    public enum State {
+        FORMATTED, TIMEOUT, QUARANTINED, FAILED, UNSTABLE
+    }
+
+    private static final String SEPARATOR = "|";
+    private static final int MAX_REASON = 200;
+
+    private final String hash;
+    private final State state;
+    private final long duration;
+    private final long run;
+    private final String fingerprint;
+    private final String reason;
+
+    public CacheEntry(String hash, State state) {
+        this(hash, state, 0);
+    }
+
+    public CacheEntry(String hash, State state, long duration) {
+        this(hash, state, duration, 0);
+    }
+
+    public CacheEntry(String hash, State state, long duration, long run) {
+        this(hash, state, duration, run, null, null);
+    }
+
+    /**
+     * Create the entry of a failed file
+     *
+     * @param hash the content hash
+     * @param state
+     * @param duration
+     * @param run
+     * @param fingerprint the fingerprint of the formatter settings or null
+     * @param reason the message of the failure, in one line of 200
+     * characters at most
+     */
+    public CacheEntry(String hash, State state, long duration, long run, String fingerprint, String reason) {
+        this.hash = hash;
+        this.state = state;
+        this.duration = duration;
+        this.run = run;
+        this.fingerprint = fingerprint == null || fingerprint.isEmpty() ? null : fingerprint;
+        this.reason = toLine(reason);
+    }
+
+    /**
+     * Parse the cached value
+     *
+     * @param value
+     * @return the entry or null if the value is null or unknown
+     */
+    public static CacheEntry parse(String value) {
+        if (value == null) {
+            return null;
+        }
+        // the reason is the last part, it has not the separator
+        String[] parts = value.split("\\" + SEPARATOR, 6);
+        try {
+            State state = parts.length > 1 ? State.valueOf(parts[1]) : State.FORMATTED;
+            long duration = parts.length > 2 ? Long.parseLong(parts[2]) : 0;
+            long run = parts.length > 3 ? Long.parseLong(parts[3]) : 0;
+            String fingerprint = parts.length > 4 ? parts[4] : null;
+            String reason = parts.length > 5 ? parts[5] : null;
+            return new CacheEntry(parts[0], state, duration, run, fingerprint, reason);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Return true if the entry was computed for the same content hash
+     *
+     * @param contentHash
+     * @return
+     */
+    public boolean isSameContent(String contentHash) {
+        return hash.equals(contentHash);
+    }
+
+    /**
+     * The same entry scanned by other run
+     *
+     * @param run
+     * @return
+     */
+    public CacheEntry withRun(long run) {
+        return new CacheEntry(hash, state, duration, run, fingerprint, reason);
+    }
+
+    /**
+     * Return true if the entry was computed with the same formatter settings
+     *
+     * @param formatterFingerprint
+     * @return
+     */
+    public boolean isSameFormatter(String formatterFingerprint) {
+        return fingerprint != null && fingerprint.equals(formatterFingerprint);
+    }
+
+    private static String toLine(String reason) {
+        if (reason == null) {
+            return null;
+        }
+        String line = reason.replace(SEPARATOR, " ").replace('\r', ' ').replace('\n', ' ').replace('\t', ' ').trim();
+        if (line.length() > MAX_REASON) {
+            line = line.substring(0, MAX_REASON);
+        }
+        return line.isEmpty() ? null : line;
+    }
+
+    @Override
+    public String toString() {
+        if (state == State.FORMATTED && duration == 0 && run == 0) {
+            return hash;
+        }
+        String value = hash + SEPARATOR + state + SEPARATOR + duration;
+        if (fingerprint != null || reason != null) {
+            return value + SEPARATOR + run + SEPARATOR + (fingerprint == null ? "" : fingerprint)
+                    + SEPARATOR + (reason == null ? "" : reason);
+        }
+        return run == 0 ? value : value + SEPARATOR + run;
+    }
+
+}
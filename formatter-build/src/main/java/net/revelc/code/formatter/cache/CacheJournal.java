@@ -0,0 +1,465 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.revelc.code.formatter.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import lombok.Getter;
+
+/**
+ * The hash cache file with append-only journals. The entries are appended
+ * to the journal as the files complete, a checkpoint only forces the journal
+ * to the disk. The next run loads the cache file and replays the journals,
+ * so an interrupted run resumes where it stopped.
+ *
+ * The builds sharing a target directory, in this or other process, append to
+ * their own journal segment, locked while the build is alive. The commit
+ * locks the cache file for a moment: it reads the cache file and all the
+ * segments, puts the entries changed by this build, writes the whole cache
+ * in a new file renamed over the cache file and deletes the own segment and
+ * the segments of dead builds. No build loses the entries of other.
+ *
+ * The lock of a segment is a lock of the process, released when any channel
+ * of the file in the process is closed: the segments of this process are
+ * never opened by other build, their liveness and entries come from the
+ * journals open in the process.
+ *
+ * A segment has the format of a properties file, a line by entry; a last
+ * line without end, written by a killed build, is ignored.
+ *
+ * @author wyujra
+ */
+public class CacheJournal implements Closeable {
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    private static final String JOURNAL = ".journal";
+    private static final Map<String, ReentrantLock> LOCKS = new ConcurrentHashMap<>();
+    private static final AtomicInteger SEGMENTS = new AtomicInteger();
+    private static final String PID = String.valueOf(ProcessHandle.current().pid());
+    /**
+     * The journals of the segments open in this process, by name. A segment
+     * of this process is not opened again: closing any other channel of the
+     * file releases the lock of the process.
+     */
+    private static final Map<String, CacheJournal> OPEN = new ConcurrentHashMap<>();
+    // the liveness lock is beyond the end of the segment, it does not block the readers
+    private static final long ALIVE = Long.MAX_VALUE - 1;
+
+    @Getter
+    private final File file;
+    @Getter
+    private final File journal;
+    private final File directory;
+    private final String base;
+    private final long checkpointInterval;
+    private final Map<String, String> changes = new LinkedHashMap<>();
+    private FileChannel out;
+    private FileLock alive;
+    private long lastCheckpoint;
+    @Getter
+    private int replayed;
+    @Getter
+    private int appended;
+    @Getter
+    private IOException failure;
+
+    /**
+     * Create the journal of the cache file
+     *
+     * @param file the cache file
+     * @param checkpointInterval milliseconds between the checkpoints
+     */
+    public CacheJournal(File file, long checkpointInterval) {
+        this.file = file;
+        this.directory = file.getAbsoluteFile().getParentFile();
+        this.base = getBaseName(file);
+        this.journal = new File(directory, base + JOURNAL + "." + PID + "-" + SEGMENTS.incrementAndGet());
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /**
+     * The journal segments of a cache file: formatter-cache.properties is
+     * journaled in formatter-cache.journal.&lt;writer&gt;
+     *
+     * @param file the cache file
+     * @return the segments
+     */
+    public static List<File> getJournalFiles(File file) {
+        String prefix = getBaseName(file) + JOURNAL;
+        File[] segments = file.getAbsoluteFile().getParentFile().listFiles((dir, name) -> name.startsWith(prefix));
+        if (segments == null) {
+            return new ArrayList<>();
+        }
+        Arrays.sort(segments);
+        return new ArrayList<>(Arrays.asList(segments));
+    }
+
+    /**
+     * The name of the cache file of a segment
+     *
+     * @param name the name of the segment
+     * @return the name of the cache file or null if it is not a segment
+     */
+    public static String getCacheFileName(String name) {
+        int index = name.lastIndexOf(JOURNAL);
+        return index < 0 ? null : name.substring(0, index) + ".properties";
+    }
+
+    private static String getBaseName(File file) {
+        String name = file.getName();
+        return name.endsWith(".properties") ? name.substring(0, name.length() - ".properties".length()) : name;
+    }
+
+    /**
+     * Read the cache file and replay its journals
+     *
+     * @param file the cache file
+     * @return the entries
+     * @throws IOException
+     */
+    public static Properties read(File file) throws IOException {
+        return new CacheJournal(file, 0).load();
+    }
+
+    /**
+     * Write the cache file, the journals of the dead builds are deleted
+     *
+     * @param cache the entries
+     * @param file the cache file
+     * @throws IOException
+     */
+    public static void store(Properties cache, File file) throws IOException {
+        CacheJournal journal = new CacheJournal(file, 0);
+        journal.locked(() -> {
+            journal.write(cache);
+            journal.deleteDeadSegments();
+        });
+    }
+
+    /**
+     * Read the cache file and replay the journals, the entries of the dead
+     * builds are counted as replayed
+     *
+     * @return the entries
+     * @throws IOException
+     */
+    public Properties load() throws IOException {
+        Properties cache = new Properties();
+        if (file.exists()) {
+            cache.load(new ByteArrayInputStream(Files.readAllBytes(file.toPath())));
+        }
+        for (File segment : getJournalFiles(file)) {
+            int lines = replay(cache, segment);
+            if (!isAlive(segment)) {
+                replayed += lines;
+            }
+        }
+        return cache;
+    }
+
+    private static int replay(Properties cache, File segment) throws IOException {
+        CacheJournal open = isOwn(segment.getName()) ? OPEN.get(segment.getName()) : null;
+        if (open != null) {
+            // the entries of a live segment of this process are its changes
+            synchronized (open.changes) {
+                cache.putAll(open.changes);
+                return open.changes.size();
+            }
+        }
+        byte[] records;
+        try {
+            records = Files.readAllBytes(segment.toPath());
+        } catch (NoSuchFileException e) {
+            // committed by its build
+            return 0;
+        }
+        int end = records.length;
+        while (end > 0 && records[end - 1] != '\n') {
+            end--;
+        }
+        int lines = 0;
+        for (int i = 0; i < end; i++) {
+            if (records[i] == '\n') {
+                lines++;
+            }
+        }
+        cache.load(new ByteArrayInputStream(records, 0, end));
+        return lines;
+    }
+
+    /**
+     * Append the entry to the own segment. A failure stops the journal, the
+     * entries are still written by the commit
+     *
+     * @param key
+     * @param value
+     */
+    public synchronized void append(String key, String value) {
+        synchronized (changes) {
+            changes.put(key, value);
+        }
+        if (failure != null) {
+            return;
+        }
+        StringBuilder record = new StringBuilder(key.length() + value.length() + 2);
+        escape(record, key, true);
+        record.append('=');
+        escape(record, value, false);
+        record.append('\n');
+        try {
+            if (out == null) {
+                directory.mkdirs();
+                OPEN.put(journal.getName(), this);
+                try {
+                    out = FileChannel.open(journal.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                    alive = out.lock(ALIVE, 1, false);
+                } catch (IOException e) {
+                    if (out != null) {
+                        out.close();
+                        out = null;
+                    }
+                    OPEN.remove(journal.getName());
+                    throw e;
+                }
+                lastCheckpoint = System.currentTimeMillis();
+            }
+            // one write by record, a killed build loses at most the last line
+            ByteBuffer bytes = ByteBuffer.wrap(record.toString().getBytes(StandardCharsets.ISO_8859_1));
+            while (bytes.hasRemaining()) {
+                out.write(bytes);
+            }
+            appended++;
+            if (System.currentTimeMillis() - lastCheckpoint >= checkpointInterval) {
+                checkpoint();
+            }
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    /**
+     * Force the own segment to the disk
+     *
+     * @throws IOException
+     */
+    public synchronized void checkpoint() throws IOException {
+        if (out != null) {
+            out.force(false);
+            lastCheckpoint = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Merge the entries changed by this build in the cache file. Under the
+     * lock of the cache file: read the cache file and the journals, put the
+     * changes, apply the update and write the cache file
+     *
+     * @param update the maintenance of the merged cache
+     * @return the merged cache
+     * @throws IOException
+     */
+    public synchronized Properties commit(Consumer<Properties> update) throws IOException {
+        Properties[] merged = new Properties[1];
+        locked(() -> {
+            Properties cache = load();
+            for (Map.Entry<String, String> change : changes.entrySet()) {
+                cache.setProperty(change.getKey(), change.getValue());
+            }
+            update.accept(cache);
+            write(cache);
+            close();
+            Files.deleteIfExists(journal.toPath());
+            deleteDeadSegments();
+            merged[0] = cache;
+        });
+        synchronized (changes) {
+            changes.clear();
+        }
+        return merged[0];
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (out != null) {
+            try {
+                checkpoint();
+            } finally {
+                out.close();
+                out = null;
+                alive = null;
+                OPEN.remove(journal.getName());
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface IOAction {
+
+        void run() throws IOException;
+    }
+
+    /**
+     * Run the action with the lock of the cache file, for the builds of
+     * this and the other processes
+     */
+    private void locked(IOAction action) throws IOException {
+        directory.mkdirs();
+        File lock = new File(directory, base + ".lock");
+        ReentrantLock local = LOCKS.computeIfAbsent(lock.getCanonicalPath(), key -> new ReentrantLock());
+        local.lock();
+        try ( FileChannel channel = FileChannel.open(lock.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                FileLock global = channel.lock()) {
+            action.run();
+        } finally {
+            local.unlock();
+        }
+    }
+
+    /**
+     * Write the whole cache in a new file renamed over the cache file
+     */
+    private void write(Properties cache) throws IOException {
+        File temp = File.createTempFile(file.getName(), ".tmp", directory);
+        try {
+            try ( FileOutputStream stream = new FileOutputStream(temp)) {
+                OutputStream buffered = new BufferedOutputStream(stream);
+                cache.store(buffered, null);
+                buffered.flush();
+                stream.getChannel().force(false);
+            }
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            temp.delete();
+        }
+    }
+
+    /**
+     * Delete the segments of the dead builds, they are in the cache file
+     */
+    private void deleteDeadSegments() throws IOException {
+        for (File segment : getJournalFiles(file)) {
+            if (!segment.equals(journal) && !isAlive(segment)) {
+                Files.deleteIfExists(segment.toPath());
+            }
+        }
+    }
+
+    /**
+     * Return true if the segment was created by this process
+     */
+    private static boolean isOwn(String name) {
+        int start = name.lastIndexOf(JOURNAL + ".") + JOURNAL.length() + 1;
+        int end = name.indexOf('-', start);
+        return end > start && name.substring(start, end).equals(PID);
+    }
+
+    /**
+     * Return true if the build of the segment holds its lock. The segments of
+     * this process are answered by the registry, only the segments of other
+     * processes are probed
+     */
+    private static boolean isAlive(File segment) {
+        String name = segment.getName();
+        if (isOwn(name)) {
+            return OPEN.containsKey(name);
+        }
+        try ( FileChannel channel = FileChannel.open(segment.toPath(), StandardOpenOption.WRITE)) {
+            FileLock lock = channel.tryLock(ALIVE, 1, false);
+            if (lock == null) {
+                return true;
+            }
+            lock.release();
+            return false;
+        } catch (OverlappingFileLockException e) {
+            // held by a build of this process
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Escape as {@link Properties#store(OutputStream, String)}
+     */
+    private static void escape(StringBuilder sb, String text, boolean key) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case ' ':
+                    if (i == 0 || key) {
+                        sb.append('\\');
+                    }
+                    sb.append(c);
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\f':
+                    sb.append("\\f");
+                    break;
+                case '\\':
+                case '=':
+                case ':':
+                case '#':
+                case '!':
+                    sb.append('\\').append(c);
+                    break;
+                default:
+                    if (c < 0x20 || c > 0x7e) {
+                        sb.append("\\u").append(HEX[(c >> 12) & 0xF]).append(HEX[(c >> 8) & 0xF])
+                                .append(HEX[(c >> 4) & 0xF]).append(HEX[c & 0xF]);
+                    } else {
+                        sb.append(c);
+                    }
+                    break;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,190 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.revelc.code.formatter.cache;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.Predicate;
+import lombok.Getter;
+
+/**
+ * Maintenance of the hash cache before it is stored. The runs are numbered
+ * in the cache, each entry keeps the last run that scanned its file: the
+ * entries of deleted, moved or excluded files are pruned when they were not
+ * scanned in the last runs, and over the caps the least recently scanned
+ * entries are evicted first.
+ *
+ * The builds that share a target directory have each its namespace, from
+ * its basedir and directories, with its own run counter: a build only prunes
+ * and evicts the entries last scanned by its namespace, or by no namespace,
+ * and the entries of other builds keep the age of their own runs. The run of
+ * an entry holds the index of its namespace in the high bits, so the entry
+ * format does not change.
+ *
+ * @author wyujra
+ */
+public class CacheMaintenance {
+
+    /**
+     * Key of the run counter of the caches before the namespaces, and prefix
+     * of the counters of the namespaces; the keys of the files start with
+     * the file separator.
+     */
+    public static final String RUN_KEY = "formatter.run";
+
+    private static final int RUN_BITS = 20;
+    private static final long RUN_MASK = (1L << RUN_BITS) - 1;
+    // the run of a canonical entry of the hash cache table has 28 bits
+    private static final long MAX_NAMESPACES = 255;
+
+    private final String namespace;
+    private final int maxAge;
+    private final int maxEntries;
+    private final long maxBytes;
+    @Getter
+    private long run;
+    @Getter
+    private int pruned;
+    @Getter
+    private int evicted;
+    @Getter
+    private int entries;
+    @Getter
+    private long bytes;
+
+    /**
+     * Create the maintenance
+     *
+     * @param namespace the namespace of the build
+     * @param maxAge the runs an entry is kept without being scanned, 0 for
+     * prune the entries not scanned by this run
+     * @param maxEntries the maximum number of entries, 0 for no limit
+     * @param maxBytes the maximum size of the entries, 0 for no limit
+     */
+    public CacheMaintenance(String namespace, int maxAge, int maxEntries, long maxBytes) {
+        this.namespace = namespace;
+        this.maxAge = maxAge;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Count this run of the namespace, stamp the scanned entries, prune the
+     * old ones and evict over the caps
+     *
+     * @param cache the cache
+     * @param scanned true for the keys of the files scanned by this run
+     */
+    public void apply(Properties cache, Predicate<String> scanned) {
+        String counterKey = RUN_KEY + "." + namespace;
+        long last = parseRun(cache.getProperty(counterKey));
+        long index = last > 0 ? last >>> RUN_BITS : nextIndex(cache);
+        // a new namespace continues the counter before the namespaces, so its entries keep their age
+        run = ((last > 0 ? last : parseRun(cache.getProperty(RUN_KEY))) & RUN_MASK) % RUN_MASK + 1;
+        long stamp = (index << RUN_BITS) | run;
+        List<Map.Entry<String, CacheEntry>> owned = new ArrayList<>();
+        long otherBytes = 0;
+        int others = 0;
+        for (String key : cache.stringPropertyNames()) {
+            if (key.startsWith(RUN_KEY)) {
+                continue;
+            }
+            CacheEntry entry = CacheEntry.parse(cache.getProperty(key));
+            if (entry != null && scanned.test(key)) {
+                entry = entry.withRun(stamp);
+                cache.setProperty(key, entry.toString());
+            }
+            long owner = entry == null ? index : entry.getRun() >>> RUN_BITS;
+            if (owner != index && owner != 0) {
+                others++;
+                otherBytes += sizeOf(key, cache.getProperty(key));
+            } else if (entry == null || age(entry) > maxAge) {
+                cache.remove(key);
+                pruned++;
+            } else {
+                owned.add(Map.entry(key, entry));
+            }
+        }
+        for (Map.Entry<String, CacheEntry> entry : owned) {
+            bytes += sizeOf(entry.getKey(), cache.getProperty(entry.getKey()));
+        }
+        bytes += otherBytes;
+        entries = owned.size() + others;
+        if ((maxEntries > 0 && entries > maxEntries) || (maxBytes > 0 && bytes > maxBytes)) {
+            // least recently scanned first, stable by key; the other namespaces evict their own entries
+            owned.sort(Comparator.comparingLong((Map.Entry<String, CacheEntry> entry) -> -age(entry.getValue()))
+                    .thenComparing(Map.Entry::getKey));
+            for (Map.Entry<String, CacheEntry> entry : owned) {
+                if ((maxEntries <= 0 || entries <= maxEntries) && (maxBytes <= 0 || bytes <= maxBytes)) {
+                    break;
+                }
+                bytes -= sizeOf(entry.getKey(), cache.getProperty(entry.getKey()));
+                cache.remove(entry.getKey());
+                entries--;
+                evicted++;
+            }
+        }
+        cache.setProperty(counterKey, String.valueOf(stamp));
+    }
+
+    /**
+     * The runs of the namespace since the entry was scanned, the counter
+     * wraps around
+     */
+    private long age(CacheEntry entry) {
+        return (run - (entry.getRun() & RUN_MASK)) & RUN_MASK;
+    }
+
+    /**
+     * The index of a new namespace, after the indexes of the namespaces of
+     * the cache; over the limit the last index is shared
+     */
+    private static long nextIndex(Properties cache) {
+        long index = 0;
+        for (String key : cache.stringPropertyNames()) {
+            if (key.startsWith(RUN_KEY + ".")) {
+                index = Math.max(index, parseRun(cache.getProperty(key)) >>> RUN_BITS);
+            }
+        }
+        return Math.min(index + 1, MAX_NAMESPACES);
+    }
+
+    /**
+     * Summary of the maintenance for the log
+     *
+     * @return
+     */
+    public String getReport() {
+        return entries + " entries of " + bytes / 1024 + "KB, " + pruned + " pruned, " + evicted + " evicted (run " + run + ")";
+    }
+
+    private static long parseRun(String value) {
+        try {
+            return value == null ? 0 : Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Size of the line of the entry in the cache file
+     */
+    private static long sizeOf(String key, String value) {
+        return key.length() + value.length() + 2;
+    }
+
+}
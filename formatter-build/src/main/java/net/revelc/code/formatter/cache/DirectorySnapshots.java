@@ -0,0 +1,237 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.revelc.code.formatter.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.Getter;
+
+/**
+ * The snapshots of the scanned directories: the modification time of the
+ * directory, the names of its files and subdirectories and if all its files
+ * were formatted at the end of the run. A directory with the same
+ * modification time and all its files formatted is not listed by the next
+ * run, its files are unchanged and its subdirectories are checked in the
+ * same way.
+ *
+ * The modification time of a directory changes when an entry is added,
+ * removed or renamed, not when a file is written in place: the snapshots
+ * are for the trees edited by tools that replace the files.
+ *
+ * @author wyujra
+ */
+public class DirectorySnapshots {
+
+    /**
+     * Key of the fingerprint of the scan settings in the snapshots file.
+     */
+    public static final String SCAN_KEY = "formatter.scan";
+
+    private static final String SEPARATOR = "|";
+    // a name has not the slash, in any file system
+    private static final String NAME = "/";
+    private static final String LIST = "//";
+
+    @Getter
+    private final File file;
+    private final String fingerprint;
+    private final Map<String, Snapshot> previous = new ConcurrentHashMap<>();
+    private final Map<String, Snapshot> current = new ConcurrentHashMap<>();
+    private final Set<String> unchanged = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger unchangedFiles = new AtomicInteger();
+
+    /**
+     * Create the snapshots of the file
+     *
+     * @param file the snapshots file
+     * @param fingerprint the fingerprint of the scan settings, the
+     * snapshots of other settings are ignored
+     */
+    public DirectorySnapshots(File file, String fingerprint) {
+        this.file = file;
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Read the snapshots of the last run
+     *
+     * @throws IOException
+     */
+    public void load() throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        Properties snapshots = CacheJournal.read(file);
+        if (!fingerprint.equals(snapshots.getProperty(SCAN_KEY))) {
+            return;
+        }
+        snapshots.remove(SCAN_KEY);
+        for (String key : snapshots.stringPropertyNames()) {
+            Snapshot snapshot = Snapshot.parse(snapshots.getProperty(key));
+            if (snapshot != null) {
+                previous.put(key, snapshot);
+            }
+        }
+    }
+
+    /**
+     * The snapshot of the directory in the last run
+     *
+     * @param key the key of the directory
+     * @return the snapshot or null
+     */
+    public Snapshot getPrevious(String key) {
+        return previous.get(key);
+    }
+
+    /**
+     * The directory was not listed, its snapshot is kept
+     *
+     * @param key the key of the directory
+     * @param snapshot the snapshot of the last run
+     */
+    public void unchanged(String key, Snapshot snapshot) {
+        current.put(key, snapshot);
+        unchanged.add(key);
+        unchangedFiles.addAndGet(snapshot.files.size());
+    }
+
+    /**
+     * The directory was listed
+     *
+     * @param key the key of the directory
+     * @param snapshot the snapshot of the listing
+     */
+    public void listed(String key, Snapshot snapshot) {
+        current.put(key, snapshot);
+    }
+
+    /**
+     * Return true if the directory of the file was not listed, the file is
+     * unchanged
+     *
+     * @param key the key of the file in the cache
+     * @return
+     */
+    public boolean isUnchanged(String key) {
+        int index = key.lastIndexOf(File.separatorChar);
+        return index >= 0 && unchanged.contains(key.substring(0, index));
+    }
+
+    /**
+     * Write the snapshots of this run. A listed directory is formatted when
+     * none of its files is unsettled and it was not modified since it was
+     * listed
+     *
+     * @param unsettled the keys of the files not formatted by the run
+     * @throws IOException
+     */
+    public void store(Set<String> unsettled) throws IOException {
+        Set<String> directories = new HashSet<>();
+        for (String key : unsettled) {
+            int index = key.lastIndexOf(File.separatorChar);
+            if (index >= 0) {
+                directories.add(key.substring(0, index));
+            }
+        }
+        Properties snapshots = new Properties();
+        for (Map.Entry<String, Snapshot> entry : current.entrySet()) {
+            Snapshot snapshot = entry.getValue();
+            if (snapshot.directory != null) {
+                boolean settled = !directories.contains(entry.getKey()) && snapshot.directory.lastModified() <= snapshot.modified;
+                snapshot = new Snapshot(null, snapshot.modified, settled, snapshot.files, snapshot.directories);
+            }
+            snapshots.setProperty(entry.getKey(), snapshot.toString());
+        }
+        snapshots.setProperty(SCAN_KEY, fingerprint);
+        CacheJournal.store(snapshots, file);
+    }
+
+    /**
+     * Summary of the snapshots for the log
+     *
+     * @return
+     */
+    public String getReport() {
+        return unchanged.size() + " of " + current.size() + " unchanged, " + unchangedFiles.get() + " file(s) not listed";
+    }
+
+    /**
+     * The snapshot of a directory.
+     */
+    @Getter
+    public static class Snapshot {
+
+        private final File directory;
+        private final long modified;
+        private final boolean settled;
+        private final List<String> files;
+        private final List<String> directories;
+
+        /**
+         * Create the snapshot
+         *
+         * @param directory the listed directory, null for a stored snapshot
+         * @param modified the modification time before the listing, or of
+         * the ignore files of the directory if they are newer
+         * @param settled true if all the files are formatted
+         * @param files the names of the files
+         * @param directories the names of the scanned subdirectories
+         */
+        public Snapshot(File directory, long modified, boolean settled, List<String> files, List<String> directories) {
+            this.directory = directory;
+            this.modified = modified;
+            this.settled = settled;
+            this.files = files;
+            this.directories = directories;
+        }
+
+        static Snapshot parse(String value) {
+            int first = value.indexOf(SEPARATOR);
+            int second = first < 0 ? -1 : value.indexOf(SEPARATOR, first + 1);
+            int list = second < 0 ? -1 : value.indexOf(LIST, second + 1);
+            if (list < 0) {
+                return null;
+            }
+            try {
+                long modified = Long.parseLong(value.substring(0, first));
+                boolean settled = "1".equals(value.substring(first + 1, second));
+                return new Snapshot(null, modified, settled, split(value.substring(second + 1, list)),
+                        split(value.substring(list + LIST.length())));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        private static List<String> split(String names) {
+            return names.isEmpty() ? Collections.emptyList() : new ArrayList<>(Arrays.asList(names.split(NAME)));
+        }
+
+        @Override
+        public String toString() {
+            return modified + SEPARATOR + (settled ? "1" : "0") + SEPARATOR + String.join(NAME, files) + LIST + String.join(NAME, directories);
+        }
+    }
+
+}
@@ -0,0 +1,465 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.revelc.code.formatter.cache;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToLongFunction;
+
+/**
+ * The hash cache of a run in primitive slots. The path is hashed to 64 bits
+ * and the slots are found by linear probing in a long[], eleven longs by
+ * entry: the path hash, a second 32 bit hash of the path with the state and
+ * the run, the duration and the 512 bit content hash. No object is kept by
+ * entry.
+ *
+ * The reads take no lock: each stripe of paths has a version, odd while a
+ * writer changes an entry of the stripe, and a read is repeated when the
+ * version changed. The writes lock the stripe of the path; the resize locks
+ * all the stripes. A path whose 64 bit hash is taken by other path, or with
+ * an entry that is not a canonical {@link CacheEntry}, is kept in a side
+ * table: the failed and unstable entries, with the fingerprint and the
+ * reason, are always there.
+ *
+ * @author wyujra
+ */
+public class HashCacheTable {
+
+    private static final int STRIDE = 11;
+    private static final int KEY = 0;
+    private static final int META = 1;
+    private static final int DURATION = 2;
+    private static final int HASH = 3;
+    private static final int HASH_LONGS = 8;
+    private static final int RUN_BITS = 28;
+    // the state of a slot whose path moved to the side table
+    private static final int REMOVED = 0xF;
+    private static final int STRIPES = 64;
+    private static final int MIN_CAPACITY = 64;
+    private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final CacheEntry.State[] STATES = CacheEntry.State.values();
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private volatile long[] slots;
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicInteger removed = new AtomicInteger();
+    private final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+    private final AtomicLongArray versions = new AtomicLongArray(STRIPES);
+    private final Map<String, String> side = new ConcurrentHashMap<>();
+    private final ToLongFunction<String> hasher;
+
+    public HashCacheTable() {
+        this(0);
+    }
+
+    /**
+     * Create the table for the expected number of entries
+     *
+     * @param expected
+     */
+    public HashCacheTable(int expected) {
+        this(expected, HashCacheTable::hash);
+    }
+
+    /**
+     * Create the table with other 64 bit hash of the paths, for force the
+     * collisions in the tests
+     *
+     * @param expected
+     * @param hasher
+     */
+    HashCacheTable(int expected, ToLongFunction<String> hasher) {
+        this.hasher = hasher;
+        int capacity = MIN_CAPACITY;
+        while (capacity * 2 / 3 < expected) {
+            capacity <<= 1;
+        }
+        slots = new long[capacity * STRIDE];
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Create the table with the entries of the cache file
+     *
+     * @param cache
+     * @return
+     */
+    public static HashCacheTable of(Properties cache) {
+        HashCacheTable table = new HashCacheTable(cache.size());
+        table.putAll(cache);
+        return table;
+    }
+
+    public void putAll(Properties cache) {
+        for (String key : cache.stringPropertyNames()) {
+            put(key, cache.getProperty(key));
+        }
+    }
+
+    /**
+     * Get the entry of the path
+     *
+     * @param path
+     * @return the entry as {@link CacheEntry#toString()} or null
+     */
+    public String get(String path) {
+        if (!side.isEmpty()) {
+            String value = side.get(path);
+            if (value != null) {
+                return value;
+            }
+        }
+        CacheEntry entry = lookup(path);
+        return entry == null ? null : entry.toString();
+    }
+
+    /**
+     * Get the entry of the path without the round trip by the string
+     *
+     * @param path
+     * @return the entry or null
+     */
+    public CacheEntry getEntry(String path) {
+        if (!side.isEmpty()) {
+            String value = side.get(path);
+            if (value != null) {
+                return CacheEntry.parse(value);
+            }
+        }
+        return lookup(path);
+    }
+
+    private CacheEntry lookup(String path) {
+        long key = key(path);
+        int check = check(path);
+        int stripe = stripe(key);
+        long[] hash = new long[HASH_LONGS];
+        while (true) {
+            long version = versions.get(stripe);
+            if ((version & 1) != 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            long[] table = slots;
+            int capacity = table.length / STRIDE;
+            int index = index(key, capacity);
+            boolean found = false;
+            long meta = 0;
+            long duration = 0;
+            for (int probe = 0; probe < capacity; probe++) {
+                int base = index * STRIDE;
+                long slot = (long) SLOTS.getAcquire(table, base);
+                if (slot == 0) {
+                    break;
+                }
+                if (slot == key) {
+                    found = true;
+                    meta = table[base + META];
+                    duration = table[base + DURATION];
+                    System.arraycopy(table, base + HASH, hash, 0, HASH_LONGS);
+                    break;
+                }
+                index = (index + 1) & (capacity - 1);
+            }
+            VarHandle.loadLoadFence();
+            if (versions.get(stripe) != version) {
+                continue;
+            }
+            if (!found || (int) (meta >>> 32) != check || state(meta) == REMOVED) {
+                return null;
+            }
+            return toEntry(meta, duration, hash);
+        }
+    }
+
+    /**
+     * Set the entry of the path
+     *
+     * @param path
+     * @param value the entry as {@link CacheEntry#toString()}
+     * @return the previous entry or null, without the round trip by the
+     * string
+     */
+    public CacheEntry put(String path, String value) {
+        CacheEntry previous = getEntry(path);
+        CacheEntry entry = CacheEntry.parse(value);
+        long key = key(path);
+        int check = check(path);
+        if (entry != null && isCanonical(entry, value) && store(key, check, entry)) {
+            if (!side.isEmpty()) {
+                side.remove(path);
+            }
+            return previous;
+        }
+        side.put(path, value);
+        // the side table has the entry, a slot of the path would count it twice
+        unstore(key, check);
+        return previous;
+    }
+
+    public int size() {
+        return size.get() - removed.get() + side.size();
+    }
+
+    /**
+     * Number of entries in the side table
+     *
+     * @return
+     */
+    public int getSideSize() {
+        return side.size();
+    }
+
+    /**
+     * Bytes of the slots
+     *
+     * @return
+     */
+    public long getSlotBytes() {
+        return (long) slots.length * Long.BYTES;
+    }
+
+    /**
+     * Store the entry in the slot of the key
+     *
+     * @return false if the slot is taken by other path
+     */
+    private boolean store(long key, int check, CacheEntry entry) {
+        long meta = ((long) check << 32) | ((long) entry.getState().ordinal() << RUN_BITS) | entry.getRun();
+        int stripe = stripe(key);
+        while (true) {
+            if (size.get() >= slots.length / STRIDE * 2 / 3) {
+                resize();
+            }
+            ReentrantLock lock = locks[stripe];
+            lock.lock();
+            try {
+                long[] table = slots;
+                int capacity = table.length / STRIDE;
+                if (size.get() >= capacity * 2 / 3) {
+                    continue;
+                }
+                versions.incrementAndGet(stripe);
+                try {
+                    int index = index(key, capacity);
+                    for (int probe = 0; probe < capacity; probe++) {
+                        int base = index * STRIDE;
+                        long slot = (long) SLOTS.getAcquire(table, base);
+                        if (slot == 0 && SLOTS.compareAndSet(table, base, 0L, key)) {
+                            size.incrementAndGet();
+                            write(table, base, meta, entry);
+                            return true;
+                        }
+                        slot = (long) SLOTS.getAcquire(table, base);
+                        if (slot == key) {
+                            if ((int) (table[base + META] >>> 32) != check) {
+                                return false;
+                            }
+                            if (state(table[base + META]) == REMOVED) {
+                                removed.decrementAndGet();
+                            }
+                            write(table, base, meta, entry);
+                            return true;
+                        }
+                        index = (index + 1) & (capacity - 1);
+                    }
+                } finally {
+                    versions.incrementAndGet(stripe);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Mark the slot of the path as removed, it keeps the probe chain of the
+     * other paths until the next resize
+     */
+    private void unstore(long key, int check) {
+        int stripe = stripe(key);
+        ReentrantLock lock = locks[stripe];
+        lock.lock();
+        try {
+            long[] table = slots;
+            int capacity = table.length / STRIDE;
+            int index = index(key, capacity);
+            for (int probe = 0; probe < capacity; probe++) {
+                int base = index * STRIDE;
+                long slot = (long) SLOTS.getAcquire(table, base);
+                if (slot == 0) {
+                    return;
+                }
+                if (slot == key) {
+                    long meta = table[base + META];
+                    if ((int) (meta >>> 32) == check && state(meta) != REMOVED) {
+                        versions.incrementAndGet(stripe);
+                        table[base + META] = meta | ((long) REMOVED << RUN_BITS);
+                        versions.incrementAndGet(stripe);
+                        removed.incrementAndGet();
+                    }
+                    return;
+                }
+                index = (index + 1) & (capacity - 1);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static int state(long meta) {
+        return (int) (meta >>> RUN_BITS) & 0xF;
+    }
+
+    private static void write(long[] table, int base, long meta, CacheEntry entry) {
+        table[base + META] = meta;
+        table[base + DURATION] = entry.getDuration();
+        String hash = entry.getHash();
+        for (int i = 0; i < HASH_LONGS; i++) {
+            table[base + HASH + i] = Long.parseUnsignedLong(hash.substring(i * 16, i * 16 + 16), 16);
+        }
+    }
+
+    /**
+     * Double the capacity with all the stripes locked
+     */
+    private void resize() {
+        for (ReentrantLock lock : locks) {
+            lock.lock();
+        }
+        try {
+            long[] table = slots;
+            int capacity = table.length / STRIDE;
+            if (size.get() < capacity * 2 / 3) {
+                return;
+            }
+            for (int i = 0; i < STRIPES; i++) {
+                versions.incrementAndGet(i);
+            }
+            int resized = capacity * 2;
+            long[] copy = new long[resized * STRIDE];
+            int copied = 0;
+            for (int base = 0; base < table.length; base += STRIDE) {
+                long key = table[base];
+                // the removed slots are dropped
+                if (key != 0 && state(table[base + META]) != REMOVED) {
+                    int index = index(key, resized);
+                    while (copy[index * STRIDE] != 0) {
+                        index = (index + 1) & (resized - 1);
+                    }
+                    System.arraycopy(table, base, copy, index * STRIDE, STRIDE);
+                    copied++;
+                }
+            }
+            slots = copy;
+            size.set(copied);
+            removed.set(0);
+            for (int i = 0; i < STRIPES; i++) {
+                versions.incrementAndGet(i);
+            }
+        } finally {
+            for (ReentrantLock lock : locks) {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * A lower case 512 bit hash and a run that fit in the slots, written
+     * back as the same string
+     */
+    private static boolean isCanonical(CacheEntry entry, String value) {
+        String hash = entry.getHash();
+        if (entry.getFingerprint() != null || entry.getReason() != null) {
+            // the failed files are few, their details are kept as text
+            return false;
+        }
+        if (hash.length() != HASH_LONGS * 16 || entry.getRun() < 0 || entry.getRun() >= (1L << RUN_BITS)
+                || entry.getDuration() < 0 || !value.equals(entry.toString())) {
+            return false;
+        }
+        for (int i = 0; i < hash.length(); i++) {
+            char c = hash.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static CacheEntry toEntry(long meta, long duration, long[] hash) {
+        char[] chars = new char[HASH_LONGS * 16];
+        for (int i = 0; i < HASH_LONGS; i++) {
+            for (int j = 0; j < 16; j++) {
+                chars[i * 16 + j] = HEX[(int) (hash[i] >>> (60 - j * 4)) & 0xF];
+            }
+        }
+        CacheEntry.State state = STATES[state(meta)];
+        return new CacheEntry(new String(chars), state, duration, meta & ((1L << RUN_BITS) - 1));
+    }
+
+    private long key(String path) {
+        long key = hasher.applyAsLong(path);
+        // 0 is the empty slot
+        return key == 0 ? 1 : key;
+    }
+
+    /**
+     * 64 bit hash of the path, FNV-1a by char with the murmur3 finalizer
+     */
+    private static long hash(String path) {
+        long key = 0xcbf29ce484222325L;
+        for (int i = 0; i < path.length(); i++) {
+            key = (key ^ path.charAt(i)) * 0x100000001b3L;
+        }
+        return mix(key);
+    }
+
+    /**
+     * Second hash of the path, other seed and multiplier
+     */
+    private static int check(String path) {
+        long check = 0x9e3779b97f4a7c15L;
+        for (int i = 0; i < path.length(); i++) {
+            check = (check ^ path.charAt(i)) * 0xc2b2ae3d27d4eb4fL;
+        }
+        return (int) (mix(check) >>> 32);
+    }
+
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    private static int stripe(long key) {
+        return (int) (key >>> 58) & (STRIPES - 1);
+    }
+
+    private static int index(long key, int capacity) {
+        return (int) (key ^ (key >>> 32)) & (capacity - 1);
+    }
+
+}
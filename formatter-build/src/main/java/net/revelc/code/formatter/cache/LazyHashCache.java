@@ -0,0 +1,99 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.revelc.code.formatter.cache;
+
+import java.util.Properties;
+import java.util.function.Supplier;
+
+/**
+ * The hash cache table loaded on its first use. With the entries in the
+ * extended attributes the cache file and its journals are only read for the
+ * files of the stores without user attributes.
+ *
+ * @author wyujra
+ */
+public class LazyHashCache {
+
+    private Supplier<HashCacheTable> loader;
+    private volatile HashCacheTable table;
+
+    /**
+     * Create the cache
+     *
+     * @param loader the load of the table, called once
+     */
+    public LazyHashCache(Supplier<HashCacheTable> loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * The cache of a loaded table
+     *
+     * @param table
+     * @return
+     */
+    public static LazyHashCache of(HashCacheTable table) {
+        LazyHashCache cache = new LazyHashCache(null);
+        cache.table = table;
+        return cache;
+    }
+
+    /**
+     * The table, loaded by the first call
+     *
+     * @return
+     */
+    public HashCacheTable get() {
+        HashCacheTable loaded = table;
+        if (loaded == null) {
+            synchronized (this) {
+                if (table == null) {
+                    table = loader.get();
+                    loader = null;
+                }
+                loaded = table;
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Return true if the table was loaded
+     *
+     * @return
+     */
+    public boolean isLoaded() {
+        return table != null;
+    }
+
+    /**
+     * Put the entries in the table, now if it is loaded or else when it is
+     * loaded
+     *
+     * @param entries the load of the entries
+     */
+    public synchronized void putAll(Supplier<Properties> entries) {
+        if (table != null) {
+            table.putAll(entries.get());
+        } else {
+            Supplier<HashCacheTable> base = loader;
+            loader = () -> {
+                HashCacheTable loaded = base.get();
+                loaded.putAll(entries.get());
+                return loaded;
+            };
+        }
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.revelc.code.formatter.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.Getter;
+
+/**
+ * In-memory LRU of formatted codes, keyed by the hash of the code and the
+ * fingerprint of the formatter, so a repeated content is parsed once. The
+ * cache is bounded by entries and by the estimated retained size of the
+ * keys and the values, the least recently used entries are evicted first.
+ *
+ * @author wyujra
+ */
+public class OutputCache {
+
+    @Getter
+    private final int maxEntries;
+    @Getter
+    private final long maxBytes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private long bytes;
+    private final LinkedHashMap<String, String> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    public OutputCache(int maxEntries, long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Get the formatted code
+     *
+     * @param key the key of the code
+     * @return the formatted code or null if it is not cached
+     */
+    public String get(String key) {
+        String value;
+        synchronized (this) {
+            value = entries.get(key);
+        }
+        (value == null ? misses : hits).incrementAndGet();
+        return value;
+    }
+
+    /**
+     * Put the formatted code, a code bigger than the byte budget is not
+     * cached
+     *
+     * @param key the key of the code
+     * @param value the formatted code
+     */
+    public void put(String key, String value) {
+        long size = sizeOf(key) + sizeOf(value);
+        if (size > maxBytes) {
+            return;
+        }
+        synchronized (this) {
+            String previous = entries.put(key, value);
+            if (previous != null) {
+                bytes -= sizeOf(key) + sizeOf(previous);
+            }
+            bytes += size;
+            Iterator<Map.Entry<String, String>> eldest = entries.entrySet().iterator();
+            while ((entries.size() > maxEntries || bytes > maxBytes) && eldest.hasNext()) {
+                Map.Entry<String, String> entry = eldest.next();
+                bytes -= sizeOf(entry.getKey()) + sizeOf(entry.getValue());
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Summary of the cache for the log
+     *
+     * @return
+     */
+    public String getReport() {
+        return getHits() + " hit(s), " + getMisses() + " miss(es), " + getEvictions() + " eviction(s), "
+                + size() + " entries of " + getBytes() / 1024 + "KB";
+    }
+
+    /**
+     * Estimated retained size of the string: the object, the array and two
+     * bytes by char in the worst case
+     */
+    private static long sizeOf(String value) {
+        return 56 + 2L * value.length();
+    }
+
+}
@@ -0,0 +1,141 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.revelc.code.formatter.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.Getter;
+
+/**
+ * Hash cache entries in the extended attributes of the files: the
+ * fingerprint of the formatter settings and the entry in user.formatter.hash,
+ * one attribute read and written at once. An entry written with other
+ * settings is ignored. The entries survive the clean of the target directory and are
+ * shared by the checkouts of the same file system.
+ *
+ * A file store without user attributes is remembered as unsupported, its
+ * files fall back to the properties cache.
+ *
+ * @author wyujra
+ */
+public class XattrCache {
+
+    public static final String HASH = "formatter.hash";
+    // the fingerprint is hexadecimal, the entry follows the first space
+    private static final char SEPARATOR = ' ';
+
+    @Getter
+    private final String fingerprint;
+    private final Map<FileStore, Boolean> stores = new ConcurrentHashMap<>();
+
+    /**
+     * Create the cache
+     *
+     * @param fingerprint the fingerprint of the formatter settings
+     */
+    public XattrCache(String fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Return true if the file system of the file supports the user
+     * attributes
+     *
+     * @param file
+     * @return
+     */
+    public boolean isSupported(File file) {
+        try {
+            return stores.computeIfAbsent(Files.getFileStore(file.toPath()),
+                    store -> store.supportsFileAttributeView(UserDefinedFileAttributeView.class));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Read the entry of the file
+     *
+     * @param file
+     * @return the entry or null if the file has no entry for this
+     * fingerprint
+     */
+    public String get(File file) {
+        UserDefinedFileAttributeView view = Files.getFileAttributeView(file.toPath(), UserDefinedFileAttributeView.class);
+        if (view == null) {
+            return null;
+        }
+        try {
+            String value = read(view, HASH);
+            int end = value == null ? -1 : value.indexOf(SEPARATOR);
+            return end == fingerprint.length() && value.startsWith(fingerprint) ? value.substring(end + 1) : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Write the entry of the file
+     *
+     * @param file
+     * @param value the entry
+     * @return false if the entry cannot be written, it must be stored in
+     * other cache
+     */
+    public boolean put(File file, String value) {
+        UserDefinedFileAttributeView view = Files.getFileAttributeView(file.toPath(), UserDefinedFileAttributeView.class);
+        if (view == null) {
+            return false;
+        }
+        try {
+            view.write(HASH, StandardCharsets.UTF_8.encode(fingerprint + SEPARATOR + value));
+            return true;
+        } catch (AccessDeniedException | NoSuchFileException e) {
+            return false;
+        } catch (IOException | UnsupportedOperationException e) {
+            // mounted without user attributes
+            try {
+                stores.put(Files.getFileStore(file.toPath()), Boolean.FALSE);
+            } catch (IOException ex) {
+                // the file is gone
+            }
+            return false;
+        }
+    }
+
+    private static String read(UserDefinedFileAttributeView view, String name) throws IOException {
+        int size;
+        try {
+            size = view.size(name);
+        } catch (FileSystemException e) {
+            // no attribute
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        view.read(name, buffer);
+        buffer.flip();
+        return StandardCharsets.UTF_8.decode(buffer).toString();
+    }
+
+}
@@ -37,13 +37,18 @@ public class CssFormatter extends AbstractCacheableFormatter implements Formatte
 
     private CSSFormat formatter;
 
+    public CssFormatter() {
+        extensions = new String[]{".css"};
+        expansionFactor = 6;
+        costFactor = 1500;
+    }
+
     @Override
     public void init(Map<String, String> options, ConfigurationSource cfg) {
-        super.initCfg(cfg);
+        super.initCfg(options, cfg);
         int indent = Integer.parseInt(options.getOrDefault("indent", "4"));
         boolean rgbAsHex = Boolean.parseBoolean(options.getOrDefault("rgbAsHex", Boolean.TRUE.toString()));
         formatter = new CSSFormat().setPropertiesInSeparateLines(indent).setRgbAsHex(rgbAsHex);
-        extensions = new String[]{".css"};
     }
 
     @Override
@@ -53,7 +58,7 @@ public class CssFormatter extends AbstractCacheableFormatter implements Formatte
         CSSOMParser parser = new CSSOMParser(new SACParserCSS3());
         CSSStyleSheetImpl sheet = (CSSStyleSheetImpl) parser.parseStyleSheet(source, null, null);
         String formattedCode = sheet.getCssText(formatter);
-        formattedCode = formattedCode.trim();
+        formattedCode = trimFormatted(code, formattedCode);
         if (code.equals(formattedCode)) {
             return null;
         }
@@ -27,11 +27,13 @@ public class HTMLFormatter extends JsoupBasedFormatter implements Formatter {
 
     public HTMLFormatter() {
         extensions = new String[]{".html"};
+        expansionFactor = 8;
+        costFactor = 1500;
     }
 
     @Override
     public void init(Map<String, String> options, ConfigurationSource cfg) {
-        super.initCfg(cfg);
+        super.initCfg(options, cfg);
     }
 
     @Override
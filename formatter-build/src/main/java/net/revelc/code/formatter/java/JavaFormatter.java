@@ -34,11 +34,13 @@ public class JavaFormatter extends AbstractCacheableFormatter implements Formatt
 
     public JavaFormatter() {
         extensions = new String[]{".java"};
+        expansionFactor = 12;
+        costFactor = 4000;
     }
 
     @Override
     public void init(Map<String, String> options, ConfigurationSource cfg) {
-        super.initCfg(cfg);
+        super.initCfg(options, cfg);
         this.formatter = ToolFactory.createCodeFormatter(options, ToolFactory.M_FORMAT_EXISTING);
     }
 
@@ -54,14 +56,14 @@ public class JavaFormatter extends AbstractCacheableFormatter implements Formatt
                 return null;
             }
         } catch (IndexOutOfBoundsException e) {
-            this.log.debug("Code cannot be formatted for text -->" + code + "<--", e);
+            this.log.debug(() -> "Code cannot be formatted for text -->" + code + "<--", e);
             return null;
         }
 
         IDocument doc = new Document(code);
         te.apply(doc);
         String formattedCode = doc.get();
-        formattedCode = formattedCode.trim();
+        formattedCode = trimFormatted(code, formattedCode);
         if (code.equals(formattedCode)) {
             return null;
         }
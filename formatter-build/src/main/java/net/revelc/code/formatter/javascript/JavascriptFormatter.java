@@ -34,11 +34,13 @@ public class JavascriptFormatter extends AbstractCacheableFormatter implements F
 
     public JavascriptFormatter() {
         extensions = new String[]{".js", ".jsx"};
+        expansionFactor = 10;
+        costFactor = 3000;
     }
 
     @Override
     public void init(Map<String, String> options, ConfigurationSource cfg) {
-        super.initCfg(cfg);
+        super.initCfg(options, cfg);
         this.formatter = ToolFactory.createCodeFormatter(options, ToolFactory.M_FORMAT_EXISTING);
     }
 
@@ -48,14 +50,14 @@ public class JavascriptFormatter extends AbstractCacheableFormatter implements F
                 ending.getChars());
         if (te == null) {
             this.log.debug(
-                    "Code cannot be formatted. Possible cause " + "is unmatched source/target/compliance version.");
+                    "Code cannot be formatted. Possible cause is unmatched source/target/compliance version.");
             return null;
         }
 
         IDocument doc = new Document(code);
         te.apply(doc);
         String formattedCode = doc.get();
-        formattedCode = formattedCode.trim();
+        formattedCode = trimFormatted(code, formattedCode);
         if (code.equals(formattedCode)) {
             return null;
         }
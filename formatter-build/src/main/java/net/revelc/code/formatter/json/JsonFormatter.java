@@ -38,12 +38,14 @@ public class JsonFormatter extends AbstractCacheableFormatter implements Formatt
 
     public JsonFormatter() {
         extensions = new String[]{".json"};
+        expansionFactor = 6;
+        costFactor = 500;
     }
 
 
     @Override
     public void init(Map<String, String> options, ConfigurationSource cfg) {
-        super.initCfg(cfg);
+        super.initCfg(options, cfg);
 
         int indent = Integer.parseInt(options.getOrDefault("indent", "4"));
         String lineEnding = options.getOrDefault("lineending", System.lineSeparator());
@@ -81,7 +83,7 @@ public class JsonFormatter extends AbstractCacheableFormatter implements Formatt
         // note: line ending set in init for this usecase
         Object json = formatter.readValue(code, Object.class);
         String formattedCode = formatter.writer().writeValueAsString(json);
-        formattedCode = formattedCode.trim();
+        formattedCode = trimFormatted(code, formattedCode);
         if (code.equals(formattedCode)) {
             return null;
         }
@@ -39,7 +39,7 @@ public abstract class JsoupBasedFormatter extends AbstractCacheableFormatter imp
 
     @Override
     public void init(Map<String, String> options, ConfigurationSource cfg) {
-        super.initCfg(cfg);
+        super.initCfg(options, cfg);
 
         formatter = new OutputSettings();
         formatter.charset(Charset.forName(options.getOrDefault("charset", StandardCharsets.UTF_8.name())));
@@ -66,7 +66,7 @@ public abstract class JsoupBasedFormatter extends AbstractCacheableFormatter imp
         document.outputSettings(formatter);
 
         String formattedCode = document.outerHtml();
-        formattedCode = formattedCode.trim();
+        formattedCode = trimFormatted(code, formattedCode);
         if (code.equals(formattedCode)) {
             return null;
         }
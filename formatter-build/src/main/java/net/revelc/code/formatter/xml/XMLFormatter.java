@@ -28,17 +28,20 @@ import net.revelc.code.formatter.xml.lib.XmlDocumentFormatter;
  */
 public class XMLFormatter extends AbstractCacheableFormatter implements Formatter {
 
-    private XmlDocumentFormatter formatter;
+    private String lineDelimiter;
+    private FormattingPreferences prefs;
 
     public XMLFormatter() {
         extensions = new String[]{".xml"};
+        expansionFactor = 4;
+        costFactor = 500;
     }
 
     @Override
     public void init(Map<String, String> options, ConfigurationSource cfg) {
-        super.initCfg(cfg);
+        super.initCfg(options, cfg);
 
-        FormattingPreferences prefs = new FormattingPreferences();
+        prefs = new FormattingPreferences();
         String maxLineLength = options.get("maxLineLength");
         String wrapLongLines = options.get("wrapLongLines");
         String tabInsteadOfSpaces = options.get("tabInsteadOfSpaces");
@@ -51,22 +54,32 @@ public class XMLFormatter extends AbstractCacheableFormatter implements Formatte
         prefs.setTabWidth(tabWidth != null ? Integer.valueOf(tabWidth) : null);
         prefs.setSplitMultiAttrs(splitMultiAttrs != null ? Boolean.valueOf(splitMultiAttrs) : null);
 
-        this.formatter = new XmlDocumentFormatter(options.getOrDefault("lineending", System.lineSeparator()), prefs);
+        this.lineDelimiter = options.getOrDefault("lineending", System.lineSeparator());
     }
 
     @Override
     protected String doFormat(String code, LineEnding ending) {
-        String formattedCode = formatter.format(code);
-        formattedCode = formattedCode.trim();
+        // the depth of an unbalanced document is kept by the instance for the next document,
+        // a new instance for each code makes the indentation independent of the previous files
+        String formattedCode = new XmlDocumentFormatter(lineDelimiter, prefs).format(code);
+        formattedCode = trimFormatted(code, formattedCode);
         if (code.equals(formattedCode)) {
             return null;
         }
         return formattedCode;
     }
 
+    /**
+     * The readers of {@link XmlDocumentFormatter} are static.
+     */
+    @Override
+    protected boolean isThreadSafe() {
+        return false;
+    }
+
     @Override
     public boolean isInitialized() {
-        return formatter != null;
+        return prefs != null;
     }
 
 }
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2020 wyujra.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.yracnet.formatter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import org.junit.Test;
+
+/**
+ * The records written by the thread of the handler: the source of the
+ * caller, the overflow of the ring and the flush.
+ *
+ * @author wyujra
+ */
+public class FormatterAsyncHandlerTest {
+
+    @Test(timeout = 10000)
+    public void keepsTheSourceOfTheCaller() {
+        Target target = new Target();
+        FormatterAsyncHandler handler = new FormatterAsyncHandler(target, 16);
+        Logger logger = Logger.getAnonymousLogger();
+        logger.setUseParentHandlers(false);
+        logger.addHandler(handler);
+        logger.info("message");
+        handler.flush();
+        LogRecord record = target.records.get(0);
+        assertEquals(getClass().getName(), record.getSourceClassName());
+        assertEquals("keepsTheSourceOfTheCaller", record.getSourceMethodName());
+        handler.close();
+    }
+
+    @Test(timeout = 10000)
+    public void dropsTheRecordsUnderWarningWhileTheRingIsFull() throws Exception {
+        Target target = new Target();
+        target.block();
+        FormatterAsyncHandler handler = new FormatterAsyncHandler(target, 2);
+        handler.publish(new LogRecord(Level.INFO, "first"));
+        // the writer holds the first record, the ring has room for two
+        target.entered.await();
+        handler.publish(new LogRecord(Level.INFO, "second"));
+        handler.publish(new LogRecord(Level.INFO, "third"));
+        for (int i = 0; i < 3; i++) {
+            handler.publish(new LogRecord(Level.FINE, "dropped"));
+        }
+        Thread warning = new Thread(() -> handler.publish(new LogRecord(Level.WARNING, "warning")));
+        warning.start();
+        while (warning.getState() != Thread.State.WAITING) {
+            Thread.sleep(10);
+        }
+
+        target.release();
+        warning.join();
+        handler.flush();
+        assertEquals(Arrays.asList("first", "3 log record(s) dropped, the ring buffer of the log was full", "second", "third", "warning"),
+                target.getMessages());
+        handler.close();
+        assertTrue(target.closed);
+    }
+
+    @Test(timeout = 10000)
+    public void flushWaitsForTheRecordsPublishedBefore() {
+        Target target = new Target();
+        target.delay = 5;
+        FormatterAsyncHandler handler = new FormatterAsyncHandler(target, 64);
+        for (int i = 0; i < 20; i++) {
+            handler.publish(new LogRecord(Level.INFO, "record " + i));
+        }
+        handler.flush();
+        assertEquals(20, target.records.size());
+        assertTrue(target.flushes.get() > 0);
+
+        // after the close the records are written in the caller thread
+        handler.close();
+        handler.publish(new LogRecord(Level.INFO, "closed"));
+        assertEquals("closed", target.records.get(20).getMessage());
+    }
+
+    /**
+     * The handler behind the ring, it keeps the records it writes
+     */
+    private static class Target extends Handler {
+
+        private final List<LogRecord> records = Collections.synchronizedList(new ArrayList<>());
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private volatile CountDownLatch blocked = new CountDownLatch(0);
+        private volatile long delay;
+        private final AtomicInteger flushes = new AtomicInteger();
+        private volatile boolean closed;
+
+        void block() {
+            blocked = new CountDownLatch(1);
+        }
+
+        void release() {
+            blocked.countDown();
+        }
+
+        List<String> getMessages() {
+            List<String> messages = new ArrayList<>();
+            synchronized (records) {
+                records.forEach(record -> messages.add(record.getMessage()));
+            }
+            return messages;
+        }
+
+        @Override
+        public void publish(LogRecord record) {
+            entered.countDown();
+            try {
+                blocked.await();
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            records.add(record);
+        }
+
+        @Override
+        public void flush() {
+            flushes.incrementAndGet();
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+}
@@ -0,0 +1,406 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.revelc.code.formatter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import dev.yracnet.formatter.FormatterEvent;
+import dev.yracnet.formatter.FormatterException;
+import dev.yracnet.formatter.FormatterHelp;
+import dev.yracnet.formatter.FormatterListener;
+import dev.yracnet.formatter.FormatterReport;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import net.revelc.code.formatter.cache.CacheBackend;
+import net.revelc.code.formatter.cache.CacheEntry;
+import net.revelc.code.formatter.cache.XattrCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Runs of the build over the .txt files of a folder with the
+ * {@link ScriptedFormatter}, and the hash cache they leave.
+ *
+ * @author wyujra
+ */
+public class FormatterBuildImplTest {
+
+    private static final long BUDGET = 300;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File basedir;
+
+    @Before
+    public void setUp() throws IOException {
+        basedir = folder.newFolder("project");
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        ScriptedFormatter.releaseHung();
+        awaitAbandoned();
+    }
+
+    @Test(timeout = 30000)
+    public void cachesTheTimeoutAndSkipsTheFileWhileUnchanged() throws Exception {
+        write("hang.txt", "hang");
+        write("next.txt", "next");
+        FormatterReport report = run(new ScriptedFormatter());
+        assertEquals(1, report.getTimeoutCount());
+        assertEquals(1, report.getSuccessCount());
+        assertEquals("NEXT", read("next.txt"));
+        assertEquals("hang", read("hang.txt"));
+        assertEquals(CacheEntry.State.TIMEOUT, cached("hang.txt").getState());
+
+        int formats = ScriptedFormatter.getFormats();
+        report = run(new ScriptedFormatter());
+        assertEquals(2, report.getSkippedCount());
+        assertEquals(formats, ScriptedFormatter.getFormats());
+
+        write("hang.txt", "fixed");
+        report = run(new ScriptedFormatter());
+        assertEquals(1, report.getSuccessCount());
+        assertEquals("FIXED", read("hang.txt"));
+        assertEquals(CacheEntry.State.FORMATTED, cached("hang.txt").getState());
+    }
+
+    @Test(timeout = 30000)
+    public void doesNotWaitForTheFormatAbandonedByAnExclusiveFormatter() throws Exception {
+        write("hang.txt", "hang");
+        FormatterReport report = run(new ScriptedFormatter.Exclusive());
+        assertEquals(1, report.getTimeoutCount());
+        assertEquals(CacheEntry.State.TIMEOUT, cached("hang.txt").getState());
+
+        // the abandoned format still holds the gate of the formatter
+        write("next.txt", "next");
+        report = run(new ScriptedFormatter.Exclusive());
+        assertEquals(1, report.getSkippedCount());
+        assertEquals(1, report.getTimeoutCount());
+        assertEquals("next", read("next.txt"));
+        assertNull(cached("next.txt"));
+
+        ScriptedFormatter.releaseHung();
+        awaitAbandoned();
+        report = run(new ScriptedFormatter.Exclusive());
+        assertEquals(1, report.getSuccessCount());
+        assertEquals(1, report.getSkippedCount());
+        assertEquals("NEXT", read("next.txt"));
+    }
+
+    @Test(timeout = 30000)
+    public void doesNotWriteTheNewFileWhoseFormatDoesNotConverge() throws Exception {
+        write("grow.txt", "grow");
+        write("next.txt", "next");
+        FormatterReport report = run(new ScriptedFormatter());
+        assertEquals(1, report.getUnstableCount());
+        assertEquals(1, report.getSuccessCount());
+        assertEquals("grow", read("grow.txt"));
+        assertEquals("NEXT", read("next.txt"));
+        CacheEntry cached = cached("grow.txt");
+        assertEquals(CacheEntry.State.UNSTABLE, cached.getState());
+        assertNotNull(cached.getReason());
+
+        int formats = ScriptedFormatter.getFormats();
+        report = run(new ScriptedFormatter());
+        assertEquals(1, report.getUnstableCount());
+        assertEquals(1, report.getSkippedCount());
+        assertEquals(formats, ScriptedFormatter.getFormats());
+        assertEquals("grow", read("grow.txt"));
+    }
+
+    @Test(timeout = 30000)
+    public void keepsTheEntriesInTheAttributesWithoutTheCacheFile() throws Exception {
+        write("main.txt", "main");
+        XattrCache probe = new XattrCache("probe");
+        File file = new File(basedir, "main.txt");
+        assumeTrue(probe.isSupported(file) && probe.put(file, "probe"));
+        FormatterReport report = run(new ScriptedFormatter(), build -> build.setCacheBackend(CacheBackend.XATTR));
+        assertEquals(1, report.getSuccessCount());
+        assertFalse(new File(basedir, "target/" + FormatterHelp.CACHE_PROPERTIES_FILENAME).exists());
+
+        int formats = ScriptedFormatter.getFormats();
+        report = run(new ScriptedFormatter(), build -> build.setCacheBackend(CacheBackend.XATTR));
+        assertEquals(1, report.getSkippedCount());
+        assertEquals(formats, ScriptedFormatter.getFormats());
+        assertFalse(new File(basedir, "target/" + FormatterHelp.CACHE_PROPERTIES_FILENAME).exists());
+    }
+
+    @Test(timeout = 30000)
+    public void failsTheCodeInMemoryOfAnUnknownLanguage() throws Exception {
+        FormatterBuildImpl build = code();
+        assertEquals("MAIN", build.format("main", "main.txt"));
+        try {
+            build.format("main", "main.cobol");
+            fail("The language has no formatter");
+        } catch (FormatterException e) {
+            assertEquals("No formatter for 'main.cobol'", e.getMessage());
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void failsTheCodeInMemoryThatCannotBeFormatted() throws Exception {
+        FormatterBuildImpl build = code();
+        try {
+            build.format("fail", "fail.txt");
+            fail("The code cannot be formatted");
+        } catch (FormatterException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        try {
+            build.format("hang", "hang.txt");
+            fail("The format exceeded the budget");
+        } catch (FormatterException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void formatsAllTheCodesInMemoryBeforeFailing() throws Exception {
+        FormatterBuildImpl build = code();
+        Map<String, String> contents = new LinkedHashMap<>();
+        contents.put("b.txt", "b");
+        contents.put("a.txt", "a");
+        assertEquals(Arrays.asList("B", "A"), new ArrayList<>(build.formatAll(contents).values()));
+
+        contents.put("fail.txt", "fail");
+        contents.put("main.cobol", "main");
+        contents.put("hang.txt", "hang");
+        try {
+            build.formatAll(contents);
+            fail("The codes cannot be formatted");
+        } catch (FormatterException e) {
+            assertEquals("Fail to format 3 of 5 codes: fail.txt, main.cobol, hang.txt", e.getMessage());
+            assertTrue(e.getCause().getCause() instanceof IOException);
+            assertEquals(2, e.getSuppressed().length);
+            assertTrue(e.getSuppressed()[1].getCause() instanceof TimeoutException);
+        }
+    }
+
+    private FormatterBuildImpl code() {
+        ScriptedFormatter formatter = new ScriptedFormatter();
+        formatter.setTimeout(BUDGET);
+        return ScriptedFormatter.build(basedir, formatter);
+    }
+
+    @Test(timeout = 30000)
+    public void skipsTheKnownFailureWhileUnchanged() throws Exception {
+        write("fail.txt", "fail");
+        FormatterReport report = run(new ScriptedFormatter());
+        assertEquals(1, report.getFailCount());
+        assertEquals(0, report.getKnownFailCount());
+        CacheEntry cached = cached("fail.txt");
+        assertEquals(CacheEntry.State.FAILED, cached.getState());
+        assertNotNull(cached.getFingerprint());
+        assertTrue(cached.getReason().contains("Cannot format the failing code"));
+        String reason = report.getFailures().get(File.separator + "fail.txt");
+
+        int formats = ScriptedFormatter.getFormats();
+        report = run(new ScriptedFormatter());
+        assertEquals(1, report.getFailCount());
+        assertEquals(1, report.getKnownFailCount());
+        assertEquals(reason, report.getFailures().get(File.separator + "fail.txt"));
+        assertEquals(formats, ScriptedFormatter.getFormats());
+
+        report = run(new ScriptedFormatter(), build -> build.setRetryFailures(true));
+        assertEquals(1, report.getFailCount());
+        assertEquals(0, report.getKnownFailCount());
+        assertEquals(formats + 1, ScriptedFormatter.getFormats());
+    }
+
+    @Test(timeout = 30000)
+    public void listsOnlyTheDirectoriesChangedOrNotSettled() throws Exception {
+        new File(basedir, "target").mkdir();
+        File sub = new File(basedir, "sub");
+        sub.mkdir();
+        write("a.txt", "a");
+        write("sub" + File.separator + "b.txt", "b");
+        Consumer<FormatterBuildImpl> snapshots = build -> build.setDirectorySnapshots(true);
+        FormatterReport report = run(new ScriptedFormatter(), snapshots);
+        assertEquals(2, report.getFiles());
+        assertEquals(2, report.getSuccessCount());
+
+        int formats = ScriptedFormatter.getFormats();
+        report = run(new ScriptedFormatter(), snapshots);
+        assertEquals(0, report.getFiles());
+        assertEquals(formats, ScriptedFormatter.getFormats());
+        // the files of the directories not listed are kept in the cache
+        assertEquals(CacheEntry.State.FORMATTED, cached("a.txt").getState());
+        assertEquals(CacheEntry.State.FORMATTED, cached("sub" + File.separator + "b.txt").getState());
+
+        // a new file changes the modification time of its directory only
+        write("sub" + File.separator + "c.txt", "c");
+        sub.setLastModified(sub.lastModified() + 2000);
+        report = run(new ScriptedFormatter(), snapshots);
+        assertEquals(2, report.getFiles());
+        assertEquals(1, report.getSuccessCount());
+        assertEquals(1, report.getSkippedCount());
+        assertEquals("C", read("sub" + File.separator + "c.txt"));
+
+        // a directory with a file not formatted is listed until the file is formatted
+        write("sub" + File.separator + "fail.txt", "fail");
+        sub.setLastModified(sub.lastModified() + 2000);
+        report = run(new ScriptedFormatter(), snapshots);
+        assertEquals(3, report.getFiles());
+        assertEquals(1, report.getFailCount());
+        report = run(new ScriptedFormatter(), snapshots);
+        assertEquals(3, report.getFiles());
+        assertEquals(1, report.getKnownFailCount());
+
+        write("sub" + File.separator + "fail.txt", "fixed");
+        report = run(new ScriptedFormatter(), snapshots);
+        assertEquals(3, report.getFiles());
+        assertEquals(1, report.getSuccessCount());
+        report = run(new ScriptedFormatter(), snapshots);
+        assertEquals(0, report.getFiles());
+
+        // other scan settings ignore the snapshots
+        report = run(new ScriptedFormatter(), build -> {
+            build.setDirectorySnapshots(true);
+            build.setExcludes(new String[]{"**/none.txt"});
+        });
+        assertEquals(4, report.getFiles());
+        assertEquals(4, report.getSkippedCount());
+    }
+
+    private FormatterReport run(ScriptedFormatter formatter) throws Exception {
+        return run(formatter, build -> {
+        });
+    }
+
+    @Test(timeout = 30000)
+    public void firesOneEventByFileAndCompletesWithTheReport() throws Exception {
+        write("a.txt", "a");
+        write("b.txt", "B");
+        write("fail.txt", "fail");
+        write("grow.txt", "grow");
+        write("hang.txt", "hang");
+        write("one.txt", "same");
+        write("two.txt", "same");
+        Map<String, List<Result>> events = new ConcurrentHashMap<>();
+        FormatterReport report = start(new ScriptedFormatter(), event -> events
+                .computeIfAbsent(event.getPath(), path -> Collections.synchronizedList(new ArrayList<>())).add(event.getResult()))
+                .get(20, TimeUnit.SECONDS);
+        assertEquals(7, report.getFiles());
+        assertEquals(7, events.size());
+        Map<Result, Integer> counts = new EnumMap<>(Result.class);
+        for (List<Result> results : events.values()) {
+            assertEquals(1, results.size());
+            counts.merge(results.get(0), 1, Integer::sum);
+        }
+        assertEquals(report.getSuccessCount(), (int) counts.getOrDefault(Result.SUCCESS, 0));
+        assertEquals(3, report.getSuccessCount());
+        assertEquals(report.getSkippedCount(), (int) counts.getOrDefault(Result.SKIPPED, 0));
+        assertEquals(report.getFailCount(), (int) counts.getOrDefault(Result.FAIL, 0));
+        assertEquals(report.getUnstableCount(), (int) counts.getOrDefault(Result.UNSTABLE, 0));
+        assertEquals(report.getTimeoutCount(), (int) counts.getOrDefault(Result.TIMEOUT, 0));
+        assertEquals(Result.TIMEOUT, events.get(File.separator + "hang.txt").get(0));
+    }
+
+    @Test(timeout = 30000)
+    public void cancelStopsTheFormatInFlight() throws Exception {
+        write("hang.txt", "hang");
+        ScriptedFormatter formatter = new ScriptedFormatter();
+        List<FormatterEvent> events = Collections.synchronizedList(new ArrayList<>());
+        CompletableFuture<FormatterReport> future = start(formatter, events::add, TimeUnit.SECONDS.toMillis(20));
+        while (ScriptedFormatter.getHanging() == 0) {
+            Thread.sleep(10);
+        }
+        assertTrue(future.cancel(true));
+        assertTrue(future.isCancelled());
+
+        // the run commits the cache without waiting the format or its budget
+        File cache = new File(basedir, "target/" + FormatterHelp.CACHE_PROPERTIES_FILENAME);
+        for (int i = 0; i < 100 && !cache.exists(); i++) {
+            Thread.sleep(50);
+        }
+        assertTrue(cache.exists());
+        assertEquals(1, ScriptedFormatter.getHanging());
+        assertNull(cached("hang.txt"));
+        assertTrue(events.isEmpty());
+
+        ScriptedFormatter.releaseHung();
+        awaitAbandoned();
+        assertEquals("hang", read("hang.txt"));
+        assertTrue(events.isEmpty());
+    }
+
+    private FormatterReport run(ScriptedFormatter formatter, Consumer<FormatterBuildImpl> settings) throws Exception {
+        return start(formatter, settings, null, BUDGET).get(20, TimeUnit.SECONDS);
+    }
+
+    private CompletableFuture<FormatterReport> start(ScriptedFormatter formatter, FormatterListener listener) {
+        return start(formatter, listener, BUDGET);
+    }
+
+    private CompletableFuture<FormatterReport> start(ScriptedFormatter formatter, FormatterListener listener, long budget) {
+        return start(formatter, build -> {
+        }, listener, budget);
+    }
+
+    private CompletableFuture<FormatterReport> start(ScriptedFormatter formatter, Consumer<FormatterBuildImpl> settings,
+            FormatterListener listener, long budget) {
+        formatter.setTimeout(budget);
+        FormatterBuildImpl build = ScriptedFormatter.build(basedir, formatter);
+        settings.accept(build);
+        build.setThreads(1);
+        build.setAdaptiveThreads(false);
+        return build.executeAsync(listener);
+    }
+
+    private void write(String name, String content) throws IOException {
+        Files.write(new File(basedir, name).toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String read(String name) throws IOException {
+        return new String(Files.readAllBytes(new File(basedir, name).toPath()), StandardCharsets.UTF_8);
+    }
+
+    private CacheEntry cached(String name) {
+        File target = new File(basedir, "target");
+        return CacheEntry.parse(FormatterHelp.readFileHashCacheFile(target).getProperty(File.separator + name));
+    }
+
+    private static void awaitAbandoned() throws InterruptedException {
+        for (int i = 0; i < 100 && FormatterWatchdog.getInstance().getAbandoned() > 0; i++) {
+            Thread.sleep(50);
+        }
+        assertTrue(FormatterWatchdog.getInstance().getAbandoned() == 0);
+    }
+
+}
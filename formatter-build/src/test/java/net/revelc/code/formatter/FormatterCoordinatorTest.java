@@ -0,0 +1,110 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.revelc.code.formatter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import dev.yracnet.formatter.FormatterHelp;
+import dev.yracnet.formatter.FormatterReport;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import net.revelc.code.formatter.cache.CacheEntry;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Runs of the build in a worker process whose heap is too small for one of
+ * the files, the worker dies formatting it.
+ *
+ * @author wyujra
+ */
+public class FormatterCoordinatorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File basedir;
+
+    @Before
+    public void setUp() throws IOException {
+        basedir = folder.newFolder("project");
+    }
+
+    @Test(timeout = 120000)
+    public void quarantinesTheFileThatCrashesTheWorkerWhileUnchanged() throws Exception {
+        // a tree of small objects many times the size of its text
+        try ( Writer out = Files.newBufferedWriter(new File(basedir, "crash.txt").toPath(), StandardCharsets.UTF_8)) {
+            out.write('[');
+            for (int i = 0; i < 400000; i++) {
+                out.write(i == 0 ? "{\"a\":[1]}" : ",{\"a\":[1]}");
+            }
+            out.write(']');
+        }
+        write("next.txt", "{\"a\":1}");
+        Map<String, Result> events = new ConcurrentHashMap<>();
+        FormatterReport report = run(events);
+        assertEquals(1, report.getQuarantinedCount());
+        assertEquals(1, report.getSuccessCount());
+        assertEquals(Result.QUARANTINED, events.get(File.separator + "crash.txt"));
+        assertEquals(Result.SUCCESS, events.get(File.separator + "next.txt"));
+        assertEquals(CacheEntry.State.QUARANTINED, cached("crash.txt").getState());
+        assertEquals(CacheEntry.State.FORMATTED, cached("next.txt").getState());
+        assertTrue(read("next.txt").contains("\n"));
+        assertTrue(read("crash.txt").startsWith("[{\"a\":[1]},"));
+
+        events.clear();
+        report = run(events);
+        assertEquals(0, report.getQuarantinedCount());
+        assertEquals(2, report.getSkippedCount());
+        assertEquals(Result.SKIPPED, events.get(File.separator + "crash.txt"));
+        assertEquals(CacheEntry.State.QUARANTINED, cached("crash.txt").getState());
+
+        write("crash.txt", "[{\"a\":[1]}]");
+        events.clear();
+        report = run(events);
+        assertEquals(1, report.getSuccessCount());
+        assertEquals(Result.SUCCESS, events.get(File.separator + "crash.txt"));
+        assertEquals(CacheEntry.State.FORMATTED, cached("crash.txt").getState());
+    }
+
+    private FormatterReport run(Map<String, Result> events) throws Exception {
+        FormatterBuildImpl build = ScriptedFormatter.build(basedir, new ScriptedFormatter());
+        build.setProcesses(1);
+        build.setWorkerJvmOptions("-Xmx64m");
+        return build.executeAsync(event -> events.put(event.getPath(), event.getResult())).get(100, TimeUnit.SECONDS);
+    }
+
+    private void write(String name, String content) throws IOException {
+        Files.write(new File(basedir, name).toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String read(String name) throws IOException {
+        return new String(Files.readAllBytes(new File(basedir, name).toPath()), StandardCharsets.UTF_8);
+    }
+
+    private CacheEntry cached(String name) {
+        File target = new File(basedir, "target");
+        return CacheEntry.parse(FormatterHelp.readFileHashCacheFile(target).getProperty(File.separator + name));
+    }
+
+}
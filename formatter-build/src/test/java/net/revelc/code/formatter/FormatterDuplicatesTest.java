@@ -0,0 +1,180 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.revelc.code.formatter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import net.revelc.code.formatter.cache.CacheEntry;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * The groups of copies and the memory of the formatted code kept for them.
+ *
+ * @author wyujra
+ */
+public class FormatterDuplicatesTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final PathStore paths = new PathStore(new File("."));
+    private final ScriptedFormatter formatter = new ScriptedFormatter();
+    private final ConcurrentHashMap<String, String> written = new ConcurrentHashMap<>();
+
+    @Test
+    public void releasesTheBudgetWhenTheCopiesAreReadBeforeTheFormat() throws Exception {
+        List<FormatterTask> tasks = new ArrayList<>();
+        tasks.add(task("a1.txt", "aaaa"));
+        tasks.add(task("a2.txt", "aaaa"));
+        tasks.add(task("a3.txt", "aaaa"));
+        tasks.add(task("b1.txt", "bbbb"));
+        tasks.add(task("b2.txt", "bbbb"));
+        tasks.add(task("c1.txt", "cccccc"));
+        tasks.add(task("c2.txt", "cccccc"));
+        FormatterDuplicates duplicates = new FormatterDuplicates(tasks);
+        try (FormatterScheduler scheduler = new FormatterScheduler(1, 1, false, 1 << 20, 8, 0)) {
+            duplicates.setScheduler(scheduler);
+            CountDownLatch read = new CountDownLatch(tasks.size());
+            for (FormatterTask task : tasks) {
+                scheduler.submit(task.getSize(), task.getEstimatedBytes(), new Job(duplicates, task, read));
+            }
+            scheduler.await();
+            assertEquals(scheduler.getBudget(), scheduler.getAvailableBudget());
+        }
+        assertEquals(tasks.size(), written.size());
+        for (FormatterTask task : tasks) {
+            assertEquals(content(task).toUpperCase(), written.get(task.getFile().getName()));
+        }
+        assertEquals("0 path(s) of the same file, 4 copy(ies) of other file", duplicates.getReport());
+    }
+
+    @Test
+    public void keepsTheCodeForTheCopiesReadAfterTheFormat() throws Exception {
+        FormatterTask first = task("a1.txt", "aaaa");
+        FormatterTask second = task("a2.txt", "aaaa");
+        FormatterTask third = task("a3.txt", "aaaa");
+        List<FormatterTask> tasks = new ArrayList<>();
+        tasks.add(first);
+        tasks.add(second);
+        tasks.add(third);
+        FormatterDuplicates duplicates = new FormatterDuplicates(tasks);
+        try (FormatterScheduler scheduler = new FormatterScheduler(1, 1, false, 1 << 20, 8, 0)) {
+            duplicates.setScheduler(scheduler);
+            FormatterDuplicates.Group group = duplicates.join(first, "aaaa", follower("a1.txt"));
+            assertNotNull(group);
+            duplicates.leave(first);
+            duplicates.publish(group, Result.SUCCESS, null, "AAAA");
+            assertTrue(scheduler.getAvailableBudget() < scheduler.getBudget());
+
+            assertNull(duplicates.join(second, "aaaa", follower("a2.txt")));
+            duplicates.leave(second);
+            assertEquals("AAAA", written.get("a2.txt"));
+            assertTrue(scheduler.getAvailableBudget() < scheduler.getBudget());
+
+            assertNull(duplicates.join(third, "aaaa", follower("a3.txt")));
+            duplicates.leave(third);
+            assertEquals("AAAA", written.get("a3.txt"));
+            assertEquals(scheduler.getBudget(), scheduler.getAvailableBudget());
+        }
+    }
+
+    private FormatterTask task(String name, String content) throws IOException {
+        File file = folder.newFile(name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return new FormatterTask(paths, paths.add(file, name), formatter, null);
+    }
+
+    private static String content(FormatterTask task) throws IOException {
+        return new String(Files.readAllBytes(task.getFile().toPath()), StandardCharsets.UTF_8);
+    }
+
+    private FormatterDuplicates.Follower follower(String name) {
+        return (result, entry, formattedCode) -> written.put(name, formattedCode);
+    }
+
+    /**
+     * The stages of a copy: every file is read before the first ones end
+     * the format
+     */
+    private class Job implements FormatterScheduler.FileJob, FormatterDuplicates.Follower {
+
+        private final FormatterDuplicates duplicates;
+        private final FormatterTask task;
+        private final CountDownLatch read;
+        private FormatterDuplicates.Group group;
+        private String code;
+
+        Job(FormatterDuplicates duplicates, FormatterTask task, CountDownLatch read) {
+            this.duplicates = duplicates;
+            this.task = task;
+            this.read = read;
+        }
+
+        @Override
+        public boolean read() {
+            try {
+                code = content(task);
+                group = duplicates.join(task, code, this);
+                return group != null;
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                duplicates.leave(task);
+                read.countDown();
+            }
+        }
+
+        @Override
+        public boolean format() {
+            try {
+                assertTrue(read.await(10, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            String formattedCode = code.toUpperCase();
+            follow(Result.SUCCESS, new CacheEntry("hash", CacheEntry.State.FORMATTED, 1), formattedCode);
+            duplicates.publish(group, Result.SUCCESS, null, formattedCode);
+            return false;
+        }
+
+        @Override
+        public void write() {
+        }
+
+        @Override
+        public void fail(Throwable e) {
+            written.put(task.getFile().getName(), e.toString());
+        }
+
+        @Override
+        public void follow(Result result, CacheEntry entry, String formattedCode) {
+            written.put(task.getFile().getName(), formattedCode);
+        }
+    }
+
+}
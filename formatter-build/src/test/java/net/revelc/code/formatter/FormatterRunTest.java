@@ -0,0 +1,99 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.revelc.code.formatter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.revelc.code.formatter.cache.HashCacheTable;
+import net.revelc.code.formatter.cache.LazyHashCache;
+import net.revelc.code.formatter.cache.XattrCache;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * The cache entries of a run in the extended attributes, and the cache file
+ * for the stores without them.
+ *
+ * @author wyujra
+ */
+public class FormatterRunTest {
+
+    private static final String KEY = File.separator + "Main.java";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicInteger loads = new AtomicInteger();
+    private File file;
+    private LazyHashCache hashCache;
+
+    @Before
+    public void setUp() throws Exception {
+        file = folder.newFile("Main.java");
+        hashCache = new LazyHashCache(() -> {
+            loads.incrementAndGet();
+            HashCacheTable table = new HashCacheTable();
+            table.put(KEY, "hash");
+            return table;
+        });
+    }
+
+    @Test
+    public void readsTheCacheFileOnlyForTheStoresWithoutAttributes() {
+        assertNull(FormatterRun.getCached(new StoreXattrCache(true), hashCache, file, KEY));
+        assertEquals(0, loads.get());
+
+        XattrCache unsupported = new StoreXattrCache(false);
+        assertEquals("hash", FormatterRun.getCached(unsupported, hashCache, file, KEY).toString());
+        assertEquals("hash", FormatterRun.getCached(unsupported, hashCache, file, KEY).toString());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void cachesTheEntryInTheCacheFileForTheStoresWithoutAttributes() {
+        PathStore paths = new PathStore(folder.getRoot());
+        FormatterTask task = new FormatterTask(paths, paths.add(file, KEY), null, null);
+        FormatterRun run = new FormatterRun(null, null, hashCache, null, null);
+        run.setXattrCache(new StoreXattrCache(false));
+        run.cache(task, "other|FORMATTED|5");
+        assertEquals(1, loads.get());
+        assertEquals("other|FORMATTED|5", run.getHashCache().get(KEY));
+    }
+
+    /**
+     * The extended attributes of a file store with or without user
+     * attributes
+     */
+    private static class StoreXattrCache extends XattrCache {
+
+        private final boolean supported;
+
+        StoreXattrCache(boolean supported) {
+            super("f1");
+            this.supported = supported;
+        }
+
+        @Override
+        public boolean isSupported(File file) {
+            return supported;
+        }
+
+    }
+
+}
@@ -0,0 +1,183 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.revelc.code.formatter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import dev.yracnet.formatter.FormatterHelp;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.revelc.code.formatter.cache.CacheEntry;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * The memory budget of the files in flight and the order the files are
+ * submitted to the scheduler.
+ *
+ * @author wyujra
+ */
+public class FormatterSchedulerTest {
+
+    private static final int KB = 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test(timeout = 30000)
+    public void startsTheFilesInTheBudgetOnly() throws Exception {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        List<Integer> available = Collections.synchronizedList(new ArrayList<>());
+        try ( FormatterScheduler scheduler = new FormatterScheduler(2, 4, false, 1024 * KB, 4, 0)) {
+            assertEquals(1024, scheduler.getBudget());
+            for (int i = 0; i < 4; i++) {
+                // over the half of the budget, one file at a time
+                scheduler.submit(100, 600 * KB, new Job(inFlight, peak, () -> available.add(scheduler.getAvailableBudget())));
+            }
+            // bigger than the whole budget, it takes the whole budget and runs alone
+            scheduler.submit(100, 4096 * KB, new Job(inFlight, peak, () -> available.add(scheduler.getAvailableBudget())));
+            scheduler.await();
+            assertEquals(1, peak.get());
+            assertEquals(Arrays.asList(424, 424, 424, 424, 0), available);
+            assertEquals(scheduler.getBudget(), scheduler.getAvailableBudget());
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void releasesTheBudgetOfTheFilesNotFormatted() throws Exception {
+        try ( FormatterScheduler scheduler = new FormatterScheduler(1, 1, false, 1024 * KB, 1, 0)) {
+            CountDownLatch failed = new CountDownLatch(1);
+            scheduler.submit(100, 1024 * KB, new Job(null, null, null) {
+                @Override
+                public boolean read() {
+                    return false;
+                }
+            });
+            scheduler.submit(100, 1024 * KB, new Job(null, null, null) {
+                @Override
+                public boolean format() {
+                    throw new IllegalStateException("Cannot format");
+                }
+
+                @Override
+                public void fail(Throwable e) {
+                    failed.countDown();
+                }
+            });
+            scheduler.submit(100, 1024 * KB, new Job(null, null, null));
+            scheduler.await();
+            assertTrue(failed.await(0, TimeUnit.SECONDS));
+            assertEquals(scheduler.getBudget(), scheduler.getAvailableBudget());
+        }
+    }
+
+    @Test
+    public void submitsTheMostExpensiveFilesOfAllTheRunsFirst() throws Exception {
+        File first = folder.newFolder("first");
+        File second = folder.newFolder("second");
+        write(first, "a.txt", 10);
+        write(first, "b.txt", 1000);
+        write(first, "c.txt", 100);
+        write(second, "d.txt", 300);
+        // the duration of the last format is the cost of the file, not its size
+        Properties cache = new Properties();
+        cache.setProperty(File.separator + "a.txt", new CacheEntry("0", CacheEntry.State.FORMATTED, 5).toString());
+        FormatterHelp.storeFileHashCache(cache, new File(first, "target"));
+
+        List<String> submitted = new ArrayList<>();
+        try ( FormatterScheduler scheduler = new FormatterScheduler(1, 1, false, 1024 * KB, 1, 0) {
+            @Override
+            public void submit(long fileSize, long estimatedBytes, FileJob job) {
+                submitted.add(((FormatterBuildImpl.FileJob) job).getTask().getFile().getName());
+            }
+        }) {
+            FormatterRegistry registry = new FormatterRegistry();
+            List<FormatterRun> runs = new ArrayList<>();
+            for (File basedir : new File[]{first, second}) {
+                runs.add(ScriptedFormatter.build(basedir, new ScriptedFormatter()).prepare(scheduler, registry));
+            }
+            FormatterRun.submit(scheduler, runs);
+        }
+        assertEquals(Arrays.asList("a.txt", "b.txt", "d.txt", "c.txt"), submitted);
+    }
+
+    private static void write(File basedir, String name, int size) throws IOException {
+        char[] code = new char[size];
+        Arrays.fill(code, name.charAt(0));
+        Files.write(new File(basedir, name).toPath(), new String(code).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * A file that counts the files between its read and its end
+     */
+    private static class Job implements FormatterScheduler.FileJob {
+
+        private final AtomicInteger inFlight;
+        private final AtomicInteger peak;
+        private final Runnable check;
+
+        Job(AtomicInteger inFlight, AtomicInteger peak, Runnable check) {
+            this.inFlight = inFlight;
+            this.peak = peak;
+            this.check = check;
+        }
+
+        @Override
+        public boolean read() {
+            if (inFlight != null) {
+                peak.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            }
+            return true;
+        }
+
+        @Override
+        public boolean format() {
+            if (check != null) {
+                check.run();
+            }
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return true;
+        }
+
+        @Override
+        public void write() {
+            if (inFlight != null) {
+                inFlight.decrementAndGet();
+            }
+        }
+
+        @Override
+        public void fail(Throwable e) {
+            throw new AssertionError(e);
+        }
+    }
+
+}
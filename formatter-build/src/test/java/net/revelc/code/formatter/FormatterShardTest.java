@@ -0,0 +1,151 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.revelc.code.formatter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import dev.yracnet.formatter.FormatterCacheMerge;
+import dev.yracnet.formatter.FormatterException;
+import dev.yracnet.formatter.FormatterHelp;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import net.revelc.code.formatter.cache.CacheJournal;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * The partition of the files between the shards and the merge of their
+ * cache fragments.
+ *
+ * @author wyujra
+ */
+public class FormatterShardTest {
+
+    private static final int FILES = 60;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private List<FormatterTask> tasks;
+
+    @Before
+    public void setUp() throws Exception {
+        File basedir = folder.newFolder("project");
+        PathStore paths = new PathStore(basedir);
+        String[] names = new String[FILES];
+        for (int i = 0; i < FILES; i++) {
+            names[i] = "File" + i + ".java";
+            // the cost of a file without formatter is its size
+            Files.write(new File(basedir, names[i]).toPath(), new byte[1 + (i * 37) % 500]);
+        }
+        tasks = new ArrayList<>();
+        for (int id : paths.addFiles(0, names)) {
+            tasks.add(new FormatterTask(paths, id, null, null));
+        }
+    }
+
+    @Test
+    public void parsesTheShard() throws FormatterException {
+        FormatterShard shard = FormatterShard.parse(" 2 / 3 ", true);
+        assertEquals(2, shard.getIndex());
+        assertEquals(3, shard.getCount());
+        assertEquals("2/3 balanced", shard.toString());
+        for (String invalid : new String[]{"0/3", "4/3", "1/0", "1", "a/b", "1/2/3"}) {
+            try {
+                FormatterShard.parse(invalid, false);
+                fail("The shard is invalid: " + invalid);
+            } catch (FormatterException e) {
+                assertTrue(e.getMessage().contains(invalid));
+            }
+        }
+    }
+
+    @Test
+    public void selectsEveryFileInOneShardByTheHash() {
+        assertPartition(false);
+    }
+
+    @Test
+    public void selectsEveryFileInOneShardBalancedByTheCost() {
+        long[] loads = assertPartition(true);
+        long max = 0;
+        for (FormatterTask task : tasks) {
+            max = Math.max(max, task.getCost());
+        }
+        // greedy on the most expensive first, the loads differ by one file at most
+        for (long load : loads) {
+            assertTrue(Math.abs(load - loads[0]) <= max);
+        }
+    }
+
+    @Test
+    public void mergesTheFragmentsOfTheShards() throws Exception {
+        File target = folder.newFolder("target");
+        Properties cache = new Properties();
+        cache.setProperty("/Kept.java", "kept");
+        cache.setProperty("/File1.java", "old");
+        FormatterHelp.storeFileHashCache(cache, target);
+        Properties first = new Properties();
+        first.setProperty("/File1.java", "first");
+        FormatterHelp.storeFileHashCache(first, target, FormatterHelp.getCacheFragmentName(1, 2));
+        // a killed shard has only its journal
+        File journal = new File(target, "formatter-cache.shard-2-of-2.journal.0-1");
+        Files.write(journal.toPath(), "/File2.java=second\n".getBytes(StandardCharsets.ISO_8859_1));
+
+        FormatterCacheMerge.main(new String[]{target.getPath()});
+        Properties merged = FormatterHelp.readFileHashCacheFile(target);
+        assertEquals("kept", merged.getProperty("/Kept.java"));
+        assertEquals("first", merged.getProperty("/File1.java"));
+        assertEquals("second", merged.getProperty("/File2.java"));
+        assertFalse(new File(target, FormatterHelp.getCacheFragmentName(1, 2)).exists());
+        assertFalse(journal.exists());
+        assertTrue(CacheJournal.getJournalFiles(new File(target, FormatterHelp.getCacheFragmentName(2, 2))).isEmpty());
+        assertEquals(0, FormatterHelp.mergeCacheFragments(target));
+    }
+
+    /**
+     * Assert every file is selected by one shard of three, the same on every
+     * call
+     *
+     * @return the cost of each shard
+     */
+    private long[] assertPartition(boolean balanced) {
+        Set<String> selected = new HashSet<>();
+        long[] loads = new long[3];
+        for (int i = 1; i <= 3; i++) {
+            FormatterShard shard = new FormatterShard(i, 3, balanced);
+            List<FormatterTask> own = shard.select(tasks);
+            assertFalse(own.isEmpty());
+            assertEquals(own, shard.select(new ArrayList<>(tasks)));
+            for (FormatterTask task : own) {
+                assertTrue(selected.add(task.getPath()));
+                loads[i - 1] += task.getCost();
+            }
+        }
+        assertEquals(FILES, selected.size());
+        return loads;
+    }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.revelc.code.formatter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeoutException;
+import org.junit.Test;
+
+/**
+ * The time budget and the cap of the abandoned formats.
+ *
+ * @author wyujra
+ */
+public class FormatterWatchdogTest {
+
+    @Test(timeout = 10000)
+    public void capsTheAbandonedFormats() throws Exception {
+        FormatterWatchdog watchdog = new FormatterWatchdog(1);
+        CountDownLatch hung = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        try {
+            watchdog.call(() -> {
+                started.countDown();
+                while (hung.getCount() > 0) {
+                    try {
+                        hung.await();
+                    } catch (InterruptedException e) {
+                        // ignored as the formatters that do not stop
+                    }
+                }
+                return "hung";
+            }, 100);
+            fail("The format exceeded the budget");
+        } catch (TimeoutException e) {
+            assertTrue(!(e instanceof FormatterWatchdog.BusyException));
+        }
+        started.await();
+        assertEquals(1, watchdog.getAbandoned());
+
+        CountDownLatch ran = new CountDownLatch(1);
+        try {
+            watchdog.call(() -> {
+                ran.countDown();
+                return "next";
+            }, 100);
+            fail("The format started over the cap");
+        } catch (FormatterWatchdog.BusyException e) {
+            assertEquals(1, ran.getCount());
+        }
+
+        hung.countDown();
+        assertEquals("next", watchdog.call(() -> "next", 5000));
+        assertEquals(0, watchdog.getAbandoned());
+    }
+
+    @Test
+    public void runsWithoutBudgetInTheCaller() throws Exception {
+        FormatterWatchdog watchdog = new FormatterWatchdog(1);
+        Thread caller = Thread.currentThread();
+        assertEquals("same", watchdog.call(() -> Thread.currentThread() == caller ? "same" : "other", 0));
+    }
+
+}
@@ -0,0 +1,212 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.revelc.code.formatter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * The examples of the gitignore documentation: the patterns of the
+ * .gitignore file at the root of the repository, the path, a directory or a
+ * file, and if the pattern matches it.
+ *
+ * @author wyujra
+ */
+public class GitIgnoreTest {
+
+    private static final boolean DIR = true;
+    private static final boolean FILE = false;
+
+    private static final Object[][] CASES = {
+        // a pattern without slash matches the name at any level
+        {"hello.*", "hello.txt", FILE, true},
+        {"hello.*", "a/b/hello.c", FILE, true},
+        {"hello.*", "hello", FILE, false},
+        {"*.o", "lib/x.o", FILE, true},
+        {"*.o", "lib/x.out", FILE, false},
+        // a trailing slash matches only directories
+        {"frotz/", "frotz", DIR, true},
+        {"frotz/", "a/frotz", DIR, true},
+        {"frotz/", "frotz", FILE, false},
+        // a slash at the start or in the middle anchors the pattern
+        {"doc/frotz/", "doc/frotz", DIR, true},
+        {"doc/frotz/", "a/doc/frotz", DIR, false},
+        {"/bar", "bar", FILE, true},
+        {"/bar", "a/bar", FILE, false},
+        {"doc/*.txt", "doc/notes.txt", FILE, true},
+        {"doc/*.txt", "doc/server/arch.txt", FILE, false},
+        {"foo/*", "foo/test.json", FILE, true},
+        {"foo/*", "foo/bar", DIR, true},
+        {"foo/*", "foo/bar/hello.c", FILE, false},
+        // two asterisks
+        {"**/foo", "foo", FILE, true},
+        {"**/foo", "a/b/foo", DIR, true},
+        {"**/foo/bar", "foo/bar", FILE, true},
+        {"**/foo/bar", "x/foo/bar", FILE, true},
+        {"**/foo/bar", "x/foo/baz", FILE, false},
+        {"abc/**", "abc/x", FILE, true},
+        {"abc/**", "abc/x/y", FILE, true},
+        {"abc/**", "abc", DIR, false},
+        {"abc/**", "x/abc/y", FILE, false},
+        {"a/**/b", "a/b", FILE, true},
+        {"a/**/b", "a/x/b", FILE, true},
+        {"a/**/b", "a/x/y/b", FILE, true},
+        {"a/**/b", "a/xb", FILE, false},
+        // other asterisks are ordinary
+        {"a**b", "axyb", FILE, true},
+        {"a**b", "ax/yb", FILE, false},
+        // wildcards
+        {"a?c", "abc", FILE, true},
+        {"a?c", "ac", FILE, false},
+        {"[a-c].txt", "b.txt", FILE, true},
+        {"[a-c].txt", "d.txt", FILE, false},
+        {"[!a].txt", "b.txt", FILE, true},
+        {"[!a].txt", "a.txt", FILE, false},
+        {"[^a].txt", "a.txt", FILE, false},
+        {"f[.]o", "f.o", FILE, true},
+        {"f[.]o", "fxo", FILE, false},
+        // comments, escapes and spaces
+        {"# comment", "# comment", FILE, false},
+        {"\\#hash", "#hash", FILE, true},
+        {"\\!important!.txt", "!important!.txt", FILE, true},
+        {"foo  ", "foo", FILE, true},
+        {"bar\\ ", "bar ", FILE, true},
+        {"bar\\ ", "bar", FILE, false},
+        {"a+b(c)", "a+b(c)", FILE, true},
+        {"a.b", "axb", FILE, false},
+        // the last matching pattern decides
+        {"*.log\n!keep.log", "keep.log", FILE, false},
+        {"*.log\n!keep.log", "other.log", FILE, true},
+        {"!keep.log\n*.log", "keep.log", FILE, true}
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void matchesTheDocumentedExamples() throws IOException {
+        List<String> failures = new ArrayList<>();
+        for (Object[] test : CASES) {
+            File root = folder.newFolder();
+            new File(root, ".git").mkdir();
+            write(new File(root, ".gitignore"), (String) test[0]);
+            GitIgnore ignore = GitIgnore.of(root).child(root, "");
+            if (ignore.isIgnored((String) test[1], (Boolean) test[2]) != (Boolean) test[3]) {
+                failures.add("'" + test[0] + "' on " + test[1] + " expected " + test[3]);
+            }
+        }
+        assertEquals(new ArrayList<>(), failures);
+    }
+
+    @Test
+    public void reincludesOnlyInsideADirectoryThatIsNotIgnored() throws IOException {
+        File root = repository("/*\n!/foo\n/foo/*\n!/foo/bar\n");
+        assertFalse(isIgnored(root, "foo", DIR));
+        assertFalse(isIgnored(root, "foo/bar", DIR));
+        assertFalse(isIgnored(root, "foo/bar/x.java", FILE));
+        assertTrue(isIgnored(root, "foo/baz", FILE));
+        assertTrue(isIgnored(root, "other", DIR));
+    }
+
+    @Test
+    public void appliesTheRulesOfTheDirectoryAndItsParents() throws IOException {
+        File root = repository("*.log\n");
+        write(new File(root, "src/.gitignore"), "/generated/\n!keep.log\n");
+        assertTrue(isIgnored(root, "a.log", FILE));
+        assertFalse(isIgnored(root, "src/keep.log", FILE));
+        assertTrue(isIgnored(root, "src/other.log", FILE));
+        assertTrue(isIgnored(root, "src/generated", DIR));
+        assertFalse(isIgnored(root, "generated", DIR));
+        assertFalse(isIgnored(root, "src/main/generated", DIR));
+    }
+
+    @Test
+    public void readsTheExcludeFileOfTheRepository() throws IOException {
+        File root = repository("");
+        write(new File(root, ".git/info/exclude"), "*.tmp\n");
+        assertTrue(isIgnored(root, "src/a.tmp", FILE));
+        // scanned from a subdirectory
+        File src = new File(root, "src");
+        assertTrue(GitIgnore.of(src).child(src, "").isIgnored("a.tmp", FILE));
+    }
+
+    @Test
+    public void aNestedRepositoryHasOnlyItsOwnRules() throws IOException {
+        File root = repository("*.log\n/nested/own.txt\n");
+        write(new File(root, "nested/.git/info/exclude"), "*.tmp\n");
+        write(new File(root, "nested/.gitignore"), "*.bak\n");
+        assertTrue(isIgnored(root, "a.log", FILE));
+        assertFalse(isIgnored(root, "nested/a.log", FILE));
+        assertFalse(isIgnored(root, "nested/own.txt", FILE));
+        assertTrue(isIgnored(root, "nested/a.tmp", FILE));
+        assertTrue(isIgnored(root, "nested/deep/a.bak", FILE));
+        assertFalse(isIgnored(root, "a.bak", FILE));
+    }
+
+    @Test
+    public void aSubmoduleReadsTheExcludeFileOfItsGitDirectory() throws IOException {
+        File root = repository("*.log\n");
+        write(new File(root, ".git/modules/sub/info/exclude"), "*.tmp\n");
+        write(new File(root, "sub/.git"), "gitdir: ../.git/modules/sub\n");
+        assertFalse(isIgnored(root, "sub/a.log", FILE));
+        assertTrue(isIgnored(root, "sub/a.tmp", FILE));
+        // scanned from the submodule
+        File sub = new File(root, "sub");
+        GitIgnore ignore = GitIgnore.of(sub).child(sub, "");
+        assertFalse(ignore.isIgnored("a.log", FILE));
+        assertTrue(ignore.isIgnored("a.tmp", FILE));
+    }
+
+    private File repository(String gitignore) throws IOException {
+        File root = folder.newFolder();
+        new File(root, ".git").mkdir();
+        write(new File(root, ".gitignore"), gitignore);
+        return root;
+    }
+
+    /**
+     * Walk the directories of the path as the scanner does: an ignored
+     * directory ignores all its content
+     */
+    private static boolean isIgnored(File root, String path, boolean directory) {
+        GitIgnore ignore = GitIgnore.of(root).child(root, "");
+        String[] segments = path.split("/");
+        String vpath = "";
+        for (int i = 0; i < segments.length - 1; i++) {
+            vpath += segments[i] + "/";
+            if (ignore.isIgnored(vpath, true)) {
+                return true;
+            }
+            ignore = ignore.child(new File(root, vpath), vpath);
+        }
+        return ignore.isIgnored(path, directory);
+    }
+
+    private static void write(File file, String content) throws IOException {
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.revelc.code.formatter;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * The cache keys of the trie, the same keys as the canonical path of each
+ * file relative to the canonical basedir.
+ *
+ * @author wyujra
+ */
+public class PathStoreTest {
+
+    private static final String[] FILES = {
+        "src/main/java/dev/A.java",
+        "src/main/java/dev/B.java",
+        "src/main/resources/a.xml",
+        "src/test/java/dev/ATest.java",
+        "pom.xml"
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File basedir;
+
+    @Before
+    public void setUp() throws IOException {
+        basedir = folder.newFolder("project");
+        for (String name : FILES) {
+            File file = new File(basedir, name);
+            file.getParentFile().mkdirs();
+            file.createNewFile();
+        }
+    }
+
+    @Test
+    public void hasTheKeysOfTheCanonicalPaths() throws IOException {
+        // a basedir that is not canonical is canonicalized once
+        PathStore paths = new PathStore(new File(basedir, "src/../."));
+        int[] ids = paths.addFiles(paths.addDirectory(basedir), relative(FILES));
+        String basedirPath = basedir.getCanonicalPath();
+        for (int i = 0; i < FILES.length; i++) {
+            File file = new File(basedir, FILES[i]);
+            assertEquals(file.getCanonicalPath().substring(basedirPath.length()), paths.getKey(ids[i]));
+            assertEquals(file.getCanonicalFile(), paths.getFile(ids[i]).getCanonicalFile());
+        }
+    }
+
+    @Test
+    public void hasTheSameKeysFromTheScannedDirectories() throws IOException {
+        PathStore paths = new PathStore(basedir);
+        int main = paths.addDirectory(new File(basedir, "src/main"));
+        int test = paths.addDirectory(new File(basedir, "src/test"));
+        int[] ids = paths.addFiles(main, relative("java/dev/A.java", "java/dev/B.java"));
+        int[] tests = paths.addFiles(test, relative("java/dev/ATest.java"));
+        assertEquals(key("src/main/java/dev/A.java"), paths.getKey(ids[0]));
+        assertEquals(key("src/main/java/dev/B.java"), paths.getKey(ids[1]));
+        assertEquals(key("src/test/java/dev/ATest.java"), paths.getKey(tests[0]));
+        assertEquals(0, paths.addDirectory(basedir));
+        assertEquals(main, paths.addDirectory(new File(basedir, "src/main")));
+        // the root, src, main, test, java and dev of each, and the three files
+        assertEquals(11, paths.size());
+    }
+
+    @Test
+    public void keysADirectoryOutsideTheBasedirByItsCanonicalPath() throws IOException {
+        File outside = folder.newFolder("shared");
+        new File(outside, "c.xml").createNewFile();
+        PathStore paths = new PathStore(basedir);
+        int[] ids = paths.addFiles(paths.addDirectory(outside), relative("c.xml"));
+        assertEquals(new File(outside, "c.xml").getCanonicalPath(), paths.getKey(ids[0]));
+        assertEquals(new File(outside, "c.xml").getCanonicalFile(), paths.getFile(ids[0]).getCanonicalFile());
+    }
+
+    private String key(String name) throws IOException {
+        return new File(basedir, name).getCanonicalPath().substring(basedir.getCanonicalPath().length());
+    }
+
+    private static String[] relative(String... names) {
+        String[] relative = new String[names.length];
+        for (int i = 0; i < names.length; i++) {
+            relative[i] = names[i].replace('/', File.separatorChar);
+        }
+        return relative;
+    }
+
+}
@@ -0,0 +1,128 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.revelc.code.formatter;
+
+import dev.yracnet.formatter.FormatterBuild;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.revelc.code.formatter.json.JsonFormatter;
+
+/**
+ * Formatter of the .txt files for the tests, its behaviour comes from the
+ * code: a code with <code>fail</code> cannot be formatted, a code with
+ * <code>hang</code> runs until {@link #releaseHung()} ignoring the
+ * interruption as the JDT formatter, a code with <code>grow</code> changes
+ * on every format. Other code is formatted to upper case.
+ *
+ * @author wyujra
+ */
+public class ScriptedFormatter extends JsonFormatter {
+
+    private static final AtomicInteger FORMATS = new AtomicInteger();
+    private static final AtomicInteger HANGING = new AtomicInteger();
+    private static volatile CountDownLatch hung = new CountDownLatch(1);
+
+    public ScriptedFormatter() {
+        extensions = new String[]{".txt"};
+        fileConfig = "formatter-config/jackson/json.properties";
+    }
+
+    @Override
+    protected String doFormat(String code, LineEnding ending) throws IOException {
+        FORMATS.incrementAndGet();
+        if (code.contains("fail")) {
+            throw new IOException("Cannot format the failing code");
+        }
+        if (code.contains("hang")) {
+            CountDownLatch latch = hung;
+            HANGING.incrementAndGet();
+            try {
+                while (latch.getCount() > 0) {
+                    try {
+                        latch.await();
+                    } catch (InterruptedException e) {
+                        // ignored as the formatters that do not stop
+                    }
+                }
+            } finally {
+                HANGING.decrementAndGet();
+            }
+        }
+        if (code.contains("grow")) {
+            return code + "+";
+        }
+        String formattedCode = code.toUpperCase();
+        return formattedCode.equals(code) ? null : formattedCode;
+    }
+
+    /**
+     * Number of codes formatted by all the instances
+     *
+     * @return
+     */
+    public static int getFormats() {
+        return FORMATS.get();
+    }
+
+    /**
+     * Number of codes hung now
+     *
+     * @return
+     */
+    public static int getHanging() {
+        return HANGING.get();
+    }
+
+    /**
+     * End the formats of the hung codes, the next ones hang again
+     */
+    public static void releaseHung() {
+        CountDownLatch latch = hung;
+        hung = new CountDownLatch(1);
+        latch.countDown();
+    }
+
+    /**
+     * A build of the .txt files of the basedir with this formatter, the
+     * cache in the target directory of the basedir
+     *
+     * @param basedir
+     * @param formatter the scripted formatter
+     * @return
+     */
+    public static FormatterBuildImpl build(File basedir, ScriptedFormatter formatter) {
+        FormatterBuildImpl build = (FormatterBuildImpl) FormatterBuild.create();
+        build.setBasedir(basedir);
+        build.setTargetDirectory(new File(basedir, "target"));
+        build.setIncludes(new String[]{"**/*.txt"});
+        build.setEncoding("UTF-8");
+        build.setLineEnding(LineEnding.LF);
+        build.setJsonFormatterConfig(formatter);
+        return build;
+    }
+
+    /**
+     * The scripted formatter for a formatter that is not thread safe
+     */
+    public static class Exclusive extends ScriptedFormatter {
+
+        @Override
+        protected boolean isThreadSafe() {
+            return false;
+        }
+    }
+
+}
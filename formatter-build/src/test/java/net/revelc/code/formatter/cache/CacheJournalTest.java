@@ -0,0 +1,182 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.revelc.code.formatter.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * The builds that share the cache file: the concurrent commits, the replay
+ * of the segments of the dead builds and the segments of this process.
+ *
+ * @author wyujra
+ */
+public class CacheJournalTest {
+
+    private static final int ENTRIES = 200;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = new File(folder.newFolder("target"), "formatter-cache.properties");
+    }
+
+    @Test(timeout = 30000)
+    public void keepsTheEntriesOfTheJournalsCommittedConcurrently() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            CountDownLatch appended = new CountDownLatch(2);
+            List<Future<?>> builds = new ArrayList<>();
+            for (String build : new String[]{"a", "b"}) {
+                builds.add(executor.submit(() -> {
+                    try ( CacheJournal journal = new CacheJournal(file, 0)) {
+                        for (int i = 0; i < ENTRIES; i++) {
+                            journal.append("/" + build + i, "hash" + i);
+                        }
+                        appended.countDown();
+                        appended.await();
+                        journal.commit(cache -> {
+                        });
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> build : builds) {
+                build.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Properties cache = CacheJournal.read(file);
+        assertEquals(2 * ENTRIES, cache.size());
+        for (int i = 0; i < ENTRIES; i++) {
+            assertEquals("hash" + i, cache.getProperty("/a" + i));
+            assertEquals("hash" + i, cache.getProperty("/b" + i));
+        }
+        assertTrue(CacheJournal.getJournalFiles(file).isEmpty());
+    }
+
+    @Test
+    public void replaysTheSegmentOfADeadBuild() throws Exception {
+        Properties stored = new Properties();
+        stored.setProperty("/kept", "old");
+        stored.setProperty("/changed", "old");
+        CacheJournal.store(stored, file);
+        // a build of other process killed while it appended the last line
+        File segment = new File(file.getParentFile(), "formatter-cache.journal.0-1");
+        Files.write(segment.toPath(), "/changed=new\n/added=new\n/torn=ne".getBytes(StandardCharsets.ISO_8859_1));
+
+        CacheJournal journal = new CacheJournal(file, 0);
+        Properties cache = journal.load();
+        assertEquals(2, journal.getReplayed());
+        assertEquals("old", cache.getProperty("/kept"));
+        assertEquals("new", cache.getProperty("/changed"));
+        assertEquals("new", cache.getProperty("/added"));
+        assertNull(cache.getProperty("/torn"));
+
+        journal.append("/own", "new");
+        journal.commit(merged -> {
+        });
+        assertFalse(segment.exists());
+        cache = CacheJournal.read(file);
+        assertEquals(4, cache.size());
+        assertEquals("new", cache.getProperty("/changed"));
+        assertEquals("new", cache.getProperty("/own"));
+    }
+
+    @Test
+    public void keepsTheLiveSegmentOfABuildOfThisProcess() throws Exception {
+        try ( CacheJournal live = new CacheJournal(file, 0)) {
+            live.append("/live", "first");
+            File segment = live.getJournal();
+            assertTrue(segment.exists());
+
+            // the live segment is answered by the registry, not reopened
+            CacheJournal other = new CacheJournal(file, 0);
+            Properties cache = other.load();
+            assertEquals(0, other.getReplayed());
+            assertEquals("first", cache.getProperty("/live"));
+            other.append("/other", "value");
+            other.commit(merged -> {
+            });
+            assertTrue(segment.exists());
+            assertEquals(CacheJournal.getJournalFiles(file), List.of(segment));
+            // closing any channel of the segment in this process would release the lock
+            assertTrue(isLockedForOtherProcess(segment));
+
+            // the segment is still the own journal of the live build
+            live.append("/live", "second");
+            assertEquals("second", CacheJournal.read(file).getProperty("/live"));
+            live.commit(merged -> {
+            });
+            assertFalse(segment.exists());
+        }
+        Properties cache = CacheJournal.read(file);
+        assertEquals("second", cache.getProperty("/live"));
+        assertEquals("value", cache.getProperty("/other"));
+        assertTrue(CacheJournal.getJournalFiles(file).isEmpty());
+    }
+
+    /**
+     * Probe the liveness lock of the segment from other process, as the
+     * builds of other processes do
+     */
+    private static boolean isLockedForOtherProcess(File segment) throws Exception {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        Process probe = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                CacheJournalTest.class.getName(), segment.getAbsolutePath()).inheritIO().start();
+        assertTrue(probe.waitFor(20, TimeUnit.SECONDS));
+        return probe.exitValue() == 0;
+    }
+
+    /**
+     * Exit with 0 if the liveness lock of the segment is held
+     *
+     * @param args the segment
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        try ( FileChannel channel = FileChannel.open(Paths.get(args[0]), StandardOpenOption.WRITE)) {
+            FileLock lock = channel.tryLock(Long.MAX_VALUE - 1, 1, false);
+            System.exit(lock == null ? 0 : 1);
+        }
+    }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.revelc.code.formatter.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import org.junit.Test;
+
+/**
+ * Pruning, eviction and the namespaces of the builds that share the target.
+ *
+ * @author wyujra
+ */
+public class CacheMaintenanceTest {
+
+    private static final String HASH = "0123456789abcdef0123456789abcdef";
+
+    @Test
+    public void prunesTheEntriesNotScannedInTheLastRuns() {
+        Properties cache = cache("/a", "/b");
+        cache.setProperty("/bad", HASH + "|UNKNOWN|0");
+        run(cache, "one", 2, 0, 0, "/a", "/b");
+        assertNull(cache.getProperty("/bad"));
+        run(cache, "one", 2, 0, 0, "/a");
+        run(cache, "one", 2, 0, 0, "/a");
+        assertNotNull(cache.getProperty("/b"));
+        CacheMaintenance maintenance = run(cache, "one", 2, 0, 0, "/a");
+        assertNull(cache.getProperty("/b"));
+        assertNotNull(cache.getProperty("/a"));
+        assertEquals(4, maintenance.getRun());
+        assertEquals(1, maintenance.getPruned());
+        assertEquals(1, maintenance.getEntries());
+    }
+
+    @Test
+    public void keepsOnlyTheLastRunWithoutAge() {
+        Properties cache = cache("/a", "/b");
+        CacheMaintenance maintenance = run(cache, "one", 0, 0, 0, "/a");
+        assertNotNull(cache.getProperty("/a"));
+        assertNull(cache.getProperty("/b"));
+        assertEquals(1, maintenance.getPruned());
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyScannedOverTheEntries() {
+        Properties cache = cache("/a", "/b", "/c");
+        run(cache, "one", 10, 0, 0, "/a");
+        run(cache, "one", 10, 0, 0, "/c");
+        CacheMaintenance maintenance = run(cache, "one", 10, 2, 0, "/b");
+        assertNull(cache.getProperty("/a"));
+        assertNotNull(cache.getProperty("/b"));
+        assertNotNull(cache.getProperty("/c"));
+        assertEquals(1, maintenance.getEvicted());
+        assertEquals(2, maintenance.getEntries());
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyScannedOverTheBytes() {
+        Properties cache = cache("/a", "/b", "/c");
+        run(cache, "one", 10, 0, 0, "/a");
+        run(cache, "one", 10, 0, 0, "/b");
+        // the entries of the three files do not fit, the entries of two do
+        Properties uncapped = new Properties();
+        uncapped.putAll(cache);
+        run(uncapped, "one", 10, 0, 0, "/c");
+        long bytes = size(uncapped, "/b") + size(uncapped, "/c");
+        CacheMaintenance maintenance = run(cache, "one", 10, 0, bytes, "/c");
+        assertNull(cache.getProperty("/a"));
+        assertNotNull(cache.getProperty("/b"));
+        assertNotNull(cache.getProperty("/c"));
+        assertEquals(1, maintenance.getEvicted());
+        assertEquals(bytes, maintenance.getBytes());
+    }
+
+    @Test
+    public void doesNotAgeTheEntriesOfTheOtherBuilds() {
+        // each build stamps its entry first, the entries of no build are aged by all
+        Properties cache = cache("/one");
+        run(cache, "one", 0, 0, 0, "/one");
+        cache.setProperty("/two", HASH);
+        run(cache, "two", 0, 0, 0, "/two");
+        for (int i = 1; i < 20; i++) {
+            run(cache, "one", 0, 0, 0, "/one");
+            run(cache, "two", 0, 0, 0, "/two");
+        }
+        assertNotNull(cache.getProperty("/one"));
+        assertNotNull(cache.getProperty("/two"));
+        assertEquals(21, run(cache, "one", 0, 0, 0, "/one").getRun());
+
+        // over the caps a build evicts only its own entries
+        cache.setProperty("/three", HASH);
+        CacheMaintenance maintenance = run(cache, "two", 0, 2, 0, "/two", "/three");
+        assertEquals(1, maintenance.getEvicted());
+        assertNotNull(cache.getProperty("/one"));
+        assertEquals(2, maintenance.getEntries());
+    }
+
+    @Test
+    public void continuesTheRunsOfTheCacheBeforeTheNamespaces() {
+        Properties cache = new Properties();
+        cache.setProperty(CacheMaintenance.RUN_KEY, "5");
+        cache.setProperty("/a", new CacheEntry(HASH, CacheEntry.State.FORMATTED, 0, 5).toString());
+        cache.setProperty("/b", new CacheEntry(HASH, CacheEntry.State.FORMATTED, 0, 3).toString());
+        CacheMaintenance maintenance = run(cache, "one", 1, 0, 0);
+        assertEquals(6, maintenance.getRun());
+        assertNotNull(cache.getProperty("/a"));
+        assertNull(cache.getProperty("/b"));
+    }
+
+    private static Properties cache(String... keys) {
+        Properties cache = new Properties();
+        for (String key : keys) {
+            cache.setProperty(key, HASH);
+        }
+        return cache;
+    }
+
+    private static long size(Properties cache, String key) {
+        return key.length() + cache.getProperty(key).length() + 2;
+    }
+
+    private static CacheMaintenance run(Properties cache, String namespace, int maxAge, int maxEntries, long maxBytes, String... scanned) {
+        Set<String> keys = new HashSet<>(Arrays.asList(scanned));
+        CacheMaintenance maintenance = new CacheMaintenance(namespace, maxAge, maxEntries, maxBytes);
+        maintenance.apply(cache, keys::contains);
+        return maintenance;
+    }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.revelc.code.formatter.cache;
+
+import com.google.common.hash.Hashing;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Benchmark of the hash cache of a run: the heap and the lookups by second
+ * of {@link Properties} and {@link HashCacheTable} with the same entries.
+ * A lookup gets the {@link CacheEntry} of a path, as the scan of a run, from
+ * parallel threads; fails when an entry differs.
+ *
+ * Usage: HashCacheTableBenchmark [entries] [threads]
+ *
+ * @author wyujra
+ */
+public class HashCacheTableBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int entries = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        System.out.println("Entries: " + entries + ", threads: " + threads);
+
+        long heap = usedHeap();
+        Properties properties = new Properties();
+        for (int i = 0; i < entries; i++) {
+            properties.setProperty(path(i), value(i));
+        }
+        long propertiesBytes = usedHeap() - heap;
+
+        heap = usedHeap();
+        HashCacheTable table = new HashCacheTable();
+        for (int i = 0; i < entries; i++) {
+            table.put(path(i), value(i));
+        }
+        long tableBytes = usedHeap() - heap;
+
+        for (int i = 0; i < entries; i++) {
+            String path = path(i);
+            if (!properties.getProperty(path).equals(table.get(path))) {
+                throw new IllegalStateException("Different entry of " + path);
+            }
+        }
+        if (table.get("/missing") != null || table.size() != entries) {
+            throw new IllegalStateException("Size " + table.size() + " of " + entries);
+        }
+
+        // the paths of the lookups exist before the measures, as the paths of the scan
+        String[] lookups = new String[entries];
+        Random random = new Random(1);
+        for (int i = 0; i < entries; i++) {
+            lookups[i] = path(random.nextInt(entries));
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            double propertiesRate = 0;
+            double tableRate = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                propertiesRate = Math.max(propertiesRate, lookups(pool, threads, lookups, path -> CacheEntry.parse(properties.getProperty(path))));
+                tableRate = Math.max(tableRate, lookups(pool, threads, lookups, table::getEntry));
+            }
+            System.out.printf("%-16s %10s %14s%n", "", "bytes/entry", "lookups/sec");
+            System.out.printf("%-16s %10d %14.0f%n", "Properties", propertiesBytes / entries, propertiesRate);
+            System.out.printf("%-16s %10d %14.0f%n", "HashCacheTable", tableBytes / entries, tableRate);
+            System.out.println("Side table: " + table.getSideSize() + " entries, slots: " + table.getSlotBytes() / 1024 / 1024 + "MB");
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Lookups by second of all the paths, split between the threads
+     */
+    private static double lookups(ExecutorService pool, int threads, String[] paths, Function<String, CacheEntry> lookup) throws Exception {
+        long start = System.nanoTime();
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int from = paths.length * t / threads;
+            int to = paths.length * (t + 1) / threads;
+            futures.add(pool.submit(() -> {
+                int found = 0;
+                for (int i = from; i < to; i++) {
+                    if (lookup.apply(paths[i]) != null) {
+                        found++;
+                    }
+                }
+                return found;
+            }));
+        }
+        int found = 0;
+        for (Future<Integer> future : futures) {
+            found += future.get();
+        }
+        if (found != paths.length) {
+            throw new IllegalStateException(found + " found of " + paths.length);
+        }
+        return paths.length * 1e9 / (System.nanoTime() - start);
+    }
+
+    private static String path(int i) {
+        return "/src/main/java/net/example/module" + (i % 100) + "/package" + (i % 1000) + "/Source" + i + ".java";
+    }
+
+    private static String value(int i) {
+        String hash = Hashing.sha512().hashInt(i).toString();
+        return i % 4 == 0 ? hash : new CacheEntry(hash, CacheEntry.State.FORMATTED, i % 5000, 1 + i % 7).toString();
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+}
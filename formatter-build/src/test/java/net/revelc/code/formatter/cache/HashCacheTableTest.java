@@ -0,0 +1,319 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.revelc.code.formatter.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.ToLongFunction;
+import org.junit.Test;
+
+/**
+ *
+ * @author wyujra
+ */
+public class HashCacheTableTest {
+
+    private static final String[] VALUES = {
+        hash(1),
+        hash(2) + "|TIMEOUT|1500",
+        hash(3) + "|QUARANTINED|0|7",
+        hash(4) + "|FORMATTED|12|" + ((1L << 28) - 1)
+    };
+
+    // every path has the same 64 bit hash, only the first one fits in the slots
+    private static final ToLongFunction<String> SAME_KEY = path -> 42;
+    // different keys in the same probe chain, spread over the stripes
+    private static final ToLongFunction<String> SAME_INDEX = path -> ((long) path.hashCode() << 40) | 1;
+
+    @Test
+    public void roundTripsTheCanonicalEntries() {
+        HashCacheTable table = new HashCacheTable();
+        for (int i = 0; i < VALUES.length; i++) {
+            assertNull(table.put("src/File" + i + ".java", VALUES[i]));
+        }
+        for (int i = 0; i < VALUES.length; i++) {
+            assertEquals(VALUES[i], table.get("src/File" + i + ".java"));
+            assertEquals(VALUES[i], table.getEntry("src/File" + i + ".java").toString());
+        }
+        assertEquals(0, table.getSideSize());
+        assertEquals(VALUES.length, table.size());
+        assertNull(table.get("src/Other.java"));
+    }
+
+    @Test
+    public void keepsTheOtherValuesAsText() {
+        String[] values = {
+            hash(5).toUpperCase(),
+            "abc",
+            "abc|NOT_A_STATE",
+            hash(6) + "|FAILED|20|3|fingerprint|Unexpected end of input",
+            hash(7) + "|UNSTABLE|20|3||",
+            hash(8) + "|FORMATTED|20|" + (1L << 28),
+            hash(9) + "|TIMEOUT|-1",
+            hash(10) + "|FORMATTED|0|0"
+        };
+        HashCacheTable table = new HashCacheTable();
+        for (int i = 0; i < values.length; i++) {
+            table.put("File" + i, values[i]);
+        }
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(values[i], table.get("File" + i));
+        }
+        assertEquals(values.length, table.getSideSize());
+        assertEquals(values.length, table.size());
+    }
+
+    @Test
+    public void roundTripsTheFailedEntryWithItsDetails() {
+        CacheEntry failed = new CacheEntry(hash(1), CacheEntry.State.FAILED, 20, 3, "fingerprint", "Unexpected | end\nof input");
+        HashCacheTable table = new HashCacheTable();
+        table.put("File", failed.toString());
+        assertEquals(1, table.getSideSize());
+        CacheEntry entry = table.getEntry("File");
+        assertEquals(CacheEntry.State.FAILED, entry.getState());
+        assertEquals(20, entry.getDuration());
+        assertEquals(3, entry.getRun());
+        assertEquals("fingerprint", entry.getFingerprint());
+        assertEquals("Unexpected   end of input", entry.getReason());
+        assertTrue(entry.isSameContent(hash(1)));
+        assertTrue(entry.isSameFormatter("fingerprint"));
+        assertEquals(failed.toString(), entry.toString());
+    }
+
+    @Test
+    public void replacesAnEntryOfTheSideTable() {
+        HashCacheTable table = new HashCacheTable();
+        String failed = hash(1) + "|FAILED|20|3|fingerprint|reason";
+        assertNull(table.put("File", failed));
+        assertEquals(failed, table.put("File", VALUES[1]).toString());
+        assertEquals(VALUES[1], table.get("File"));
+        assertEquals(0, table.getSideSize());
+        assertEquals(1, table.size());
+        assertEquals(VALUES[1], table.put("File", failed).toString());
+        assertEquals(failed, table.get("File"));
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    public void countsOnceThePathsMovedToTheSideTable() {
+        HashCacheTable table = new HashCacheTable();
+        String failed = hash(1) + "|FAILED|20|3|fingerprint|reason";
+        for (int i = 0; i < 100; i++) {
+            table.put("File" + i, VALUES[i % VALUES.length]);
+        }
+        for (int i = 0; i < 100; i += 2) {
+            table.put("File" + i, failed);
+        }
+        assertEquals(100, table.size());
+        assertEquals(50, table.getSideSize());
+        // the resizes drop the removed slots
+        for (int i = 100; i < 1000; i++) {
+            table.put("File" + i, VALUES[i % VALUES.length]);
+        }
+        assertEquals(1000, table.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i % 2 == 0 ? failed : VALUES[i % VALUES.length], table.get("File" + i));
+        }
+        // back to the slots
+        for (int i = 0; i < 100; i += 2) {
+            assertEquals(failed, table.put("File" + i, VALUES[0]).toString());
+        }
+        assertEquals(0, table.getSideSize());
+        assertEquals(1000, table.size());
+        assertEquals(VALUES[0], table.get("File0"));
+    }
+
+    @Test
+    public void keepsThePathsWithTheSameHash() {
+        HashCacheTable table = new HashCacheTable(0, SAME_KEY);
+        for (int i = 0; i < 200; i++) {
+            table.put("File" + i, VALUES[i % VALUES.length]);
+        }
+        for (int i = 0; i < 200; i++) {
+            assertEquals(VALUES[i % VALUES.length], table.get("File" + i));
+        }
+        assertEquals(200, table.size());
+        assertEquals(199, table.getSideSize());
+        assertNull(table.get("Other"));
+        // an update of a path in the side table stays there
+        table.put("File1", VALUES[0]);
+        assertEquals(VALUES[0], table.get("File1"));
+        assertEquals(200, table.size());
+    }
+
+    @Test
+    public void probesAcrossTheResizes() {
+        HashCacheTable table = new HashCacheTable(0, SAME_INDEX);
+        long bytes = table.getSlotBytes();
+        for (int i = 0; i < 2000; i++) {
+            table.put("File" + i, VALUES[i % VALUES.length]);
+        }
+        assertTrue(table.getSlotBytes() > bytes);
+        for (int i = 0; i < 2000; i++) {
+            assertEquals(VALUES[i % VALUES.length], table.get("File" + i));
+        }
+        assertEquals(2000, table.size());
+    }
+
+    @Test
+    public void concurrentWritersAcrossTheResizes() throws Exception {
+        check(new HashCacheTable(), 8, 5000);
+        check(new HashCacheTable(0, SAME_INDEX), 8, 500);
+    }
+
+    @Test
+    public void concurrentReadersNeverSeeAHalfWrittenEntry() throws Exception {
+        HashCacheTable table = new HashCacheTable(0, SAME_INDEX);
+        int paths = 256;
+        for (int i = 0; i < paths; i++) {
+            table.put("File" + i, VALUES[0]);
+        }
+        AtomicBoolean running = new AtomicBoolean(true);
+        ExecutorService pool = Executors.newFixedThreadPool(6);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 2; t++) {
+                int writer = t;
+                futures.add(pool.submit(() -> {
+                    for (int round = 0; running.get(); round++) {
+                        for (int i = writer; i < paths; i += 2) {
+                            table.put("File" + i, VALUES[round % VALUES.length]);
+                        }
+                    }
+                }));
+            }
+            for (int t = 0; t < 4; t++) {
+                futures.add(pool.submit(() -> {
+                    for (int round = 0; round < 200; round++) {
+                        for (int i = 0; i < paths; i++) {
+                            String value = table.get("File" + i);
+                            if (!isValue(value)) {
+                                fail("File" + i + " = " + value);
+                            }
+                        }
+                    }
+                }));
+            }
+            for (int i = 2; i < futures.size(); i++) {
+                futures.get(i).get(60, TimeUnit.SECONDS);
+            }
+            running.set(false);
+            futures.get(0).get(10, TimeUnit.SECONDS);
+            futures.get(1).get(10, TimeUnit.SECONDS);
+        } finally {
+            running.set(false);
+            pool.shutdownNow();
+        }
+        assertEquals(paths, table.size());
+        assertEquals(0, table.getSideSize());
+    }
+
+    /**
+     * Each writer puts its own paths from the smallest table while the
+     * readers check every path they find
+     */
+    private static void check(HashCacheTable table, int writers, int paths) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(writers * 2);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean running = new AtomicBoolean(true);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int w = 0; w < writers; w++) {
+                int writer = w;
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < paths; i++) {
+                        table.put(path(writer, i), value(writer, i));
+                    }
+                    return null;
+                }));
+            }
+            List<Future<?>> readers = new ArrayList<>();
+            for (int r = 0; r < writers; r++) {
+                int reader = r;
+                readers.add(pool.submit(() -> {
+                    start.await();
+                    while (running.get()) {
+                        for (int i = 0; i < paths; i += 7) {
+                            String value = table.get(path(reader, i));
+                            if (value != null && !value.equals(value(reader, i))) {
+                                fail(path(reader, i) + " = " + value);
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+            running.set(false);
+            for (Future<?> future : readers) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            running.set(false);
+            pool.shutdownNow();
+        }
+        assertEquals(writers * paths, table.size());
+        for (int w = 0; w < writers; w++) {
+            for (int i = 0; i < paths; i++) {
+                assertEquals(value(w, i), table.get(path(w, i)));
+            }
+        }
+    }
+
+    private static boolean isValue(String value) {
+        for (String known : VALUES) {
+            if (known.equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String path(int writer, int index) {
+        return "src/w" + writer + "/File" + index + ".java";
+    }
+
+    private static String value(int writer, int index) {
+        return hash(writer * 1_000_000 + index) + "|FORMATTED|" + index + "|" + writer;
+    }
+
+    /**
+     * A lower case 512 bit hash made of the seed
+     */
+    private static String hash(long seed) {
+        StringBuilder hash = new StringBuilder();
+        long value = seed;
+        for (int i = 0; i < 8; i++) {
+            value = value * 0x9e3779b97f4a7c15L + 0x632be59bd9b4e019L;
+            hash.append(String.format("%016x", value));
+        }
+        return hash.toString();
+    }
+
+}
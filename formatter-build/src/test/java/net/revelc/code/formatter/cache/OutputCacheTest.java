@@ -0,0 +1,77 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.revelc.code.formatter.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * The eviction of the least recently used codes by entries and by bytes.
+ *
+ * @author wyujra
+ */
+public class OutputCacheTest {
+
+    // the estimated size of a key of two chars and a value of ten chars
+    private static final long ENTRY_BYTES = 56 + 2 * 2 + 56 + 2 * 10;
+
+    @Test
+    public void evictsTheLeastRecentlyUsedOverTheEntries() {
+        OutputCache cache = new OutputCache(2, Long.MAX_VALUE);
+        cache.put("k1", "formatted1");
+        cache.put("k2", "formatted2");
+        assertEquals("formatted1", cache.get("k1"));
+        cache.put("k3", "formatted3");
+        assertNull(cache.get("k2"));
+        assertEquals("formatted1", cache.get("k1"));
+        assertEquals("formatted3", cache.get("k3"));
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertEquals(3, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedOverTheBytes() {
+        OutputCache cache = new OutputCache(100, 2 * ENTRY_BYTES + 10);
+        cache.put("k1", "formatted1");
+        cache.put("k2", "formatted2");
+        assertEquals(2 * ENTRY_BYTES, cache.getBytes());
+        cache.get("k1");
+        cache.put("k3", "formatted3");
+        assertNull(cache.get("k2"));
+        assertEquals(2, cache.size());
+        assertEquals(2 * ENTRY_BYTES, cache.getBytes());
+        assertEquals(1, cache.getEvictions());
+
+        // a bigger value of a cached key evicts the others
+        cache.put("k1", "formatted1formatted1formatted1");
+        assertNull(cache.get("k3"));
+        assertEquals(1, cache.size());
+        assertEquals(ENTRY_BYTES + 2 * 20, cache.getBytes());
+    }
+
+    @Test
+    public void doesNotCacheACodeOverTheBytes() {
+        OutputCache cache = new OutputCache(100, ENTRY_BYTES - 1);
+        cache.put("k1", "formatted1");
+        assertNull(cache.get("k1"));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getBytes());
+        assertEquals(0, cache.getEvictions());
+    }
+
+}
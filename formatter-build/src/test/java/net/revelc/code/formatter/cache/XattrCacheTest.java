@@ -0,0 +1,53 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.revelc.code.formatter.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.util.Collections;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * The entries in the extended attributes, on a file system with user
+ * attributes.
+ *
+ * @author wyujra
+ */
+public class XattrCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void storesTheFingerprintWithTheEntryInOneAttribute() throws Exception {
+        File file = folder.newFile("Main.java");
+        XattrCache cache = new XattrCache("f1");
+        assumeTrue(cache.isSupported(file) && cache.put(file, "hash|FORMATTED|12"));
+        assertEquals("hash|FORMATTED|12", cache.get(file));
+        UserDefinedFileAttributeView view = Files.getFileAttributeView(file.toPath(), UserDefinedFileAttributeView.class);
+        assertEquals(Collections.singletonList(XattrCache.HASH), view.list());
+
+        assertNull(new XattrCache("f2").get(file));
+        assertNull(new XattrCache("f").get(file));
+        assertNull(cache.get(folder.newFile("Other.java")));
+    }
+
+}
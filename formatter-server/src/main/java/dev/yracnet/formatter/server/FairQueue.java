@@ -0,0 +1,144 @@
+/*
+ * Copyright 2020 wyujra.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.yracnet.formatter.server;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Queue with one lane per client, served round-robin: a client that sends a
+ * batch of thousand files waits behind itself, not in front of the others.
+ * Each client can have a limited number of pending items.
+ *
+ * @param <T> the item
+ * @author wyujra
+ */
+public class FairQueue<T> {
+
+    private final int maxPendingPerClient;
+    private final Map<String, ArrayDeque<T>> lanes = new HashMap<>();
+    private final ArrayDeque<String> turns = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private int size;
+    private boolean closed;
+
+    public FairQueue(int maxPendingPerClient) {
+        this.maxPendingPerClient = maxPendingPerClient;
+    }
+
+    /**
+     * Add all items to the lane of the client, all or nothing
+     *
+     * @param client the client id
+     * @param items the items
+     * @return false if the client would exceed its pending limit or the
+     * queue is closed
+     */
+    public boolean offer(String client, Collection<T> items) {
+        lock.lock();
+        try {
+            ArrayDeque<T> lane = lanes.get(client);
+            int pending = lane == null ? 0 : lane.size();
+            if (closed || pending + items.size() > maxPendingPerClient) {
+                return false;
+            }
+            if (lane == null) {
+                lane = new ArrayDeque<>();
+                lanes.put(client, lane);
+                turns.addLast(client);
+            }
+            lane.addAll(items);
+            size += items.size();
+            notEmpty.signalAll();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Take the next item of the next client, waiting for one
+     *
+     * @return the item or null when the queue is closed and empty
+     * @throws InterruptedException
+     */
+    public T take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (size == 0) {
+                if (closed) {
+                    return null;
+                }
+                notEmpty.await();
+            }
+            String client = turns.pollFirst();
+            ArrayDeque<T> lane = lanes.get(client);
+            T item = lane.pollFirst();
+            size--;
+            if (lane.isEmpty()) {
+                lanes.remove(client);
+            } else {
+                turns.addLast(client);
+            }
+            return item;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reject the new items and release the waiting takers once the queue is
+     * empty
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Number of clients with pending items
+     *
+     * @return
+     */
+    public int clients() {
+        lock.lock();
+        try {
+            return lanes.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
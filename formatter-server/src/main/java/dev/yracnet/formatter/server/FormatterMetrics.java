@@ -0,0 +1,144 @@
+/*
+ * Copyright 2020 wyujra.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.yracnet.formatter.server;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters, gauges and the format latency histogram of the server, rendered
+ * in the Prometheus text format.
+ *
+ * @author wyujra
+ */
+public class FormatterMetrics {
+
+    private static final double[] BUCKETS = {0.001, 0.005, 0.01, 0.05, 0.1, 0.5, 1, 5, 10, 60};
+
+    private final Map<String, Map<String, LongAdder>> counters = new ConcurrentHashMap<>();
+    private final Map<String, String> help = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private final LongAdder[] buckets = new LongAdder[BUCKETS.length];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumNanos = new LongAdder();
+
+    public FormatterMetrics() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Add to a counter
+     *
+     * @param name the metric name
+     * @param labels the labels as key="value" pairs, or empty
+     * @param value the increment
+     */
+    public void add(String name, String labels, long value) {
+        counters.computeIfAbsent(name, key -> new ConcurrentHashMap<>())
+                .computeIfAbsent(labels, key -> new LongAdder())
+                .add(value);
+    }
+
+    public void increment(String name, String labels) {
+        add(name, labels, 1);
+    }
+
+    /**
+     * Declare the help text of a metric
+     *
+     * @param name
+     * @param text
+     */
+    public void help(String name, String text) {
+        help.put(name, text);
+    }
+
+    /**
+     * Register a gauge read on each scrape
+     *
+     * @param name
+     * @param text
+     * @param value
+     */
+    public void gauge(String name, String text, LongSupplier value) {
+        help.put(name, text);
+        gauges.put(name, value);
+    }
+
+    /**
+     * Record the duration of a format
+     *
+     * @param nanos
+     */
+    public void observe(long nanos) {
+        double seconds = nanos / 1e9;
+        for (int i = 0; i < BUCKETS.length; i++) {
+            if (seconds <= BUCKETS[i]) {
+                buckets[i].increment();
+            }
+        }
+        count.increment();
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * Render all metrics in the Prometheus text exposition format
+     *
+     * @return
+     */
+    public String render() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Map<String, LongAdder>> counter : new TreeMap<>(counters).entrySet()) {
+            header(sb, counter.getKey(), "counter");
+            for (Map.Entry<String, LongAdder> value : new TreeMap<>(counter.getValue()).entrySet()) {
+                sb.append(counter.getKey());
+                if (!value.getKey().isEmpty()) {
+                    sb.append('{').append(value.getKey()).append('}');
+                }
+                sb.append(' ').append(value.getValue().sum()).append('\n');
+            }
+        }
+        for (Map.Entry<String, LongSupplier> gauge : new TreeMap<>(gauges).entrySet()) {
+            header(sb, gauge.getKey(), "gauge");
+            sb.append(gauge.getKey()).append(' ').append(gauge.getValue().getAsLong()).append('\n');
+        }
+        String name = "formatter_format_duration_seconds";
+        header(sb, name, "histogram");
+        for (int i = 0; i < BUCKETS.length; i++) {
+            sb.append(name).append("_bucket{le=\"").append(BUCKETS[i]).append("\"} ").append(buckets[i].sum()).append('\n');
+        }
+        long total = count.sum();
+        sb.append(name).append("_bucket{le=\"+Inf\"} ").append(total).append('\n');
+        sb.append(name).append("_sum ").append(String.format(Locale.ROOT, "%.6f", sumNanos.sum() / 1e9)).append('\n');
+        sb.append(name).append("_count ").append(total).append('\n');
+        return sb.toString();
+    }
+
+    private void header(StringBuilder sb, String name, String type) {
+        String text = help.get(name);
+        if (text != null) {
+            sb.append("# HELP ").append(name).append(' ').append(text).append('\n');
+        }
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+}
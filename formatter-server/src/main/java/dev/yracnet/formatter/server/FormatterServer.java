@@ -0,0 +1,504 @@
+/*
+ * Copyright 2020 wyujra.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.yracnet.formatter.server;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import dev.yracnet.formatter.FormatterBuild;
+import dev.yracnet.formatter.FormatterException;
+import dev.yracnet.formatter.FormatterLog;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * HTTP formatting service on the JDK server. The codes are formatted by a
+ * fixed pool of workers, each one with its warm formatters, fed from a
+ * {@link FairQueue} with one lane per client.
+ *
+ * <ul>
+ * <li><b>POST /format?name=Foo.java</b> - the body is the code, the
+ * response is the formatted code</li>
+ * <li><b>POST /format/batch</b> - the body is a JSON object of codes by file
+ * name, the response has the formatted codes and the errors by file
+ * name</li>
+ * <li><b>GET /metrics</b> - Prometheus text format</li>
+ * </ul>
+ *
+ * The client is the remote address. The X-Client-Id header names the client
+ * only when the request comes from a trusted proxy, any other caller could
+ * send a new id by request and escape its limit.
+ *
+ * @author wyujra
+ */
+public class FormatterServer {
+
+    private static final String CLIENT_HEADER = "X-Client-Id";
+    private static final String NAME_HEADER = "X-Formatter-Name";
+    private static final String TEXT = "text/plain; charset=UTF-8";
+    private static final String METRICS = "text/plain; version=0.0.4; charset=UTF-8";
+
+    private final FormatterBuild build;
+    private final FormatterMetrics metrics = new FormatterMetrics();
+    private final ObjectMapper mapper = new ObjectMapper();
+    private int port = 8080;
+    private int threads = 0;
+    private int handlerThreads = 32;
+    private int maxRequestBytes = 4 * 1024 * 1024;
+    private int maxBatchEntries = 1000;
+    private int maxPendingPerClient = 1000;
+    private long requestTimeout = 120000;
+    private Set<String> trustedProxies = Collections.emptySet();
+
+    private HttpServer server;
+    private ExecutorService handlers;
+    private List<Thread> workers;
+    private FairQueue<Job> queue;
+
+    /**
+     * Create a server for the formatter settings of the build
+     *
+     * @param build the settings, its in-memory methods format the codes
+     */
+    public FormatterServer(FormatterBuild build) {
+        this.build = build;
+    }
+
+    public static void main(String[] args) throws IOException {
+        FormatterBuild build = FormatterBuild.create();
+        build.setEncoding("UTF-8");
+        FormatterServer server = new FormatterServer(build);
+        if (args.length > 0) {
+            server.setPort(Integer.parseInt(args[0]));
+        }
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+    }
+
+    /**
+     * Start the workers and the HTTP server
+     *
+     * @throws IOException if the port cannot be bound
+     */
+    public synchronized void start() throws IOException {
+        int workerCount = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        queue = new FairQueue<>(maxPendingPerClient);
+        workers = new ArrayList<>(workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = new Thread(this::work, "formatter-server-worker-" + (i + 1));
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+        AtomicInteger count = new AtomicInteger();
+        handlers = Executors.newFixedThreadPool(handlerThreads, task -> {
+            Thread thread = new Thread(task, "formatter-server-http-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        metrics.help("formatter_requests_total", "HTTP requests by endpoint and status.");
+        metrics.help("formatter_files_total", "Formatted codes by result.");
+        metrics.help("formatter_bytes_received_total", "Bytes of code received.");
+        metrics.help("formatter_bytes_sent_total", "Bytes of formatted code sent.");
+        metrics.help("formatter_format_duration_seconds", "Time to format a code.");
+        metrics.gauge("formatter_queue_depth", "Codes waiting for a worker.", () -> queue.size());
+        metrics.gauge("formatter_queue_clients", "Clients with codes waiting.", () -> queue.clients());
+        metrics.gauge("formatter_workers", "Format workers.", () -> workers.size());
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.setExecutor(handlers);
+        server.createContext("/format", exchange -> handle(exchange, "format"));
+        server.createContext("/format/batch", exchange -> handle(exchange, "batch"));
+        server.createContext("/metrics", exchange -> handle(exchange, "metrics"));
+        server.start();
+        log().info("Formatter server on port " + getLocalPort() + " with " + workerCount + " worker(s)");
+    }
+
+    /**
+     * Stop accepting requests, let the queued codes finish and stop the
+     * workers
+     */
+    public synchronized void stop() {
+        if (server == null) {
+            return;
+        }
+        queue.close();
+        server.stop(1);
+        for (Thread worker : workers) {
+            try {
+                worker.join(requestTimeout);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        handlers.shutdownNow();
+        server = null;
+    }
+
+    /**
+     * The bound port, useful when started on the port 0
+     *
+     * @return
+     */
+    public int getLocalPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void work() {
+        try {
+            Job job;
+            while ((job = queue.take()) != null) {
+                if (job.result.isDone()) {
+                    // the request gave up waiting
+                    continue;
+                }
+                long start = System.nanoTime();
+                try {
+                    job.result.complete(build.format(job.content, job.name));
+                } catch (FormatterException | RuntimeException e) {
+                    job.result.completeExceptionally(e);
+                }
+                metrics.observe(System.nanoTime() - start);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void handle(HttpExchange exchange, String endpoint) throws IOException {
+        int status;
+        try {
+            switch (endpoint) {
+                case "metrics":
+                    status = reply(exchange, 200, METRICS, metrics.render());
+                    break;
+                case "batch":
+                    status = batch(exchange);
+                    break;
+                default:
+                    status = single(exchange);
+                    break;
+            }
+        } catch (RuntimeException e) {
+            log().warn(e);
+            status = reply(exchange, 500, TEXT, String.valueOf(e.getMessage()));
+        } finally {
+            exchange.close();
+        }
+        metrics.increment("formatter_requests_total", "endpoint=\"" + endpoint + "\",status=\"" + status + "\"");
+    }
+
+    private int single(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            return reply(exchange, 405, TEXT, "POST the code");
+        }
+        String name = exchange.getRequestHeaders().getFirst(NAME_HEADER);
+        if (name == null) {
+            name = query(exchange, "name");
+        }
+        if (name == null) {
+            return reply(exchange, 400, TEXT, "The name or language is required, as ?name=Foo.java");
+        }
+        byte[] body = read(exchange);
+        if (body == null) {
+            return reply(exchange, 413, TEXT, "The request exceeds " + maxRequestBytes + " bytes");
+        }
+        Job job = new Job(name, new String(body, StandardCharsets.UTF_8));
+        List<Job> jobs = new ArrayList<>(1);
+        jobs.add(job);
+        if (!queue.offer(client(exchange), jobs)) {
+            return reply(exchange, 429, TEXT, "Too many pending codes for the client");
+        }
+        try {
+            String formatted = await(job);
+            exchange.getResponseHeaders().set("X-Formatter-Changed", String.valueOf(!formatted.equals(job.content)));
+            return reply(exchange, 200, TEXT, formatted);
+        } catch (FormatterException e) {
+            return reply(exchange, 422, TEXT, message(e));
+        } catch (TimeoutException e) {
+            return reply(exchange, 503, TEXT, "The request exceeded " + requestTimeout + "ms");
+        }
+    }
+
+    private int batch(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            return reply(exchange, 405, TEXT, "POST a JSON object of codes by file name");
+        }
+        byte[] body = read(exchange);
+        if (body == null) {
+            return reply(exchange, 413, TEXT, "The request exceeds " + maxRequestBytes + " bytes");
+        }
+        Map<String, String> contents;
+        try {
+            contents = mapper.readValue(body, mapper.getTypeFactory().constructMapType(LinkedHashMap.class, String.class, String.class));
+        } catch (IOException e) {
+            return reply(exchange, 400, TEXT, "Invalid JSON: " + e.getMessage());
+        }
+        if (contents.size() > maxBatchEntries) {
+            return reply(exchange, 413, TEXT, "The batch exceeds " + maxBatchEntries + " codes");
+        }
+        List<Job> jobs = new ArrayList<>(contents.size());
+        for (Map.Entry<String, String> content : contents.entrySet()) {
+            jobs.add(new Job(content.getKey(), content.getValue() == null ? "" : content.getValue()));
+        }
+        if (!queue.offer(client(exchange), jobs)) {
+            return reply(exchange, 429, TEXT, "Too many pending codes for the client");
+        }
+        Map<String, String> formatted = new LinkedHashMap<>();
+        Map<String, String> errors = new LinkedHashMap<>();
+        for (Job job : jobs) {
+            try {
+                formatted.put(job.name, await(job));
+            } catch (FormatterException e) {
+                errors.put(job.name, message(e));
+            } catch (TimeoutException e) {
+                errors.put(job.name, "The request exceeded " + requestTimeout + "ms");
+            }
+        }
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("formatted", formatted);
+        response.put("errors", errors);
+        return reply(exchange, 200, "application/json; charset=UTF-8", mapper.writeValueAsString(response));
+    }
+
+    private String await(Job job) throws FormatterException, TimeoutException {
+        try {
+            String formatted = job.result.get(requestTimeout, TimeUnit.MILLISECONDS);
+            metrics.increment("formatter_files_total", formatted.equals(job.content) ? "result=\"unchanged\"" : "result=\"formatted\"");
+            return formatted;
+        } catch (ExecutionException e) {
+            metrics.increment("formatter_files_total", "result=\"failed\"");
+            if (e.getCause() instanceof FormatterException) {
+                throw (FormatterException) e.getCause();
+            }
+            throw new FormatterException("Fail to format '" + job.name + "'", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FormatterException("Interrupted while formatting", e);
+        } catch (TimeoutException e) {
+            job.result.cancel(false);
+            metrics.increment("formatter_files_total", "result=\"timeout\"");
+            throw e;
+        }
+    }
+
+    /**
+     * Read the body up to the size limit
+     *
+     * @return the body or null if exceeds the limit
+     */
+    private byte[] read(HttpExchange exchange) throws IOException {
+        String length = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (length != null && Long.parseLong(length) > maxRequestBytes) {
+            return null;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        try ( InputStream in = exchange.getRequestBody()) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                if (out.size() + read > maxRequestBytes) {
+                    return null;
+                }
+                out.write(buffer, 0, read);
+            }
+        }
+        metrics.add("formatter_bytes_received_total", "", out.size());
+        return out.toByteArray();
+    }
+
+    private int reply(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] data = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, data.length == 0 ? -1 : data.length);
+        if (data.length > 0) {
+            try ( OutputStream out = exchange.getResponseBody()) {
+                out.write(data);
+            }
+        }
+        if (status == 200) {
+            metrics.add("formatter_bytes_sent_total", "", data.length);
+        }
+        return status;
+    }
+
+    private String client(HttpExchange exchange) {
+        String address = exchange.getRemoteAddress().getAddress().getHostAddress();
+        String client = trustedProxies.contains(address) ? exchange.getRequestHeaders().getFirst(CLIENT_HEADER) : null;
+        return client != null ? address + "/" + client : address;
+    }
+
+    private static String query(HttpExchange exchange, String key) {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return null;
+        }
+        for (String pair : query.split("&")) {
+            int index = pair.indexOf('=');
+            if (index > 0 && pair.substring(0, index).equals(key)) {
+                return URLDecoder.decode(pair.substring(index + 1), StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    private static String message(FormatterException e) {
+        Throwable cause = e.getCause();
+        return cause == null || cause.getMessage() == null ? e.getMessage() : e.getMessage() + ": " + cause.getMessage();
+    }
+
+    private FormatterLog log() {
+        return build.getLog();
+    }
+
+    private static class Job {
+
+        private final String name;
+        private final String content;
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+
+        Job(String name, String content) {
+            this.name = name;
+            this.content = content;
+        }
+    }
+
+    public FormatterMetrics getMetrics() {
+        return metrics;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Set the port, 0 for any free port
+     *
+     * @param port
+     */
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Set the number of format workers, 0 for the available processors
+     *
+     * @param threads
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public int getHandlerThreads() {
+        return handlerThreads;
+    }
+
+    /**
+     * Set the number of threads that serve the HTTP requests
+     *
+     * @param handlerThreads
+     */
+    public void setHandlerThreads(int handlerThreads) {
+        this.handlerThreads = handlerThreads;
+    }
+
+    public int getMaxRequestBytes() {
+        return maxRequestBytes;
+    }
+
+    /**
+     * Set the maximum size of a request body, larger requests are rejected
+     * with 413
+     *
+     * @param maxRequestBytes
+     */
+    public void setMaxRequestBytes(int maxRequestBytes) {
+        this.maxRequestBytes = maxRequestBytes;
+    }
+
+    public int getMaxBatchEntries() {
+        return maxBatchEntries;
+    }
+
+    public void setMaxBatchEntries(int maxBatchEntries) {
+        this.maxBatchEntries = maxBatchEntries;
+    }
+
+    public int getMaxPendingPerClient() {
+        return maxPendingPerClient;
+    }
+
+    /**
+     * Set the maximum number of codes queued for a client, more are rejected
+     * with 429
+     *
+     * @param maxPendingPerClient
+     */
+    public void setMaxPendingPerClient(int maxPendingPerClient) {
+        this.maxPendingPerClient = maxPendingPerClient;
+    }
+
+    public long getRequestTimeout() {
+        return requestTimeout;
+    }
+
+    /**
+     * Set the time in milliseconds a request waits for its codes
+     *
+     * @param requestTimeout
+     */
+    public void setRequestTimeout(long requestTimeout) {
+        this.requestTimeout = requestTimeout;
+    }
+
+    public Set<String> getTrustedProxies() {
+        return trustedProxies;
+    }
+
+    /**
+     * Set the addresses of the proxies that authenticate the clients, their
+     * X-Client-Id header names the client of the request
+     *
+     * @param trustedProxies the IP addresses, as 127.0.0.1
+     */
+    public void setTrustedProxies(Set<String> trustedProxies) {
+        this.trustedProxies = trustedProxies == null ? Collections.emptySet() : new HashSet<>(trustedProxies);
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2020 wyujra.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.yracnet.formatter.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/**
+ *
+ * @author wyujra
+ */
+public class FairQueueTest {
+
+    @Test
+    public void takesTheClientsInTurns() throws InterruptedException {
+        FairQueue<String> queue = new FairQueue<>(10);
+        assertTrue(queue.offer("a", Arrays.asList("a1", "a2", "a3", "a4")));
+        assertTrue(queue.offer("b", Arrays.asList("b1", "b2")));
+        assertTrue(queue.offer("c", Collections.singletonList("c1")));
+        assertEquals(3, queue.clients());
+        List<String> taken = new ArrayList<>();
+        while (queue.size() > 0) {
+            taken.add(queue.take());
+        }
+        assertEquals(Arrays.asList("a1", "b1", "c1", "a2", "b2", "a3", "a4"), taken);
+        assertEquals(0, queue.clients());
+    }
+
+    @Test
+    public void aClientThatComesBackWaitsForItsTurn() throws InterruptedException {
+        FairQueue<String> queue = new FairQueue<>(10);
+        queue.offer("a", Arrays.asList("a1", "a2"));
+        queue.offer("b", Arrays.asList("b1", "b2"));
+        assertEquals("a1", queue.take());
+        // the lane of c goes after the lanes that are waiting
+        queue.offer("c", Collections.singletonList("c1"));
+        assertEquals("b1", queue.take());
+        assertEquals("a2", queue.take());
+        assertEquals("c1", queue.take());
+        assertEquals("b2", queue.take());
+    }
+
+    @Test
+    public void rejectsAllTheItemsOverThePendingLimit() throws InterruptedException {
+        FairQueue<String> queue = new FairQueue<>(3);
+        assertTrue(queue.offer("a", Arrays.asList("a1", "a2")));
+        assertFalse(queue.offer("a", Arrays.asList("a3", "a4")));
+        assertEquals(2, queue.size());
+        // the limit is by client
+        assertTrue(queue.offer("b", Arrays.asList("b1", "b2", "b3")));
+        assertTrue(queue.offer("a", Collections.singletonList("a3")));
+        assertFalse(queue.offer("a", Collections.singletonList("a4")));
+        assertEquals("a1", queue.take());
+        assertTrue(queue.offer("a", Collections.singletonList("a4")));
+        assertEquals(6, queue.size());
+    }
+
+    @Test
+    public void closeDrainsThePendingItemsAndRejectsNewOnes() throws InterruptedException {
+        FairQueue<String> queue = new FairQueue<>(10);
+        queue.offer("a", Collections.singletonList("a1"));
+        queue.close();
+        assertFalse(queue.offer("b", Collections.singletonList("b1")));
+        assertEquals("a1", queue.take());
+        assertNull(queue.take());
+    }
+
+    @Test
+    public void closeReleasesTheWaitingTakers() throws Exception {
+        FairQueue<String> queue = new FairQueue<>(10);
+        CompletableFuture<String> first = new CompletableFuture<>();
+        CompletableFuture<String> second = new CompletableFuture<>();
+        startTaker(queue, first);
+        startTaker(queue, second);
+        queue.offer("a", Collections.singletonList("a1"));
+        queue.close();
+        List<String> taken = Arrays.asList(first.get(5, TimeUnit.SECONDS), second.get(5, TimeUnit.SECONDS));
+        assertTrue(taken.contains("a1"));
+        assertTrue(taken.contains(null));
+    }
+
+    private static void startTaker(FairQueue<String> queue, CompletableFuture<String> result) {
+        Thread thread = new Thread(() -> {
+            try {
+                result.complete(queue.take());
+            } catch (InterruptedException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2020 wyujra.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.yracnet.formatter.server;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.yracnet.formatter.FormatterBuild;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load test of a local {@link FormatterServer}: one noisy client sends
+ * batches while the other clients send single codes; prints the latency per
+ * client and fails on any server error.
+ *
+ * Usage: FormatterServerLoadTest [clients] [requestsPerClient]
+ *
+ * @author wyujra
+ */
+public class FormatterServerLoadTest {
+
+    private static final String[][] SAMPLES = {
+        {"Sample.java", "public class Sample{int f(int a,int b){if(a>b){return a-b;}else{return a+b;}}}"},
+        {"sample.js", "var f = function(a,b){ var r=[];for(var i=0;i<a;i++){r.push({k:i,v:b});}return r;};"},
+        {"sample.json", "{\"items\":[{\"id\":1,\"name\":\"n\",\"tags\":[\"a\",\"b\"]}]}"},
+        {"sample.css", ".c div{color:#fff;margin:2px;padding:0 1em}"},
+        {"sample.xml", "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<root><item id=\"1\"><name>n</name></item></root>\n"}
+    };
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        FormatterBuild build = FormatterBuild.create();
+        build.setEncoding("UTF-8");
+        FormatterServer server = new FormatterServer(build);
+        server.setPort(0);
+        server.setMaxRequestBytes(64 * 1024);
+        // the clients of the test share the local address, they are named by their header
+        server.setTrustedProxies(new HashSet<>(Arrays.asList("127.0.0.1", "0:0:0:0:0:0:0:1")));
+        server.start();
+        String base = "http://localhost:" + server.getLocalPort();
+        HttpClient http = HttpClient.newHttpClient();
+        ObjectMapper mapper = new ObjectMapper();
+        Map<String, AtomicInteger> statuses = new ConcurrentHashMap<>();
+        Map<String, List<Long>> latencies = new ConcurrentHashMap<>();
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        try {
+            // warm up the workers
+            post(http, base + "/format?name=Sample.java", "noisy", SAMPLES[0][1]);
+
+            long start = System.nanoTime();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int c = 0; c < clients; c++) {
+                String client = c == 0 ? "noisy" : "client-" + c;
+                Random random = new Random(c);
+                futures.add(pool.submit(() -> {
+                    List<Long> times = Collections.synchronizedList(new ArrayList<>());
+                    latencies.put(client, times);
+                    for (int r = 0; r < requests; r++) {
+                        long t = System.nanoTime();
+                        HttpResponse<String> response;
+                        if (client.equals("noisy")) {
+                            Map<String, String> batch = new LinkedHashMap<>();
+                            for (int i = 0; i < 50; i++) {
+                                String[] sample = SAMPLES[random.nextInt(SAMPLES.length)];
+                                batch.put(i + "/" + sample[0], sample[1]);
+                            }
+                            response = post(http, base + "/format/batch", client, mapper.writeValueAsString(batch));
+                        } else {
+                            String[] sample = SAMPLES[random.nextInt(SAMPLES.length)];
+                            response = post(http, base + "/format?name=" + sample[0], client, sample[1]);
+                        }
+                        times.add(System.nanoTime() - t);
+                        statuses.computeIfAbsent(String.valueOf(response.statusCode()), key -> new AtomicInteger()).incrementAndGet();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            int tooLarge = post(http, base + "/format?name=Big.java", "limits", new String(new char[128 * 1024]).replace('\0', ' ')).statusCode();
+            int unknown = post(http, base + "/format?name=file.rb", "limits", "puts 1").statusCode();
+            String metrics = http.send(HttpRequest.newBuilder(URI.create(base + "/metrics")).build(),
+                    HttpResponse.BodyHandlers.ofString()).body();
+
+            System.out.println("Requests: " + statuses + " in " + String.format("%.1f", seconds) + "s");
+            for (Map.Entry<String, List<Long>> client : new java.util.TreeMap<>(latencies).entrySet()) {
+                List<Long> times = new ArrayList<>(client.getValue());
+                Collections.sort(times);
+                System.out.println(client.getKey() + ": p50 " + times.get(times.size() / 2) / 1000000 + "ms, p99 "
+                        + times.get((int) (times.size() * 0.99)) / 1000000 + "ms");
+            }
+            System.out.println("Oversized request: " + tooLarge + ", unknown language: " + unknown);
+            System.out.println(metrics);
+            for (String status : statuses.keySet()) {
+                if (!status.equals("200")) {
+                    throw new IllegalStateException("Unexpected status " + status + ": " + statuses);
+                }
+            }
+            if (tooLarge != 413 || unknown != 422 || !metrics.contains("formatter_format_duration_seconds_count")) {
+                throw new IllegalStateException("Unexpected limits or metrics response");
+            }
+        } finally {
+            pool.shutdownNow();
+            server.stop();
+        }
+    }
+
+    private static HttpResponse<String> post(HttpClient http, String url, String client, String body) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                .header("X-Client-Id", client)
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        return http.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright 2020 wyujra.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.yracnet.formatter.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic generator of source trees with mixed JAVA, JS, XML, JSON, CSS
+ * and HTML files. The same seed and settings always produce the same tree,
+ * byte for byte.
+ *
+ * @author wyujra
+ */
+public class CorpusGenerator {
+
+    private static final String[] LANGUAGES = {"java", "js", "xml", "json", "css", "html"};
+
+    private long seed = 42;
+    private int fileCount = 1000;
+    private int medianSize = 2 * 1024;
+    private int maxSize = 256 * 1024;
+    private double sizeSpread = 1.0;
+    private double duplicateRatio = 0.05;
+    private double malformedRatio = 0.02;
+    private int directoryFanout = 8;
+    private int directoryDepth = 4;
+    private int[] languageWeights = {40, 20, 15, 10, 10, 5};
+
+    private Random random;
+    // the files with own content, a duplicate is copied from one of them, so the
+    // content of the corpus is not kept in the heap
+    private final List<File> originals = new ArrayList<>();
+    private int duplicates;
+    private int malformed;
+    private long bytes;
+
+    /**
+     * Generate the corpus in the directory, the directory must be empty or
+     * not exist
+     *
+     * @param directory
+     * @return the number of files generated
+     * @throws IOException
+     */
+    public int generate(File directory) throws IOException {
+        random = new Random(seed);
+        originals.clear();
+        duplicates = 0;
+        malformed = 0;
+        bytes = 0;
+        for (int i = 0; i < fileCount; i++) {
+            if (!originals.isEmpty() && random.nextDouble() < duplicateRatio) {
+                File original = originals.get(random.nextInt(originals.size()));
+                String name = original.getName();
+                File file = new File(directory, nextDirectory() + "/File" + i + name.substring(name.lastIndexOf('.')));
+                file.getParentFile().mkdirs();
+                Files.copy(original.toPath(), file.toPath());
+                bytes += file.length();
+                duplicates++;
+            } else {
+                String language = nextLanguage();
+                String content = content(language, nextSize());
+                if (random.nextDouble() < malformedRatio) {
+                    content = malform(content);
+                    malformed++;
+                }
+                File file = new File(directory, nextDirectory() + "/File" + i + "." + language);
+                file.getParentFile().mkdirs();
+                byte[] data = content.getBytes(StandardCharsets.UTF_8);
+                Files.write(file.toPath(), data);
+                bytes += data.length;
+                originals.add(file);
+            }
+        }
+        originals.clear();
+        return fileCount;
+    }
+
+    private String nextLanguage() {
+        int total = 0;
+        for (int weight : languageWeights) {
+            total += weight;
+        }
+        int value = random.nextInt(total);
+        for (int i = 0; i < LANGUAGES.length; i++) {
+            value -= languageWeights[i];
+            if (value < 0) {
+                return LANGUAGES[i];
+            }
+        }
+        return LANGUAGES[0];
+    }
+
+    /**
+     * Log-normal size around the median, most files are small and a few are
+     * huge
+     */
+    private int nextSize() {
+        double size = medianSize * Math.exp(random.nextGaussian() * sizeSpread);
+        return (int) Math.max(64, Math.min(maxSize, size));
+    }
+
+    private String nextDirectory() {
+        StringBuilder path = new StringBuilder("src");
+        int depth = 1 + random.nextInt(directoryDepth);
+        for (int i = 0; i < depth; i++) {
+            path.append("/d").append(random.nextInt(directoryFanout));
+        }
+        return path.toString();
+    }
+
+    private String malform(String content) {
+        switch (random.nextInt(3)) {
+            case 0:
+                return content.substring(0, content.length() / 2);
+            case 1:
+                return content.replaceFirst("[}>\\]]", "");
+            default:
+                return "<<{{" + content;
+        }
+    }
+
+    private String content(String language, int size) {
+        StringBuilder sb = new StringBuilder(size + 256);
+        switch (language) {
+            case "java":
+                java(sb, size);
+                break;
+            case "js":
+                javascript(sb, size);
+                break;
+            case "xml":
+                xml(sb, size);
+                break;
+            case "json":
+                json(sb, size);
+                break;
+            case "css":
+                css(sb, size);
+                break;
+            default:
+                html(sb, size);
+                break;
+        }
+        return sb.toString();
+    }
+
+    private void java(StringBuilder sb, int size) {
+        sb.append("package gen.p").append(random.nextInt(100)).append(";\n");
+        sb.append("import java.util.List;\n");
+        sb.append("public class Gen").append(random.nextInt(100000)).append(" {\n");
+        int m = 0;
+        while (sb.length() < size) {
+            sb.append("private int f").append(m).append("=").append(random.nextInt(1000)).append(";\n");
+            sb.append("  public int m").append(m).append("(int a,int b){ if(a>b){return a-b;}else{ for(int i=0;i<b;i++){a+=i*f")
+                    .append(m).append(";}}\nreturn a+b; }\n");
+            m++;
+        }
+        sb.append("}\n");
+    }
+
+    private void javascript(StringBuilder sb, int size) {
+        int m = 0;
+        while (sb.length() < size) {
+            sb.append("var f").append(m).append(" = function(a,b){ var r=[];for(var i=0;i<a;i++){r.push({k:i,v:b+")
+                    .append(random.nextInt(100)).append("});}\nreturn r;};\n");
+            m++;
+        }
+    }
+
+    private void xml(StringBuilder sb, int size) {
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<root>");
+        int m = 0;
+        while (sb.length() < size) {
+            sb.append("<item id=\"").append(m).append("\"><name>n").append(random.nextInt(1000))
+                    .append("</name>\n<value>").append(random.nextInt(1000)).append("</value></item>");
+            m++;
+        }
+        sb.append("</root>\n");
+    }
+
+    private void json(StringBuilder sb, int size) {
+        sb.append("{\"items\":[");
+        int m = 0;
+        while (sb.length() < size) {
+            if (m > 0) {
+                sb.append(",");
+            }
+            sb.append("{\"id\":").append(m).append(",\"name\":\"n").append(random.nextInt(1000))
+                    .append("\",\"tags\":[\"a\",\"b\"],\"active\":").append(random.nextBoolean()).append("}");
+            m++;
+        }
+        sb.append("]}\n");
+    }
+
+    private void css(StringBuilder sb, int size) {
+        int m = 0;
+        while (sb.length() < size) {
+            sb.append(".c").append(m).append(" div{color:#").append(Integer.toHexString(0x100000 + random.nextInt(0xEFFFFF)))
+                    .append(";margin:").append(random.nextInt(20)).append("px;padding:0 ").append(random.nextInt(9)).append("em}\n");
+            m++;
+        }
+    }
+
+    private void html(StringBuilder sb, int size) {
+        sb.append("<!DOCTYPE html><html><head><title>Gen</title></head><body>");
+        int m = 0;
+        while (sb.length() < size) {
+            sb.append("<div class=\"c").append(m).append("\"><p>Text ").append(random.nextInt(1000))
+                    .append("</p><ul><li>a</li><li>b</li></ul></div>\n");
+            m++;
+        }
+        sb.append("</body></html>\n");
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public int getFileCount() {
+        return fileCount;
+    }
+
+    public void setFileCount(int fileCount) {
+        this.fileCount = fileCount;
+    }
+
+    public int getMedianSize() {
+        return medianSize;
+    }
+
+    /**
+     * Set the median size of the generated files in bytes
+     *
+     * @param medianSize
+     */
+    public void setMedianSize(int medianSize) {
+        this.medianSize = medianSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public double getSizeSpread() {
+        return sizeSpread;
+    }
+
+    /**
+     * Set the sigma of the log-normal size distribution, 0 for all files of
+     * the median size
+     *
+     * @param sizeSpread
+     */
+    public void setSizeSpread(double sizeSpread) {
+        this.sizeSpread = sizeSpread;
+    }
+
+    public double getDuplicateRatio() {
+        return duplicateRatio;
+    }
+
+    /**
+     * Set the ratio of files that are a byte copy of a previous file
+     *
+     * @param duplicateRatio
+     */
+    public void setDuplicateRatio(double duplicateRatio) {
+        this.duplicateRatio = duplicateRatio;
+    }
+
+    public double getMalformedRatio() {
+        return malformedRatio;
+    }
+
+    /**
+     * Set the ratio of files with broken syntax
+     *
+     * @param malformedRatio
+     */
+    public void setMalformedRatio(double malformedRatio) {
+        this.malformedRatio = malformedRatio;
+    }
+
+    public int getDirectoryFanout() {
+        return directoryFanout;
+    }
+
+    public void setDirectoryFanout(int directoryFanout) {
+        this.directoryFanout = directoryFanout;
+    }
+
+    public int getDirectoryDepth() {
+        return directoryDepth;
+    }
+
+    public void setDirectoryDepth(int directoryDepth) {
+        this.directoryDepth = directoryDepth;
+    }
+
+    public int[] getLanguageWeights() {
+        return languageWeights;
+    }
+
+    /**
+     * Set the relative weights for java, js, xml, json, css and html
+     *
+     * @param languageWeights
+     */
+    public void setLanguageWeights(int... languageWeights) {
+        this.languageWeights = languageWeights;
+    }
+
+    public int getDuplicates() {
+        return duplicates;
+    }
+
+    public int getMalformed() {
+        return malformed;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2020 wyujra.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.yracnet.formatter.test;
+
+import static org.junit.Assert.assertTrue;
+
+import dev.yracnet.formatter.FormatterBuild;
+import dev.yracnet.formatter.FormatterException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Test;
+
+/**
+ * Throughput regression gate. Generate a synthetic corpus, run
+ * {@link FormatterBuild#execute()} over it twice (cold and warm cache) and
+ * compare the measures against the stored baseline.
+ *
+ * The absolute files/sec and heap of a machine say nothing on another one, so
+ * the measures are relative: the files/sec are divided by the score of a
+ * calibration workload that only uses the JDK, run before and after the
+ * measures, and a corpus of an eighth of the files is formatted first, so the
+ * throughput and the peak heap of the whole corpus are compared with it to
+ * find the scaling regressions. The scaling measures hold between machines,
+ * the calibrated throughput only against a baseline of the same machine, as
+ * the one the CI records from the base commit; the committed baseline has
+ * only the scaling measures.
+ *
+ * The system properties formatter.gate.baseline and formatter.gate.files
+ * change the baseline file and the corpus size. With formatter.gate.update
+ * the measured values are stored as the new baseline instead of being
+ * compared.
+ *
+ * @author wyujra
+ */
+public class ThroughputGateTest {
+
+    private static long sink;
+
+    @Test
+    public void throughputWithinTheBaseline() throws FormatterException, IOException {
+        File workDirectory = new File("target/throughput");
+        File baselineFile = new File(System.getProperty("formatter.gate.baseline", "src/test/resources/throughput-baseline.properties"));
+        Properties baseline = new Properties();
+        if (baselineFile.exists()) {
+            try (InputStream in = new FileInputStream(baselineFile)) {
+                baseline.load(in);
+            }
+        }
+        String files = System.getProperty("formatter.gate.files", "");
+        int fileCount = Integer.parseInt(files.isEmpty() ? baseline.getProperty("files", "1000") : files);
+        FileUtils.deleteDirectory(workDirectory);
+        File warmUp = new File(workDirectory, "warm-up");
+        File small = new File(workDirectory, "small");
+        File smallCopy = new File(workDirectory, "small-copy");
+        File large = new File(workDirectory, "large");
+        // the same seed generates the same first files, the small corpus is a prefix of the large one
+        int smallFiles = generate(baseline, Math.max(1, fileCount / 8), new File(small, "corpus"));
+        int largeFiles = generate(baseline, fileCount, new File(large, "corpus"));
+        // the warm-up formats its own copy, the small corpus is formatted cold as the large one
+        generate(baseline, smallFiles, new File(warmUp, "corpus"));
+        generate(baseline, smallFiles, new File(smallCopy, "corpus"));
+
+        double before = calibrate();
+        // a first run loads and compiles the formatters, it is not compared
+        measure("warm-up", warmUp, smallFiles);
+        // the small run is short, the best of two copies is less noisy
+        double[] smallCold = measure("small cold", small, smallFiles);
+        double[] again = measure("small cold", smallCopy, smallFiles);
+        smallCold = again[0] > smallCold[0] ? again : smallCold;
+        double[] cold = measure("cold", large, largeFiles);
+        // a warm run takes a fraction of a second, the best of three is less noisy
+        double[] warm = measure("warm", large, largeFiles);
+        for (int i = 0; i < 2; i++) {
+            again = measure("warm", large, largeFiles);
+            warm = again[0] > warm[0] ? again : warm;
+        }
+        // the load of a shared machine changes during the runs, the score is the mean of both ends
+        double score = (before + calibrate()) / 2;
+        System.out.println("Calibration: " + format(score) + " op/s");
+
+        Properties measured = new Properties();
+        measured.setProperty("throughput.cold", format(1000 * cold[0] / score));
+        measured.setProperty("throughput.warm", format(1000 * warm[0] / score));
+        measured.setProperty("throughput.scaling", format(cold[0] / smallCold[0]));
+        measured.setProperty("heap.scaling", format(cold[1] / smallCold[1]));
+        System.out.println("Relative: " + measured);
+
+        if (Boolean.getBoolean("formatter.gate.update")) {
+            Properties store = new Properties();
+            store.putAll(baseline);
+            store.putAll(measured);
+            store.setProperty("files", String.valueOf(largeFiles));
+            try (OutputStream out = new FileOutputStream(baselineFile)) {
+                store.store(out, "formatter throughput baseline");
+            }
+            System.out.println("Baseline updated: " + baselineFile);
+            return;
+        }
+        double tolerance = Double.parseDouble(baseline.getProperty("tolerance", "0.25"));
+        List<String> regressions = new ArrayList<>();
+        for (String key : measured.stringPropertyNames()) {
+            String expected = baseline.getProperty(key);
+            if (expected == null) {
+                continue;
+            }
+            double value = Double.parseDouble(measured.getProperty(key));
+            double limit = Double.parseDouble(expected);
+            boolean higherIsBetter = key.startsWith("throughput.");
+            if (higherIsBetter ? value < limit * (1 - tolerance) : value > limit * (1 + tolerance)) {
+                regressions.add(key + " = " + measured.getProperty(key) + " (baseline " + expected + ")");
+            }
+        }
+        assertTrue("Throughput regression, tolerance " + tolerance + ": " + regressions, regressions.isEmpty());
+        System.out.println("Throughput within tolerance " + tolerance + " of " + baselineFile);
+    }
+
+    private static int generate(Properties baseline, int files, File corpus) throws IOException {
+        CorpusGenerator generator = new CorpusGenerator();
+        generator.setSeed(Long.parseLong(baseline.getProperty("seed", "42")));
+        generator.setFileCount(files);
+        generator.setMedianSize(Integer.parseInt(baseline.getProperty("medianSize", "2048")));
+        generator.setDuplicateRatio(Double.parseDouble(baseline.getProperty("duplicateRatio", "0.05")));
+        generator.setMalformedRatio(Double.parseDouble(baseline.getProperty("malformedRatio", "0.02")));
+        int count = generator.generate(corpus);
+        System.out.println("Corpus: " + count + " file(s), " + generator.getBytes() + " bytes, "
+                + generator.getDuplicates() + " duplicate(s), " + generator.getMalformed() + " malformed");
+        return count;
+    }
+
+    /**
+     * Score of this machine: the best rate of five rounds of split, sort and
+     * join of a generated text
+     *
+     * @return the operations by second
+     */
+    static double calibrate() {
+        Random random = new Random(1);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            sb.append("item").append(random.nextInt(1000)).append(i % 7 == 0 ? '\n' : ' ');
+        }
+        String text = sb.toString();
+        double best = 0;
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            long elapsed;
+            int operations = 0;
+            do {
+                String[] words = text.split("\\s+");
+                Arrays.sort(words);
+                sink += String.join(",", words).hashCode();
+                operations++;
+                elapsed = System.nanoTime() - start;
+            } while (elapsed < 200_000_000L);
+            best = Math.max(best, operations / (elapsed / 1e9));
+        }
+        return best;
+    }
+
+    /**
+     * Format the corpus of the directory, with the cache in the target
+     *
+     * @return the files/sec and the peak heap in MB
+     */
+    private static double[] measure(String name, File directory, int files) throws FormatterException {
+        File corpus = new File(directory, "corpus");
+        File target = new File(directory, "target");
+        System.gc();
+        List<MemoryPoolMXBean> pools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                pool.resetPeakUsage();
+                pools.add(pool);
+            }
+        }
+        FormatterBuild build = FormatterBuild.create();
+        build.setBasedir(corpus);
+        build.setDirectories(corpus);
+        build.setTargetDirectory(target);
+        build.setEncoding("UTF-8");
+        long start = System.nanoTime();
+        build.execute();
+        long elapsed = System.nanoTime() - start;
+        long peak = 0;
+        for (MemoryPoolMXBean pool : pools) {
+            peak += pool.getPeakUsage().getUsed();
+        }
+        double filesPerSecond = files / (elapsed / 1e9);
+        double peakHeapMb = peak / (1024.0 * 1024.0);
+        System.out.println("Run " + name + ": " + format(filesPerSecond) + " files/s, peak heap "
+                + format(peakHeapMb) + " MB");
+        return new double[]{filesPerSecond, peakHeapMb};
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.2f", value);
+    }
+
+}